@@ -18,8 +18,8 @@ import uk.co.akm.imprintdemo.error.UselessKeyException;
 import uk.co.akm.imprintdemo.key.KeySerializationException;
 import uk.co.akm.imprintdemo.key.KeySerializer;
 import uk.co.akm.imprintdemo.key.KeySerializerFactory;
-import uk.co.akm.imprintdemo.server.InMemoryRemoteServer;
-import uk.co.akm.imprintdemo.server.RemoteServer;
+import uk.co.akm.imprintdemo.server.AsyncRemoteServer;
+import uk.co.akm.imprintdemo.server.ServerCallback;
 import uk.co.akm.imprintdemo.server.ServerException;
 import uk.co.akm.imprintdemo.utils.AuthenticationListener;
 import uk.co.akm.imprintdemo.utils.FingerprintAuthenticatorFactory;
@@ -32,10 +32,11 @@ import uk.co.akm.imprintdemo.utils.FingerprintLocalAuthenticator;
  * Created by Thanos Mavroidis.
  */
 public class AuthAsymmetricActivity extends AppCompatActivity implements AuthenticationListener {
-    private final RemoteServer server = new InMemoryRemoteServer();
-    private final KeySerializer keySerializer = KeySerializerFactory.instance();
+    private final KeySerializer keySerializer = KeySerializerFactory.compactInstance();
     private final FingerprintLocalAuthenticator authenticator = FingerprintAuthenticatorFactory.localAuthenticatorInstance();
 
+    private AsyncRemoteServer server;
+
     private EditText usernameRegistrationText;
     private EditText usernameAuthenticationText;
 
@@ -51,6 +52,8 @@ public class AuthAsymmetricActivity extends AppCompatActivity implements Authent
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_auth_asymmetric);
 
+        server = ((ImprintDemo) getApplication()).remoteServer();
+
         usernameRegistrationText = (EditText) findViewById(R.id.auth_asymmetric_registration_username);
         usernameAuthenticationText = (EditText) findViewById(R.id.auth_asymmetric_authentication_username);
 
@@ -60,6 +63,25 @@ public class AuthAsymmetricActivity extends AppCompatActivity implements Authent
         fingerprintImageView = findViewById(R.id.auth_asymmetric_fingerprint_image);
     }
 
+    // Server replies are posted to the UI thread, where they may arrive after the activity is gone.
+    private <T> ServerCallback<T> unlessDestroyed(final ServerCallback<T> callback) {
+        return new ServerCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                if (!isDestroyed()) {
+                    callback.onSuccess(result);
+                }
+            }
+
+            @Override
+            public void onFailure(ServerException error) {
+                if (!isDestroyed()) {
+                    callback.onFailure(error);
+                }
+            }
+        };
+    }
+
     public void onReset(View view) {
         authenticator.reset();
         Toast.makeText(this, "Reset complete.", Toast.LENGTH_SHORT).show();
@@ -74,18 +96,23 @@ public class AuthAsymmetricActivity extends AppCompatActivity implements Authent
         }
     }
 
-    private void register(String username) {
+    private void register(final String username) {
         final String serializedKey = generateKeyPairAndSerializePublicKey();
 
         if (serializedKey == null) {
             Toast.makeText(this, "Key generation or serialization error.", Toast.LENGTH_SHORT).show();
         } else {
-            try {
-                server.registerPublicKey(username, serializedKey);
-                Toast.makeText(this, "User '" + username + "' registered successfully.", Toast.LENGTH_SHORT).show();
-            } catch (ServerException e) {
-                Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
-            }
+            server.registerPublicKey(username, serializedKey, unlessDestroyed(new ServerCallback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    Toast.makeText(AuthAsymmetricActivity.this, "User '" + username + "' registered successfully.", Toast.LENGTH_SHORT).show();
+                }
+
+                @Override
+                public void onFailure(ServerException error) {
+                    Toast.makeText(AuthAsymmetricActivity.this, error.getMessage(), Toast.LENGTH_SHORT).show();
+                }
+            }));
         }
     }
 
@@ -169,22 +196,21 @@ public class AuthAsymmetricActivity extends AppCompatActivity implements Authent
         authenticatedWithServer(result.getCryptoObject().getSignature());
     }
 
-    private void authenticatedWithServer(Signature signatureFunction) {
-        final byte[] message = getAuthenticationMessageFromServer(username);
-        if (message != null) {
-            authenticatedWithServer(username, message, signatureFunction);
-        } else {
-            stopAuthentication();
-        }
-    }
+    private void authenticatedWithServer(final Signature signatureFunction) {
+        final String username = this.username;
 
-    private byte[] getAuthenticationMessageFromServer(String username) {
-        try {
-            return server.getAuthenticationMessageToSign(username);
-        } catch (ServerException e) {
-            Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
-            return null;
-        }
+        server.getAuthenticationMessageToSign(username, unlessDestroyed(new ServerCallback<byte[]>() {
+            @Override
+            public void onSuccess(byte[] message) {
+                authenticatedWithServer(username, message, signatureFunction);
+            }
+
+            @Override
+            public void onFailure(ServerException error) {
+                Toast.makeText(AuthAsymmetricActivity.this, error.getMessage(), Toast.LENGTH_SHORT).show();
+                stopAuthentication();
+            }
+        }));
     }
 
     private void authenticatedWithServer(String username, byte[] message, Signature signatureFunction) {
@@ -209,17 +235,23 @@ public class AuthAsymmetricActivity extends AppCompatActivity implements Authent
     }
 
     private void authenticatedWithServer(String username, byte[] message, byte[] signature) {
-        try {
-            if (server.authenticate(username, message, signature)) {
-                onRemoteAuthenticationComplete();
-            } else {
-                this.username = null;
-                Toast.makeText(this, "Access Denied.", Toast.LENGTH_SHORT).show();
+        server.authenticate(username, message, signature, unlessDestroyed(new ServerCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean authenticated) {
+                if (authenticated) {
+                    onRemoteAuthenticationComplete();
+                } else {
+                    AuthAsymmetricActivity.this.username = null;
+                    Toast.makeText(AuthAsymmetricActivity.this, "Access Denied.", Toast.LENGTH_SHORT).show();
+                }
             }
-        } catch (ServerException e) {
-            this.username = null;
-            Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+
+            @Override
+            public void onFailure(ServerException error) {
+                AuthAsymmetricActivity.this.username = null;
+                Toast.makeText(AuthAsymmetricActivity.this, error.getMessage(), Toast.LENGTH_SHORT).show();
+            }
+        }));
     }
 
     private void onRemoteAuthenticationComplete() {
@@ -1,24 +1,72 @@
 package uk.co.akm.imprintdemo;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import uk.co.akm.imprintdemo.server.AsyncRemoteServer;
+import uk.co.akm.imprintdemo.server.ExecutorAsyncRemoteServer;
+import uk.co.akm.imprintdemo.server.InMemoryRemoteServer;
+import uk.co.akm.imprintdemo.server.RemoteServer;
 import uk.co.akm.imprintdemo.utils.FingerprintAuthenticatorFactory;
 
 /**
  * Application initialization where the fingerprint authentication API (actually just its factory
  * class) is initialized.
  *
+ * The application also holds the (in-process) remote server, so that there is one server, with one
+ * set of threads and registered users, however many times the activities using it are recreated.
+ *
  * Created by thanosmavroidis on 19/09/2016.
  */
 public class ImprintDemo extends Application {
     private static final String FINGERPRINT_AUTH_KEY_NAME = "imprint.demo.secret.key";
 
+    private RemoteServer remoteServer;
+    private ExecutorService serverExecutor;
+    private AsyncRemoteServer asyncRemoteServer;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
         FingerprintAuthenticatorFactory.init(FINGERPRINT_AUTH_KEY_NAME);
         Log.d(getClass().getSimpleName(), "FingerprintAuthenticatorFactory initialized.");
+
+        final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+        remoteServer = new InMemoryRemoteServer();
+        serverExecutor = Executors.newSingleThreadExecutor();
+        asyncRemoteServer = new ExecutorAsyncRemoteServer(remoteServer, serverExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainThreadHandler.post(command); // Server replies are handled on the UI thread.
+            }
+        });
+    }
+
+    /**
+     * @return the remote server shared by all the activities of the application
+     */
+    public AsyncRemoteServer remoteServer() {
+        return asyncRemoteServer;
+    }
+
+    // Only called on emulated processes, as real ones are just killed, but there is no other end of life for the server.
+    @Override
+    public void onTerminate() {
+        serverExecutor.shutdownNow();
+        try {
+            remoteServer.close();
+        } catch (IOException ioe) {
+            Log.e(getClass().getSimpleName(), "Remote server close error.", ioe);
+        }
+
+        super.onTerminate();
     }
 }
@@ -0,0 +1,155 @@
+package uk.co.akm.imprintdemo.key;
+
+/**
+ * Plain JVM replacement for the android.util.Base64 DEFAULT flavour that the serialized keys were
+ * written with: the standard alphabet with padding, lines of at most 76 characters, each ended by
+ * '\n'. Decoding ignores whitespace and accepts missing padding.
+ */
+final class Base64Codec {
+    private static final int LINE_LENGTH = 76;
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final int INVALID = -1;
+    private static final int WHITESPACE = -2;
+    private static final int PADDING = -3;
+
+    private static final int[] VALUES = new int[128];
+    static {
+        for (int i=0 ; i<VALUES.length ; i++) {
+            VALUES[i] = (i <= ' ' ? WHITESPACE : INVALID);
+        }
+        for (int i=0 ; i<ALPHABET.length ; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+        VALUES['='] = PADDING;
+    }
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+    static String encode(byte[] data) {
+        return encode(data, true);
+    }
+
+    /**
+     * Encodes the input on a single line without the trailing '\n' (the android.util.Base64 NO_WRAP
+     * flavour), e.g. for short values that are embedded in other text.
+     */
+    static String encodeNoWrap(byte[] data) {
+        return encode(data, false);
+    }
+
+    private static String encode(byte[] data, boolean wrap) {
+        final int encodedLength = 4*((data.length + 2)/3);
+        final int lines = (wrap ? (encodedLength + LINE_LENGTH - 1)/LINE_LENGTH : 0);
+        final char[] encoded = new char[encodedLength + lines];
+
+        int position = 0;
+        int lineLength = 0;
+        for (int i=0 ; i<data.length ; i+=3) {
+            final int remaining = data.length - i;
+            final int bits = ((data[i] & 0xff) << 16) | (remaining > 1 ? (data[i + 1] & 0xff) << 8 : 0) | (remaining > 2 ? data[i + 2] & 0xff : 0);
+            encoded[position++] = ALPHABET[(bits >>> 18) & 0x3f];
+            encoded[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+            encoded[position++] = (remaining > 1 ? ALPHABET[(bits >>> 6) & 0x3f] : '=');
+            encoded[position++] = (remaining > 2 ? ALPHABET[bits & 0x3f] : '=');
+
+            lineLength += 4;
+            if (wrap && lineLength == LINE_LENGTH) {
+                encoded[position++] = '\n';
+                lineLength = 0;
+            }
+        }
+
+        if (wrap && lineLength > 0) {
+            encoded[position++] = '\n';
+        }
+
+        return new String(encoded, 0, position);
+    }
+
+    static byte[] decode(String encoded) throws IllegalArgumentException {
+        final byte[] decoded = new byte[decodedLength(encoded, 0, encoded.length())];
+        decode(encoded, 0, encoded.length(), decoded);
+
+        return decoded;
+    }
+
+    /**
+     * Decodes the input range into an array of this thread that is reused for as long as the decoded
+     * lengths stay the same (e.g. while keys of one type are decoded), and is only valid until the
+     * next call on the same thread.
+     */
+    static byte[] decodeReusing(CharSequence encoded, int start, int end) throws IllegalArgumentException {
+        final int length = decodedLength(encoded, start, end);
+        byte[] decoded = BUFFERS.get();
+        if (decoded == null || decoded.length != length) {
+            decoded = new byte[length];
+            BUFFERS.set(decoded);
+        }
+        decode(encoded, start, end, decoded);
+
+        return decoded;
+    }
+
+    // Validates the input range and returns the number of bytes it decodes to.
+    private static int decodedLength(CharSequence encoded, int start, int end) throws IllegalArgumentException {
+        int digits = 0;
+        boolean padded = false;
+        for (int i=start ; i<end ; i++) {
+            final char c = encoded.charAt(i);
+            final int value = (c < VALUES.length ? VALUES[c] : INVALID);
+            if (value == WHITESPACE) {
+                continue;
+            }
+
+            if (value == PADDING) {
+                padded = true;
+                continue;
+            }
+
+            if (value == INVALID || padded) {
+                throw new IllegalArgumentException("Bad Base64 character at index " + (i - start) + ".");
+            }
+            digits++;
+        }
+
+        if (digits%4 == 1) {
+            throw new IllegalArgumentException("Truncated Base64 input.");
+        }
+
+        return 3*(digits/4) + (digits%4 == 0 ? 0 : digits%4 - 1);
+    }
+
+    // Decodes an input range that #decodedLength(CharSequence, int, int) has accepted.
+    private static void decode(CharSequence encoded, int start, int end, byte[] decoded) {
+        int length = 0;
+        int bits = 0;
+        int digits = 0;
+        for (int i=start ; i<end ; i++) {
+            final char c = encoded.charAt(i);
+            final int value = VALUES[c];
+            if (value < 0) {
+                continue; // Whitespace or padding.
+            }
+
+            bits = (bits << 6) | value;
+            if (++digits == 4) {
+                decoded[length++] = (byte)(bits >>> 16);
+                decoded[length++] = (byte)(bits >>> 8);
+                decoded[length++] = (byte)bits;
+                bits = 0;
+                digits = 0;
+            }
+        }
+
+        if (digits == 2) {
+            decoded[length] = (byte)(bits >>> 4);
+        } else if (digits == 3) {
+            decoded[length++] = (byte)(bits >>> 10);
+            decoded[length] = (byte)(bits >>> 2);
+        }
+    }
+
+    private Base64Codec() {}
+}
@@ -0,0 +1,257 @@
+package uk.co.akm.imprintdemo.key;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Operation;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+
+/**
+ * Encodes public keys in as few bytes as possible. The first byte holds the format version (high
+ * nibble) and the key type (low nibble) and the rest depends on the type:
+ *
+ * P-256 EC key: the uncompressed point, i.e. 0x04 followed by the x and y coordinates (65 bytes)
+ * Compressed P-256 EC key: 0x02 or 0x03 (for an even or odd y) followed by the x coordinate (33
+ * bytes), which trades a modular square root on decoding for the 32 bytes of y
+ * RSA key with the F4 (65537) public exponent: the unsigned modulus
+ * Ed25519 key: the 32 bytes of the public key
+ * Any other key: the algorithm name length (1 byte), the algorithm name and the X.509 encoded key
+ */
+final class CompactKeyCodec implements KeyCodec, KeySerializerConstants {
+    static final int VERSION = 1;
+
+    static final int TYPE_X509 = 0;
+    static final int TYPE_EC_P256 = 1;
+    static final int TYPE_RSA_F4 = 2;
+    static final int TYPE_ED25519 = 3;
+    static final int TYPE_EC_P256_COMPRESSED = 4;
+
+    private static final byte UNCOMPRESSED_POINT = 0x04;
+    private static final byte COMPRESSED_POINT_EVEN_Y = 0x02;
+    private static final byte COMPRESSED_POINT_ODD_Y = 0x03;
+    private static final int P256_POINT_LENGTH = 1 + 2*Secp256r1.FIELD_LENGTH;
+    private static final int P256_COMPRESSED_POINT_LENGTH = 1 + Secp256r1.FIELD_LENGTH;
+    private static final int ED25519_KEY_LENGTH = 32;
+    private static final byte[] ED25519_X509_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+    private static final BigInteger F4 = BigInteger.valueOf(65537);
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final boolean compressPoints;
+
+    CompactKeyCodec() {
+        this(false);
+    }
+
+    /**
+     * @param compressPoints true to encode P-256 keys as compressed points (keys of both encodings are always decoded)
+     */
+    CompactKeyCodec(boolean compressPoints) {
+        this.compressPoints = compressPoints;
+    }
+
+    @Override
+    public byte[] encode(PublicKey key) throws KeySerializationException {
+        final long start = Metrics.start();
+        try {
+            return encodeKey(key);
+        } catch (KeySerializationException kse) {
+            Metrics.count(Outcome.KEY_SERIALIZATION_ERROR);
+            throw kse;
+        } finally {
+            Metrics.stop(Operation.ENCODE_KEY, start);
+        }
+    }
+
+    private byte[] encodeKey(PublicKey key) throws KeySerializationException {
+        if (key instanceof ECPublicKey && Secp256r1.matches(((ECPublicKey)key).getParams())) {
+            return (compressPoints ? encodeP256Compressed((ECPublicKey)key) : encodeP256((ECPublicKey)key));
+        }
+
+        if (key instanceof RSAPublicKey && F4.equals(((RSAPublicKey)key).getPublicExponent())) {
+            return encodeRsa((RSAPublicKey)key);
+        }
+
+        final byte[] x509 = key.getEncoded();
+        if (KEY_ALGORITHM_EDDSA.equals(key.getAlgorithm()) && isEd25519(x509)) {
+            return encodeEd25519(x509);
+        }
+
+        return encodeX509(key, x509);
+    }
+
+    // Ed25519 keys are recognized by their X.509 encoding, which is the same for every key up to the key bytes.
+    private static boolean isEd25519(byte[] x509) {
+        if (x509 == null || x509.length != ED25519_X509_PREFIX.length + ED25519_KEY_LENGTH) {
+            return false;
+        }
+
+        for (int i=0 ; i<ED25519_X509_PREFIX.length ; i++) {
+            if (x509[i] != ED25519_X509_PREFIX[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private byte[] encodeP256(ECPublicKey key) {
+        final ECPoint point = key.getW();
+        final byte[] encoded = new byte[1 + P256_POINT_LENGTH];
+        encoded[0] = header(TYPE_EC_P256);
+        encoded[1] = UNCOMPRESSED_POINT;
+        Secp256r1.writeFieldElement(point.getAffineX(), encoded, 2);
+        Secp256r1.writeFieldElement(point.getAffineY(), encoded, 2 + Secp256r1.FIELD_LENGTH);
+
+        return encoded;
+    }
+
+    private byte[] encodeP256Compressed(ECPublicKey key) {
+        final ECPoint point = key.getW();
+        final byte[] encoded = new byte[1 + P256_COMPRESSED_POINT_LENGTH];
+        encoded[0] = header(TYPE_EC_P256_COMPRESSED);
+        encoded[1] = (point.getAffineY().testBit(0) ? COMPRESSED_POINT_ODD_Y : COMPRESSED_POINT_EVEN_Y);
+        Secp256r1.writeFieldElement(point.getAffineX(), encoded, 2);
+
+        return encoded;
+    }
+
+    private byte[] encodeRsa(RSAPublicKey key) {
+        final byte[] modulus = key.getModulus().toByteArray();
+        final int signByte = (modulus[0] == 0 ? 1 : 0);
+        final byte[] encoded = new byte[1 + modulus.length - signByte];
+        encoded[0] = header(TYPE_RSA_F4);
+        System.arraycopy(modulus, signByte, encoded, 1, modulus.length - signByte);
+
+        return encoded;
+    }
+
+    private byte[] encodeEd25519(byte[] x509) {
+        final byte[] encoded = new byte[1 + ED25519_KEY_LENGTH];
+        encoded[0] = header(TYPE_ED25519);
+        System.arraycopy(x509, ED25519_X509_PREFIX.length, encoded, 1, ED25519_KEY_LENGTH);
+
+        return encoded;
+    }
+
+    private byte[] encodeX509(PublicKey key, byte[] x509) {
+        final byte[] algorithm = key.getAlgorithm().getBytes(US_ASCII);
+        if (!X509KeySerializer.X_509.equals(key.getFormat()) || x509 == null || algorithm.length > 255) {
+            throw new KeySerializationException("Unsupported public key encoding format " + key.getFormat() + ". Only the " + X509KeySerializer.X_509 + " format is supported.");
+        }
+
+        final byte[] encoded = new byte[2 + algorithm.length + x509.length];
+        encoded[0] = header(TYPE_X509);
+        encoded[1] = (byte)algorithm.length;
+        System.arraycopy(algorithm, 0, encoded, 2, algorithm.length);
+        System.arraycopy(x509, 0, encoded, 2 + algorithm.length, x509.length);
+
+        return encoded;
+    }
+
+    private static byte header(int type) {
+        return (byte)((VERSION << 4) | type);
+    }
+
+    @Override
+    public PublicKey decode(byte[] data, int offset, int length) throws KeySerializationException {
+        final long start = Metrics.start();
+        try {
+            return decodeKey(data, offset, length);
+        } catch (KeySerializationException kse) {
+            Metrics.count(Outcome.KEY_DESERIALIZATION_ERROR);
+            throw kse;
+        } finally {
+            Metrics.stop(Operation.DECODE_KEY, start);
+        }
+    }
+
+    private PublicKey decodeKey(byte[] data, int offset, int length) throws KeySerializationException {
+        if (length < 2 || (data[offset] & 0xff) >>> 4 != VERSION) {
+            throw new KeySerializationException("Invalid compact public key encoding.");
+        }
+
+        try {
+            switch (data[offset] & 0x0f) {
+                case TYPE_EC_P256: return decodeP256(data, offset + 1, length - 1);
+                case TYPE_EC_P256_COMPRESSED: return decodeP256Compressed(data, offset + 1, length - 1);
+                case TYPE_RSA_F4: return decodeRsa(data, offset + 1, length - 1);
+                case TYPE_ED25519: return decodeEd25519(data, offset + 1, length - 1);
+                case TYPE_X509: return decodeX509(data, offset + 1, length - 1);
+                default: throw new KeySerializationException("Unknown compact public key type " + (data[offset] & 0x0f) + ".");
+            }
+        } catch (KeySerializationException kse) {
+            throw kse;
+        } catch (Exception e) {
+            throw new KeySerializationException("Key deserialization error.", e);
+        }
+    }
+
+    private PublicKey decodeP256(byte[] data, int offset, int length) throws Exception {
+        if (length != P256_POINT_LENGTH || data[offset] != UNCOMPRESSED_POINT) {
+            throw new KeySerializationException("Invalid P-256 public key point encoding.");
+        }
+
+        final BigInteger x = Secp256r1.readFieldElement(data, offset + 1);
+        final BigInteger y = Secp256r1.readFieldElement(data, offset + 1 + Secp256r1.FIELD_LENGTH);
+        if (!Secp256r1.isOnCurve(x, y)) {
+            throw new KeySerializationException("Invalid P-256 public key point: (x, y) is not on the curve.");
+        }
+
+        return KeyFactories.get(KEY_ALGORITHM_EC).generatePublic(new ECPublicKeySpec(new ECPoint(x, y), Secp256r1.PARAMETERS));
+    }
+
+    private PublicKey decodeP256Compressed(byte[] data, int offset, int length) throws Exception {
+        if (length != P256_COMPRESSED_POINT_LENGTH || (data[offset] != COMPRESSED_POINT_EVEN_Y && data[offset] != COMPRESSED_POINT_ODD_Y)) {
+            throw new KeySerializationException("Invalid P-256 public key point encoding.");
+        }
+
+        final BigInteger x = Secp256r1.readFieldElement(data, offset + 1);
+        final BigInteger y = Secp256r1.y(x, data[offset] == COMPRESSED_POINT_ODD_Y);
+        if (y == null) {
+            throw new KeySerializationException("Invalid P-256 public key point: x is not on the curve.");
+        }
+
+        return KeyFactories.get(KEY_ALGORITHM_EC).generatePublic(new ECPublicKeySpec(new ECPoint(x, y), Secp256r1.PARAMETERS));
+    }
+
+    private PublicKey decodeRsa(byte[] data, int offset, int length) throws Exception {
+        final byte[] modulus = new byte[length];
+        System.arraycopy(data, offset, modulus, 0, length);
+
+        return KeyFactories.get(KEY_ALGORITHM_RSA).generatePublic(new RSAPublicKeySpec(new BigInteger(1, modulus), F4));
+    }
+
+    private PublicKey decodeEd25519(byte[] data, int offset, int length) throws Exception {
+        if (length != ED25519_KEY_LENGTH) {
+            throw new KeySerializationException("Invalid Ed25519 public key encoding.");
+        }
+
+        final byte[] x509 = new byte[ED25519_X509_PREFIX.length + ED25519_KEY_LENGTH];
+        System.arraycopy(ED25519_X509_PREFIX, 0, x509, 0, ED25519_X509_PREFIX.length);
+        System.arraycopy(data, offset, x509, ED25519_X509_PREFIX.length, ED25519_KEY_LENGTH);
+
+        return KeyFactories.get(KEY_ALGORITHM_EDDSA).generatePublic(new X509EncodedKeySpec(x509));
+    }
+
+    private PublicKey decodeX509(byte[] data, int offset, int length) throws Exception {
+        final int algorithmLength = data[offset] & 0xff;
+        if (algorithmLength == 0 || 1 + algorithmLength >= length) {
+            throw new KeySerializationException("Invalid compact public key encoding.");
+        }
+
+        final String algorithm = new String(data, offset + 1, algorithmLength, US_ASCII);
+        final byte[] x509 = new byte[length - 1 - algorithmLength];
+        System.arraycopy(data, offset + 1 + algorithmLength, x509, 0, x509.length);
+
+        return KeyFactories.get(algorithm).generatePublic(new X509EncodedKeySpec(x509));
+    }
+}
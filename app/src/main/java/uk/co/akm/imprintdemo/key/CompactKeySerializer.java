@@ -0,0 +1,93 @@
+package uk.co.akm.imprintdemo.key;
+
+import java.security.PublicKey;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Operation;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+
+/**
+ * Serializes keys as the single line Base64 encoding of their #CompactKeyCodec bytes, with P-256
+ * keys as compressed points, i.e. 48 characters for an EC key instead of the 135 of the
+ * ALGORITHM|FORMAT|X.509 format. The serialized keys start with the versioned header byte of the
+ * codec and never contain the separator, so keys serialized by #KeySerializerImpl are recognized
+ * and deserialized as well.
+ */
+final class CompactKeySerializer implements KeySerializer, KeySerializerConstants {
+    private static final String CACHE_NAMESPACE = "Compact";
+
+    private final KeyCodec codec = new CompactKeyCodec(true);
+    private final KeySerializerImpl separatedKeySerializer;
+    private final PublicKeyCache keyCache;
+
+    /**
+     * @param maxCachedKeys the number of deserialized keys kept for reuse in each format (0 for none)
+     */
+    CompactKeySerializer(int maxCachedKeys) {
+        separatedKeySerializer = new KeySerializerImpl(maxCachedKeys);
+        keyCache = (maxCachedKeys > 0 ? new PublicKeyCache(maxCachedKeys) : null);
+    }
+
+    @Override
+    public String serialize(PublicKey key) throws KeySerializationException {
+        final long start = Metrics.start();
+        try {
+            return Base64Codec.encodeNoWrap(codec.encode(key));
+        } finally {
+            Metrics.stop(Operation.SERIALIZE_KEY, start);
+        }
+    }
+
+    @Override
+    public PublicKey deserialize(String serializedKey) throws KeySerializationException {
+        return deserialize(serializedKey, 0, (serializedKey == null ? 0 : serializedKey.length()));
+    }
+
+    @Override
+    public PublicKey deserialize(CharSequence serializedKey, int start, int end) throws KeySerializationException {
+        if (serializedKey == null || hasSeparator(serializedKey, start, end)) {
+            return separatedKeySerializer.deserialize(serializedKey, start, end);
+        }
+
+        final long startTime = Metrics.start();
+        try {
+            return deserializeKey(serializedKey, start, end);
+        } finally {
+            Metrics.stop(Operation.DESERIALIZE_KEY, startTime);
+        }
+    }
+
+    private PublicKey deserializeKey(CharSequence serializedKey, int start, int end) throws KeySerializationException {
+        final byte[] keyBytes;
+        try {
+            keyBytes = Base64Codec.decodeReusing(serializedKey, start, end);
+        } catch (IllegalArgumentException iae) {
+            Metrics.count(Outcome.KEY_DESERIALIZATION_ERROR); // The codec counts the errors of the keys it decodes.
+            throw new KeySerializationException("Key deserialization error.", iae);
+        }
+
+        if (keyCache == null) {
+            return codec.decode(keyBytes, 0, keyBytes.length);
+        }
+
+        final PublicKeyCache.KeyDigest digest = keyCache.digest(CACHE_NAMESPACE, keyBytes);
+        PublicKey key = keyCache.get(digest);
+        if (key == null) {
+            key = codec.decode(keyBytes, 0, keyBytes.length);
+            keyCache.put(digest, key);
+        }
+
+        return key;
+    }
+
+    private static boolean hasSeparator(CharSequence serializedKey, int start, int end) {
+        for (int i=start ; i<end ; i++) {
+            if (serializedKey.charAt(i) == SEPARATOR) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,13 @@
+package uk.co.akm.imprintdemo.key;
+
+import java.security.PublicKey;
+
+/**
+ * Binary public key encoding, for storing or transmitting keys as raw bytes.
+ */
+public interface KeyCodec {
+
+    byte[] encode(PublicKey key) throws KeySerializationException;
+
+    PublicKey decode(byte[] data, int offset, int length) throws KeySerializationException;
+}
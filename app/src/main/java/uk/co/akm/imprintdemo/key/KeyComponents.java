@@ -1,25 +1,76 @@
 package uk.co.akm.imprintdemo.key;
 
 
+/**
+ * The parts of a serialized key, algorithm|format|data, found without copying them out of the
+ * serialized key: the algorithm is one of the #KEY_ALGORITHMS constants and the format and the data
+ * are kept as ranges of the serialized key.
+ */
 final class KeyComponents implements KeySerializerConstants {
+    private static final String[] ALGORITHMS = KEY_ALGORITHMS.toArray(new String[KEY_ALGORITHMS.size()]);
+
+    final CharSequence serializedKey;
     final String algorithm;
-    final String format;
-    final String data;
+    final int formatStart;
+    final int formatEnd;
+    final int dataStart;
+    final int dataEnd;
 
-    KeyComponents(String serializedKey) {
+    KeyComponents(CharSequence serializedKey, int start, int end) {
         try {
-            final int sep1 = serializedKey.indexOf(SEPARATOR, 0);
-            final int sep2 = serializedKey.indexOf(SEPARATOR, sep1 + 1);
-
-            algorithm = serializedKey.substring(0, sep1);
-            format = serializedKey.substring(sep1 + 1, sep2);
-            data = serializedKey.substring(sep2 + 1);
+            final int sep1 = indexOfSeparator(serializedKey, start, end);
+            final int sep2 = indexOfSeparator(serializedKey, sep1 + 1, end);
 
-            if (!KEY_ALGORITHMS.contains(algorithm)) {
-                throw KeySerializationException.unsupportedAlgorithmInstance(algorithm);
-            }
+            this.serializedKey = serializedKey;
+            this.algorithm = algorithm(serializedKey, start, sep1);
+            this.formatStart = sep1 + 1;
+            this.formatEnd = sep2;
+            this.dataStart = sep2 + 1;
+            this.dataEnd = end;
         } catch (Exception e) {
             throw new KeySerializationException("Invalid serialized public key format.", e);
         }
     }
+
+    boolean hasFormat(String format) {
+        return regionEquals(serializedKey, formatStart, formatEnd, format);
+    }
+
+    String format() {
+        return serializedKey.subSequence(formatStart, formatEnd).toString();
+    }
+
+    private static int indexOfSeparator(CharSequence serializedKey, int from, int end) {
+        for (int i=from ; i<end ; i++) {
+            if (serializedKey.charAt(i) == SEPARATOR) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Missing '" + SEPARATOR + "' separator.");
+    }
+
+    private static String algorithm(CharSequence serializedKey, int start, int end) {
+        for (String algorithm : ALGORITHMS) {
+            if (regionEquals(serializedKey, start, end, algorithm)) {
+                return algorithm;
+            }
+        }
+
+        throw KeySerializationException.unsupportedAlgorithmInstance(serializedKey.subSequence(start, end).toString());
+    }
+
+    private static boolean regionEquals(CharSequence sequence, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+
+        for (int i=0 ; i<value.length() ; i++) {
+            if (sequence.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
 }
@@ -0,0 +1,34 @@
+package uk.co.akm.imprintdemo.key;
+
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * One #KeyFactory per algorithm and thread, so that keys are not built with a new factory (and a new
+ * provider lookup) every time. Key factories are not thread-safe, so they are not shared between
+ * threads.
+ */
+final class KeyFactories {
+    private static final ThreadLocal<Map<String, KeyFactory>> FACTORIES = new ThreadLocal<>();
+
+    static KeyFactory get(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, KeyFactory> factories = FACTORIES.get();
+        if (factories == null) {
+            factories = new HashMap<>(4);
+            FACTORIES.set(factories);
+        }
+
+        KeyFactory factory = factories.get(algorithm);
+        if (factory == null) {
+            factory = KeyFactory.getInstance(algorithm);
+            factories.put(algorithm, factory);
+        }
+
+        return factory;
+    }
+
+    private KeyFactories() {}
+}
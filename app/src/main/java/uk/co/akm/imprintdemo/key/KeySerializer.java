@@ -7,4 +7,10 @@ public interface KeySerializer {
     String serialize(PublicKey key) throws KeySerializationException;
 
     PublicKey deserialize(String serializedKey) throws KeySerializationException;
+
+    /**
+     * Deserializes the key between the input start (inclusive) and end (exclusive) indices, e.g. of
+     * a buffer holding many serialized keys, without copying it out of the sequence first.
+     */
+    PublicKey deserialize(CharSequence serializedKey, int start, int end) throws KeySerializationException;
 }
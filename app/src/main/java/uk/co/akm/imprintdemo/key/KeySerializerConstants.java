@@ -8,5 +8,6 @@ public interface KeySerializerConstants {
     char SEPARATOR = '|';
     String KEY_ALGORITHM_EC = "EC";
     String KEY_ALGORITHM_RSA = "RSA";
-    Set<String> KEY_ALGORITHMS = new HashSet<>(Arrays.asList(KEY_ALGORITHM_EC, KEY_ALGORITHM_RSA));
+    String KEY_ALGORITHM_EDDSA = "EdDSA"; // The algorithm name of Ed25519 keys.
+    Set<String> KEY_ALGORITHMS = new HashSet<>(Arrays.asList(KEY_ALGORITHM_EC, KEY_ALGORITHM_RSA, KEY_ALGORITHM_EDDSA));
 }
@@ -2,9 +2,49 @@ package uk.co.akm.imprintdemo.key;
 
 
 public class KeySerializerFactory {
+    public static final int DEFAULT_MAX_CACHED_KEYS = 1024;
 
     public static final KeySerializer instance() {
-        return new KeySerializerImpl();
+        return instance(DEFAULT_MAX_CACHED_KEYS);
+    }
+
+    /**
+     * Returns a serializer that keeps up to the input number of deserialized keys, least recently
+     * used first out, and returns the same key instance when the same key is deserialized again.
+     *
+     * @param maxCachedKeys the maximum number of cached keys (0 for no cache)
+     * @return a key serializer
+     */
+    public static final KeySerializer instance(int maxCachedKeys) {
+        if (maxCachedKeys < 0) {
+            throw new IllegalArgumentException("Negative maximum number of cached keys: " + maxCachedKeys);
+        }
+
+        return new KeySerializerImpl(maxCachedKeys);
+    }
+
+    public static final KeySerializer compactInstance() {
+        return compactInstance(DEFAULT_MAX_CACHED_KEYS);
+    }
+
+    /**
+     * Returns a serializer that writes keys in the compact format (a versioned binary encoding, with
+     * EC keys as compressed points and RSA keys as their modulus, in Base64) and reads keys in both
+     * the compact format and the format of the #instance() serializers.
+     *
+     * @param maxCachedKeys the maximum number of cached keys of each format (0 for no cache)
+     * @return a key serializer
+     */
+    public static final KeySerializer compactInstance(int maxCachedKeys) {
+        if (maxCachedKeys < 0) {
+            throw new IllegalArgumentException("Negative maximum number of cached keys: " + maxCachedKeys);
+        }
+
+        return new CompactKeySerializer(maxCachedKeys);
+    }
+
+    public static final KeyCodec compactCodecInstance() {
+        return new CompactKeyCodec();
     }
 
     private KeySerializerFactory() {}
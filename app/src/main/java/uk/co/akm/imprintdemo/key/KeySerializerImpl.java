@@ -5,17 +5,39 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Operation;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
 
 final class KeySerializerImpl implements KeySerializer, KeySerializerConstants {
-    private final Map<String, KeySerializer> keySerializers = new HashMap(2);
+    private final Map<String, X509KeySerializer> keySerializers = new HashMap(3);
+    private final PublicKeyCache keyCache;
 
-    KeySerializerImpl() {
+    /**
+     * @param maxCachedKeys the number of deserialized keys kept for reuse (0 for none)
+     */
+    KeySerializerImpl(int maxCachedKeys) {
+        keyCache = (maxCachedKeys > 0 ? new PublicKeyCache(maxCachedKeys) : null);
         keySerializers.put(KEY_ALGORITHM_EC, new X509KeySerializer(KEY_ALGORITHM_EC));
         keySerializers.put(KEY_ALGORITHM_RSA, new X509KeySerializer(KEY_ALGORITHM_RSA));
+        keySerializers.put(KEY_ALGORITHM_EDDSA, new X509KeySerializer(KEY_ALGORITHM_EDDSA));
     }
 
     @Override
     public String serialize(PublicKey key) throws KeySerializationException {
+        final long start = Metrics.start();
+        try {
+            return serializeKey(key);
+        } catch (KeySerializationException kse) {
+            Metrics.count(Outcome.KEY_SERIALIZATION_ERROR);
+            throw kse;
+        } finally {
+            Metrics.stop(Operation.SERIALIZE_KEY, start);
+        }
+    }
+
+    private String serializeKey(PublicKey key) throws KeySerializationException {
         final String algorithm = key.getAlgorithm();
         final String format = key.getFormat();
         checkAlgorithmAndFormat(algorithm, format);
@@ -27,10 +49,42 @@ final class KeySerializerImpl implements KeySerializer, KeySerializerConstants {
 
     @Override
     public PublicKey deserialize(String serializedKey) throws KeySerializationException {
-        final KeyComponents keyComponents = new KeyComponents(serializedKey);
-        checkAlgorithmAndFormat(keyComponents.algorithm, keyComponents.format);
+        return deserialize(serializedKey, 0, (serializedKey == null ? 0 : serializedKey.length()));
+    }
 
-        return keySerializers.get(keyComponents.algorithm).deserialize(keyComponents.data);
+    @Override
+    public PublicKey deserialize(CharSequence serializedKey, int start, int end) throws KeySerializationException {
+        final long startTime = Metrics.start();
+        try {
+            return deserializeKey(serializedKey, start, end);
+        } catch (KeySerializationException kse) {
+            Metrics.count(Outcome.KEY_DESERIALIZATION_ERROR);
+            throw kse;
+        } finally {
+            Metrics.stop(Operation.DESERIALIZE_KEY, startTime);
+        }
+    }
+
+    private PublicKey deserializeKey(CharSequence serializedKey, int start, int end) throws KeySerializationException {
+        final KeyComponents keyComponents = new KeyComponents(serializedKey, start, end);
+        if (!keyComponents.hasFormat(X509KeySerializer.X_509)) {
+            throw unsupportedFormatException(keyComponents.format());
+        }
+
+        final X509KeySerializer keySerializer = keySerializers.get(keyComponents.algorithm);
+        final byte[] keyBytes = X509KeySerializer.decode(serializedKey, keyComponents.dataStart, keyComponents.dataEnd);
+        if (keyCache == null) {
+            return keySerializer.deserialize(keyBytes);
+        }
+
+        final PublicKeyCache.KeyDigest digest = keyCache.digest(keyComponents.algorithm, keyBytes);
+        PublicKey key = keyCache.get(digest);
+        if (key == null) {
+            key = keySerializer.deserialize(keyBytes);
+            keyCache.put(digest, key);
+        }
+
+        return key;
     }
 
     private void checkAlgorithmAndFormat(String algorithm, String format) {
@@ -39,10 +93,14 @@ final class KeySerializerImpl implements KeySerializer, KeySerializerConstants {
         }
 
         if (!X509KeySerializer.X_509.equals(format)) {
-            throw new KeySerializationException("Unsupported public key encoding format " + format + ". Only the " + X509KeySerializer.X_509 + " format is supported.");
+            throw unsupportedFormatException(format);
         }
     }
 
+    private static KeySerializationException unsupportedFormatException(String format) {
+        return new KeySerializationException("Unsupported public key encoding format " + format + ". Only the " + X509KeySerializer.X_509 + " format is supported.");
+    }
+
     private String supportedAlgorithms() {
         final StringBuilder sb = new StringBuilder();
         final Iterator<String> algorithms = keySerializers.keySet().iterator();
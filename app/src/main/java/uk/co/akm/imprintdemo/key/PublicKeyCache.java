@@ -0,0 +1,94 @@
+package uk.co.akm.imprintdemo.key;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+
+/**
+ * Bounded least-recently-used cache of deserialized public keys, keyed by the SHA-256 digest of the
+ * key algorithm and the encoded key, so that a key seen before is not rebuilt by its key factory.
+ * Public keys are immutable, so the same instance can be returned to every caller. Hits, misses and
+ * evictions are counted in the metrics.
+ */
+final class PublicKeyCache {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final Map<KeyDigest, PublicKey> keys;
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
+
+    PublicKeyCache(final int capacity) {
+        keys = new LinkedHashMap<KeyDigest, PublicKey>(capacity*4/3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<KeyDigest, PublicKey> eldest) {
+                if (size() > capacity) {
+                    Metrics.count(Outcome.KEY_CACHE_EVICTION);
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    KeyDigest digest(String algorithm, byte[] encodedKey) {
+        final MessageDigest digest = digestInstance();
+        digest.update(algorithm.getBytes(US_ASCII));
+        digest.update((byte)KeySerializerConstants.SEPARATOR);
+        digest.update(encodedKey);
+
+        return new KeyDigest(digest.digest());
+    }
+
+    synchronized PublicKey get(KeyDigest digest) {
+        final PublicKey key = keys.get(digest);
+        Metrics.count(key == null ? Outcome.KEY_CACHE_MISS : Outcome.KEY_CACHE_HIT);
+
+        return key;
+    }
+
+    synchronized void put(KeyDigest digest, PublicKey key) {
+        keys.put(digest, key);
+    }
+
+    private MessageDigest digestInstance() {
+        MessageDigest digest = digests.get();
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new IllegalStateException("Could not initialize the public key cache digest.", nsae);
+            }
+            digests.set(digest);
+        }
+
+        return digest;
+    }
+
+    static final class KeyDigest {
+        private final byte[] digest;
+        private final int hash;
+
+        private KeyDigest(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return (other instanceof KeyDigest && Arrays.equals(digest, ((KeyDigest)other).digest));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package uk.co.akm.imprintdemo.key;
+
+
+import java.math.BigInteger;
+import java.security.spec.ECField;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.EllipticCurve;
+
+/**
+ * The domain parameters of the NIST P-256 (secp256r1) curve, the curve of the keys generated by
+ * the app.
+ */
+final class Secp256r1 {
+    static final int FIELD_LENGTH = 32;
+
+    static final BigInteger P = new BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFF", 16);
+    static final BigInteger A = new BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFC", 16);
+    static final BigInteger B = new BigInteger("5AC635D8AA3A93E7B3EBBD55769886BC651D06B0CC53B0F63BCE3C3E27D2604B", 16);
+    static final BigInteger GX = new BigInteger("6B17D1F2E12C4247F8BCE6E563A440F277037D812DEB33A0F4A13945D898C296", 16);
+    static final BigInteger GY = new BigInteger("4FE342E2FE1A7F9B8EE7EB4A7C0F9E162BCE33576B315ECECBB6406837BF51F5", 16);
+    static final BigInteger N = new BigInteger("FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551", 16);
+
+    private static final BigInteger SQRT_EXPONENT = P.add(BigInteger.ONE).shiftRight(2);
+
+    static final ECParameterSpec PARAMETERS = new ECParameterSpec(new EllipticCurve(new ECFieldFp(P), A, B), new ECPoint(GX, GY), N, 1);
+
+    static boolean matches(ECParameterSpec parameters) {
+        final EllipticCurve curve = parameters.getCurve();
+        final ECField field = curve.getField();
+
+        return (field instanceof ECFieldFp && P.equals(((ECFieldFp)field).getP())
+                && A.equals(curve.getA()) && B.equals(curve.getB())
+                && GX.equals(parameters.getGenerator().getAffineX()) && GY.equals(parameters.getGenerator().getAffineY())
+                && N.equals(parameters.getOrder()) && parameters.getCofactor() == 1);
+    }
+
+    // Writes the input field element as an unsigned, big-endian, fixed length integer.
+    static void writeFieldElement(BigInteger value, byte[] destination, int offset) {
+        final byte[] bytes = value.toByteArray();
+        final int length = Math.min(bytes.length, FIELD_LENGTH);
+        for (int i=0 ; i<FIELD_LENGTH - length ; i++) {
+            destination[offset + i] = 0;
+        }
+        System.arraycopy(bytes, bytes.length - length, destination, offset + FIELD_LENGTH - length, length);
+    }
+
+    static BigInteger readFieldElement(byte[] source, int offset) {
+        final byte[] bytes = new byte[FIELD_LENGTH];
+        System.arraycopy(source, offset, bytes, 0, FIELD_LENGTH);
+
+        return new BigInteger(1, bytes);
+    }
+
+    // The same check as the server's P256Curve: both coordinates are field elements and y^2 = x^3 + ax + b.
+    static boolean isOnCurve(BigInteger x, BigInteger y) {
+        if (x.signum() < 0 || x.compareTo(P) >= 0 || y.signum() < 0 || y.compareTo(P) >= 0) {
+            return false;
+        }
+
+        return y.multiply(y).subtract(x.multiply(x).add(A).multiply(x)).subtract(B).mod(P).signum() == 0;
+    }
+
+    /**
+     * Returns the y coordinate of the curve point with the input x coordinate and y parity, or null
+     * if there is no such point. As p = 3 (mod 4), a square root of x^3 + ax + b is its (p + 1)/4
+     * power, when it has one at all.
+     */
+    static BigInteger y(BigInteger x, boolean odd) {
+        if (x.signum() < 0 || x.compareTo(P) >= 0) {
+            return null;
+        }
+
+        final BigInteger rhs = x.multiply(x).add(A).multiply(x).add(B).mod(P);
+        final BigInteger y = rhs.modPow(SQRT_EXPONENT, P);
+        if (!y.multiply(y).mod(P).equals(rhs)) {
+            return null;
+        }
+
+        return (y.testBit(0) == odd || y.signum() == 0 ? y : P.subtract(y));
+    }
+
+    private Secp256r1() {}
+}
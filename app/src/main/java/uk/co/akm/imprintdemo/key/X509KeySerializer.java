@@ -1,8 +1,5 @@
 package uk.co.akm.imprintdemo.key;
 
-import android.util.Base64;
-import android.util.Log;
-
 import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.KeySpec;
@@ -30,18 +27,33 @@ final class X509KeySerializer implements KeySerializer {
             throw new KeySerializationException("Unsupported " + algorithm + " public key encoding format: " + key.getFormat() + ". Only the " + X_509 + " encoding format is supported.");
         }
 
-        return Base64.encodeToString(key.getEncoded(), Base64.DEFAULT);
+        return Base64Codec.encode(key.getEncoded());
     }
 
     public PublicKey deserialize(String encoded) throws KeySerializationException {
+        return deserialize(encoded, 0, encoded.length());
+    }
+
+    public PublicKey deserialize(CharSequence encoded, int start, int end) throws KeySerializationException {
+        return deserialize(decode(encoded, start, end));
+    }
+
+    // The decoded bytes are in a buffer of this thread, which the next decoding on the thread overwrites.
+    static byte[] decode(CharSequence encoded, int start, int end) throws KeySerializationException {
+        try {
+            return Base64Codec.decodeReusing(encoded, start, end);
+        } catch (IllegalArgumentException iae) {
+            throw new KeySerializationException("Key deserialization error.", iae);
+        }
+    }
+
+    PublicKey deserialize(byte[] keyBytes) throws KeySerializationException {
         try {
-            final byte[] keyBytes = Base64.decode(encoded, Base64.DEFAULT);
             final KeySpec x509EncodedKeySpec = new X509EncodedKeySpec(keyBytes);
-            final KeyFactory keyFactory = KeyFactory.getInstance(algorithm);
+            final KeyFactory keyFactory = KeyFactories.get(algorithm);
 
             return keyFactory.generatePublic(x509EncodedKeySpec);
         } catch (Exception e) {
-            Log.e(getClass().getSimpleName(), "Key deserialization error.", e);
             throw new KeySerializationException("Key deserialization error.", e);
         }
     }
@@ -0,0 +1,63 @@
+package uk.co.akm.imprintdemo.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram, in the style of HdrHistogram: every power of two range of
+ * nanoseconds is split into 2^SUB_BUCKET_BITS equal buckets, so that any value is placed within
+ * about 3% of its true value. Values above MAX_NANOS (about 18 minutes) are recorded as MAX_NANOS.
+ * Recording is a few atomic increments and allocates nothing.
+ */
+final class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final long MAX_NANOS = (1L << 40) - 1;
+
+    static final int BUCKETS = index(MAX_NANOS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter sum = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        final long value = Math.max(0, Math.min(nanos, MAX_NANOS));
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value));
+    }
+
+    LatencySnapshot snapshot() {
+        final long[] bucketCounts = new long[BUCKETS];
+        for (int i=0 ; i<BUCKETS ; i++) {
+            bucketCounts[i] = counts.get(i);
+        }
+
+        return new LatencySnapshot(bucketCounts, sum.sum(), max.get());
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (shift + 1)*SUB_BUCKETS + (int)((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // The largest value that is placed in the bucket with the input index.
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int shift = index/SUB_BUCKETS - 1;
+        final long subBucket = SUB_BUCKETS + index%SUB_BUCKETS;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,65 @@
+package uk.co.akm.imprintdemo.metrics;
+
+/**
+ * The latencies recorded for an operation up to some point in time.
+ */
+public final class LatencySnapshot {
+    private final long[] bucketCounts;
+    private final long count;
+    private final long sumNanos;
+    private final long maxNanos;
+
+    LatencySnapshot(long[] bucketCounts, long sumNanos, long maxNanos) {
+        long count = 0;
+        for (long bucketCount : bucketCounts) {
+            count += bucketCount;
+        }
+
+        this.bucketCounts = bucketCounts;
+        this.count = count;
+        this.sumNanos = sumNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sumNanos() {
+        return sumNanos;
+    }
+
+    public long maxNanos() {
+        return maxNanos;
+    }
+
+    public double meanNanos() {
+        return (count == 0 ? 0 : (double)sumNanos/count);
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency that the input percentage of the recorded latencies do not exceed (within
+     * the precision of the histogram), or 0 if nothing has been recorded
+     */
+    public long percentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long)Math.ceil(count*percentile/100));
+        long seen = 0;
+        for (int i=0 ; i<bucketCounts.length ; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValue(i), maxNanos);
+            }
+        }
+
+        return maxNanos;
+    }
+}
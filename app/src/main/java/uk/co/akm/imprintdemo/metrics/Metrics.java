@@ -0,0 +1,53 @@
+package uk.co.akm.imprintdemo.metrics;
+
+/**
+ * Holds the #MetricsSink that the instrumented code reports to. Nothing is recorded until a sink
+ * is installed.
+ */
+public final class Metrics {
+    private static final MetricsSink NO_OP = new MetricsSink() {
+        @Override
+        public void record(Operation operation, long durationNanos) {}
+
+        @Override
+        public void count(Outcome outcome) {}
+    };
+
+    private static volatile MetricsSink sink = NO_OP;
+
+    public static void install(MetricsSink metricsSink) {
+        sink = (metricsSink == null ? NO_OP : metricsSink);
+    }
+
+    public static MetricsSink sink() {
+        return sink;
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    public static void stop(Operation operation, long startNanos) {
+        sink.record(operation, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the input number of operations that were done together since the input start time,
+     * each with an equal share of the elapsed time.
+     */
+    public static void stop(Operation operation, long startNanos, int operations) {
+        if (operations > 0) {
+            final MetricsSink metricsSink = sink;
+            final long durationNanos = (System.nanoTime() - startNanos)/operations;
+            for (int i=0 ; i<operations ; i++) {
+                metricsSink.record(operation, durationNanos);
+            }
+        }
+    }
+
+    public static void count(Outcome outcome) {
+        sink.count(outcome);
+    }
+
+    private Metrics() {}
+}
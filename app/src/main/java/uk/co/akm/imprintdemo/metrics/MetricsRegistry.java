@@ -0,0 +1,44 @@
+package uk.co.akm.imprintdemo.metrics;
+
+/**
+ * A #MetricsSink that keeps a latency histogram per #Operation and a counter per #Outcome, to be
+ * read through snapshots.
+ */
+public final class MetricsRegistry implements MetricsSink {
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final StripedCounter[] outcomes = new StripedCounter[Outcome.values().length];
+
+    public MetricsRegistry() {
+        for (int i=0 ; i<latencies.length ; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+
+        for (int i=0 ; i<outcomes.length ; i++) {
+            outcomes[i] = new StripedCounter();
+        }
+    }
+
+    @Override
+    public void record(Operation operation, long durationNanos) {
+        latencies[operation.ordinal()].record(durationNanos);
+    }
+
+    @Override
+    public void count(Outcome outcome) {
+        outcomes[outcome.ordinal()].add(1);
+    }
+
+    public MetricsSnapshot snapshot() {
+        final LatencySnapshot[] latencySnapshots = new LatencySnapshot[latencies.length];
+        for (int i=0 ; i<latencies.length ; i++) {
+            latencySnapshots[i] = latencies[i].snapshot();
+        }
+
+        final long[] outcomeCounts = new long[outcomes.length];
+        for (int i=0 ; i<outcomes.length ; i++) {
+            outcomeCounts[i] = outcomes[i].sum();
+        }
+
+        return new MetricsSnapshot(latencySnapshots, outcomeCounts);
+    }
+}
@@ -0,0 +1,12 @@
+package uk.co.akm.imprintdemo.metrics;
+
+/**
+ * Receives the measurements of the server and key code. It is called on their hot paths, from many
+ * threads at once, so implementations must be thread-safe and should neither block nor allocate.
+ */
+public interface MetricsSink {
+
+    void record(Operation operation, long durationNanos);
+
+    void count(Outcome outcome);
+}
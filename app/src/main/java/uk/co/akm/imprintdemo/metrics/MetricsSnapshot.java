@@ -0,0 +1,22 @@
+package uk.co.akm.imprintdemo.metrics;
+
+/**
+ * The measurements of a #MetricsRegistry up to some point in time.
+ */
+public final class MetricsSnapshot {
+    private final LatencySnapshot[] latencies;
+    private final long[] outcomeCounts;
+
+    MetricsSnapshot(LatencySnapshot[] latencies, long[] outcomeCounts) {
+        this.latencies = latencies;
+        this.outcomeCounts = outcomeCounts;
+    }
+
+    public LatencySnapshot latency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public long count(Outcome outcome) {
+        return outcomeCounts[outcome.ordinal()];
+    }
+}
@@ -0,0 +1,16 @@
+package uk.co.akm.imprintdemo.metrics;
+
+/**
+ * The timed operations.
+ */
+public enum Operation {
+    REGISTER,
+    ISSUE_CHALLENGE,
+    AUTHENTICATE,
+    VALIDATE_SESSION,
+    VERIFY_SIGNATURE,
+    SERIALIZE_KEY,
+    DESERIALIZE_KEY,
+    ENCODE_KEY,
+    DECODE_KEY
+}
@@ -0,0 +1,36 @@
+package uk.co.akm.imprintdemo.metrics;
+
+/**
+ * The counted outcomes of the timed operations.
+ */
+public enum Outcome {
+    REGISTERED,
+    REGISTRATION_INVALID,
+    REGISTRATION_DESERIALIZATION_ERROR,
+    ALREADY_REGISTERED,
+
+    CHALLENGE_ISSUED,
+    CHALLENGE_UNKNOWN_USER,
+
+    AUTHENTICATED,
+    AUTHENTICATION_INVALID,
+    AUTHENTICATION_UNKNOWN_USER,
+    AUTHENTICATION_STALE_CHALLENGE,
+    AUTHENTICATION_BAD_SIGNATURE,
+    AUTHENTICATION_VERIFICATION_ERROR,
+    VERIFICATION_TABLE_BUILT,
+    VERIFICATION_TABLE_MISMATCH,
+    VERIFICATION_BATCH_MISMATCH,
+
+    SESSION_ISSUED,
+    SESSION_VALID,
+    SESSION_EXPIRED,
+    SESSION_REVOKED,
+    SESSION_INVALID,
+
+    KEY_SERIALIZATION_ERROR,
+    KEY_DESERIALIZATION_ERROR,
+    KEY_CACHE_HIT,
+    KEY_CACHE_MISS,
+    KEY_CACHE_EVICTION
+}
@@ -0,0 +1,33 @@
+package uk.co.akm.imprintdemo.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cache-line-padded cells, picked by thread id, so that threads
+ * counting at once rarely contend. Reads add the cells up.
+ */
+final class StripedCounter {
+    private static final int PADDING = 8; // Longs per 64-byte cache line.
+
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, 2*Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES*PADDING);
+
+    void add(long delta) {
+        cells.getAndAdd(cell(), delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i=0 ; i<cells.length() ; i+=PADDING) {
+            sum += cells.get(i);
+        }
+
+        return sum;
+    }
+
+    private static int cell() {
+        return ((int)Thread.currentThread().getId() & (STRIPES - 1))*PADDING;
+    }
+}
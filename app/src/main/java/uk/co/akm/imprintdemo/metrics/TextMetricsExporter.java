@@ -0,0 +1,53 @@
+package uk.co.akm.imprintdemo.metrics;
+
+
+import java.util.Locale;
+
+/**
+ * Writes snapshots in the Prometheus text exposition format, e.g.
+ *
+ * imprint_operation_latency_seconds{operation="authenticate",quantile="0.99"} 1.52E-4
+ * imprint_operation_latency_seconds_count{operation="authenticate"} 1000
+ * imprint_outcome_total{outcome="authentication_bad_signature"} 3
+ */
+public final class TextMetricsExporter {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public static String export(MetricsSnapshot snapshot) {
+        final StringBuilder text = new StringBuilder(4096);
+
+        text.append("# TYPE imprint_operation_latency_seconds summary\n");
+        for (Operation operation : Operation.values()) {
+            final LatencySnapshot latency = snapshot.latency(operation);
+            final String name = name(operation);
+            for (double quantile : QUANTILES) {
+                text.append("imprint_operation_latency_seconds{operation=\"").append(name).append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(latency.percentileNanos(100*quantile))).append('\n');
+            }
+            text.append("imprint_operation_latency_seconds_sum{operation=\"").append(name).append("\"} ").append(seconds(latency.sumNanos())).append('\n');
+            text.append("imprint_operation_latency_seconds_count{operation=\"").append(name).append("\"} ").append(latency.count()).append('\n');
+        }
+
+        text.append("# TYPE imprint_operation_latency_seconds_max gauge\n");
+        for (Operation operation : Operation.values()) {
+            text.append("imprint_operation_latency_seconds_max{operation=\"").append(name(operation)).append("\"} ").append(seconds(snapshot.latency(operation).maxNanos())).append('\n');
+        }
+
+        text.append("# TYPE imprint_outcome_total counter\n");
+        for (Outcome outcome : Outcome.values()) {
+            text.append("imprint_outcome_total{outcome=\"").append(name(outcome)).append("\"} ").append(snapshot.count(outcome)).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.US);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos/1e9;
+    }
+
+    private TextMetricsExporter() {}
+}
@@ -0,0 +1,23 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Non-blocking counterpart of #RemoteServer. Every call returns at once, with a #Future of its
+ * result, and the (optional) callback is informed of the outcome when the call completes.
+ */
+public interface AsyncRemoteServer {
+
+    Future<Void> registerPublicKey(String username, String publicKeyData, ServerCallback<Void> callback);
+
+    Future<Void> registerPublicKey(String username, PublicKey publicKey, ServerCallback<Void> callback);
+
+    Future<byte[]> getAuthenticationMessageToSign(String username, ServerCallback<byte[]> callback);
+
+    Future<Boolean> authenticate(String username, byte[] message, byte[] signature, ServerCallback<Boolean> callback);
+
+    Future<boolean[]> authenticateAll(List<AuthRequest> requests, ServerCallback<boolean[]> callback);
+}
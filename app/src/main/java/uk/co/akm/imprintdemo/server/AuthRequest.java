@@ -0,0 +1,18 @@
+package uk.co.akm.imprintdemo.server;
+
+
+/**
+ * A single (username, message, signature) authentication triple, as submitted to
+ * #RemoteServer.authenticateAll(List).
+ */
+public final class AuthRequest {
+    public final String username;
+    public final byte[] message;
+    public final byte[] signature;
+
+    public AuthRequest(String username, byte[] message, byte[] signature) {
+        this.username = username;
+        this.message = message;
+        this.signature = signature;
+    }
+}
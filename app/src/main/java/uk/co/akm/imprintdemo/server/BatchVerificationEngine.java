@@ -0,0 +1,20 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+
+/**
+ * A #VerificationEngine that verifies several signatures together more cheaply than one at a time.
+ * #InMemoryRemoteServer hands it the signatures of an #RemoteServer.authenticateAll(List) call.
+ */
+public interface BatchVerificationEngine extends VerificationEngine {
+
+    /**
+     * Verifies all the input signatures. A signature that cannot be verified at all (e.g. one that
+     * is not properly encoded) is reported as failed rather than failing the whole batch.
+     *
+     * @return the outcome of each verification, in the order of the inputs
+     */
+    boolean[] verifyAll(PublicKey[] keys, byte[][] messages, byte[][] signatures) throws GeneralSecurityException;
+}
@@ -0,0 +1,60 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.Arrays;
+
+/**
+ * Append-only storage of short byte strings (e.g. encoded public keys or UTF-8 usernames), packed
+ * one after the other in large byte arrays (chunks). Every string is written as a 2-byte length
+ * followed by its bytes and is identified by a handle holding its chunk index (high 32 bits) and
+ * its offset in the chunk (low 32 bits). Handles must be published to readers through a thread-safe
+ * structure (e.g. a concurrent map).
+ */
+final class ByteArena {
+    private static final int CHUNK_LENGTH = 1 << 20;
+    private static final int LENGTH_PREFIX = 2;
+    private static final int MAX_LENGTH = 0xffff;
+
+    private volatile byte[][] chunks = new byte[0][];
+    private int used = CHUNK_LENGTH; // In the last chunk; guarded by this.
+
+    synchronized long append(byte[] data) {
+        if (data.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Data too long: " + data.length + " bytes.");
+        }
+
+        final int recordLength = LENGTH_PREFIX + data.length;
+        if (used + recordLength > CHUNK_LENGTH) {
+            final byte[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new byte[CHUNK_LENGTH];
+            chunks = grown;
+            used = 0;
+        }
+
+        final int chunk = chunks.length - 1;
+        final int offset = used;
+        final byte[] bytes = chunks[chunk];
+        bytes[offset] = (byte)(data.length >>> 8);
+        bytes[offset + 1] = (byte)data.length;
+        System.arraycopy(data, 0, bytes, offset + LENGTH_PREFIX, data.length);
+        used += recordLength;
+
+        return (((long)chunk << 32) | offset);
+    }
+
+    // The chunk holding the bytes of the input handle.
+    byte[] chunk(long handle) {
+        return chunks[(int)(handle >>> 32)];
+    }
+
+    // The offset of the first byte of the input handle in its chunk.
+    static int offset(long handle) {
+        return (int)handle + LENGTH_PREFIX;
+    }
+
+    static int length(byte[] chunk, long handle) {
+        final int offset = (int)handle;
+
+        return ((chunk[offset] & 0xff) << 8) | (chunk[offset + 1] & 0xff);
+    }
+}
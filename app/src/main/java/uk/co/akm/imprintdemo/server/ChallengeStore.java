@@ -0,0 +1,39 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.Closeable;
+
+/**
+ * Issues the authentication messages (challenges) that users must sign and checks them when they
+ * come back signed. Users are identified both by their username and by the id given to them by the
+ * #UserRegistry, so that stores can keep per-user state in arrays indexed by the id.
+ */
+public interface ChallengeStore extends Closeable {
+
+    /**
+     * Issues a new challenge for the input user.
+     *
+     * @param userId the registry id of the user that will sign the challenge
+     * @param username the user that will sign the challenge
+     * @return the challenge message to be signed
+     */
+    byte[] issue(int userId, String username) throws ServerException;
+
+    /**
+     * Returns true if the input message is a live challenge that was issued to the input user, or
+     * false otherwise. A challenge can be consumed only once, so a second call with the same
+     * message returns false.
+     *
+     * @param userId the registry id of the user that claims the challenge
+     * @param username the user that claims the challenge
+     * @param message the challenge message presented by the user
+     * @return true if the message was a live challenge for the user, or false otherwise
+     */
+    boolean consume(int userId, String username, byte[] message);
+
+    /**
+     * Releases the threads of the store (e.g. the one that generates its nonces ahead of time).
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,112 @@
+package uk.co.akm.imprintdemo.server;
+
+
+public final class ChallengeStoreFactory {
+    static final int MESSAGE_LENGTH = 512;
+    static final int NONCE_LENGTH = 32;
+    static final int MIN_NONCE_LENGTH = 16;
+    static final int MIN_SECRET_LENGTH = 32;
+    static final int NONCE_POOL_SIZE = 256;
+
+    private static final int CHALLENGE_ID_LENGTH = 8;
+
+    public static final long DEFAULT_TTL_MILLIS = 60000;
+    public static final int DEFAULT_MAX_CHALLENGES = 1 << 20;
+
+    public static ChallengeStore instance() {
+        return expiringInstance(DEFAULT_TTL_MILLIS, DEFAULT_MAX_CHALLENGES);
+    }
+
+    public static ChallengeStore expiringInstance(long ttlMillis, int maxChallenges) {
+        return expiringInstance(ttlMillis, maxChallenges, MESSAGE_LENGTH);
+    }
+
+    /**
+     * Returns a store that keeps one challenge per user, forgets it after the input time-to-live and
+     * never holds more than the input number of challenges.
+     *
+     * @param ttlMillis the challenge time-to-live in milliseconds
+     * @param maxChallenges the maximum number of outstanding challenges
+     * @param challengeLength the length of the (random) challenges in bytes
+     * @return an expiring, single-use challenge store
+     */
+    public static ChallengeStore expiringInstance(long ttlMillis, int maxChallenges, int challengeLength) {
+        checkLimits(ttlMillis, maxChallenges);
+
+        return new ExpiringChallengeStore(nonceSource(challengeLength), ttlMillis, maxChallenges);
+    }
+
+    public static ChallengeStore slabInstance(long ttlMillis, int maxChallenges) {
+        return slabInstance(ttlMillis, maxChallenges, NONCE_LENGTH);
+    }
+
+    /**
+     * Returns a store that allows several outstanding challenges per user (e.g. a user logging in
+     * from two devices at the same time) and keeps them off the Java heap. Every challenge is
+     * single-use, is forgotten after the input time-to-live and counts towards the input maximum.
+     *
+     * @param ttlMillis the challenge time-to-live in milliseconds
+     * @param maxChallenges the maximum number of outstanding challenges
+     * @param nonceLength the length of the random part of the challenges in bytes
+     * @return an off-heap, multi-challenge store
+     */
+    public static ChallengeStore slabInstance(long ttlMillis, int maxChallenges, int nonceLength) {
+        checkLimits(ttlMillis, maxChallenges);
+
+        return new SlabChallengeStore(nonceSource(CHALLENGE_ID_LENGTH + checkNonceLength(nonceLength)), ttlMillis, maxChallenges);
+    }
+
+    public static ChallengeStore statelessInstance(byte[] secret, long ttlMillis) {
+        return statelessInstance(secret, ttlMillis, NONCE_LENGTH);
+    }
+
+    /**
+     * Returns a store that keeps no per-user state. Its challenges carry their own expiry time and
+     * are tagged with an HMAC under the input secret, so any server sharing the secret can check them.
+     * Such challenges can be reused until they expire.
+     *
+     * @param secret the server secret, which must be at least 32 bytes long
+     * @param ttlMillis the challenge time-to-live in milliseconds
+     * @param nonceLength the length of the random part of the challenges in bytes
+     * @return a stateless challenge store
+     */
+    public static ChallengeStore statelessInstance(byte[] secret, long ttlMillis, int nonceLength) {
+        if (secret == null || secret.length < MIN_SECRET_LENGTH) {
+            throw new IllegalArgumentException("The challenge secret must be at least " + MIN_SECRET_LENGTH + " bytes long.");
+        }
+
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive challenge time-to-live: " + ttlMillis);
+        }
+
+        return new StatelessChallengeStore(nonceSource(checkNonceLength(nonceLength)), secret, ttlMillis);
+    }
+
+    private static void checkLimits(long ttlMillis, int maxChallenges) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive challenge time-to-live: " + ttlMillis);
+        }
+
+        if (maxChallenges <= 0) {
+            throw new IllegalArgumentException("Non-positive maximum number of challenges: " + maxChallenges);
+        }
+    }
+
+    private static int checkNonceLength(int nonceLength) {
+        if (nonceLength < MIN_NONCE_LENGTH) {
+            throw new IllegalArgumentException("The challenge nonce must be at least " + MIN_NONCE_LENGTH + " bytes long.");
+        }
+
+        return nonceLength;
+    }
+
+    private static NonceSource nonceSource(int length) {
+        if (length < MIN_NONCE_LENGTH) {
+            throw new IllegalArgumentException("The challenge must be at least " + MIN_NONCE_LENGTH + " bytes long.");
+        }
+
+        return new PooledNonceSource(length, NONCE_POOL_SIZE);
+    }
+
+    private ChallengeStoreFactory() {}
+}
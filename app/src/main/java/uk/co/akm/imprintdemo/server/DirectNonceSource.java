@@ -0,0 +1,46 @@
+package uk.co.akm.imprintdemo.server;
+
+
+/**
+ * Generates every nonce on the calling thread, with one SecureRandom per core so that concurrent
+ * callers rarely share a generator.
+ */
+final class DirectNonceSource implements NonceSource {
+    private final int length;
+    private final StripedSecureRandom random;
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    DirectNonceSource(int length) {
+        this.length = length;
+        this.random = new StripedSecureRandom(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void next(byte[] destination, int offset) {
+        if (offset == 0 && destination.length == length) {
+            random.nextBytes(Thread.currentThread(), destination);
+        } else {
+            final byte[] buffer = buffer();
+            random.nextBytes(Thread.currentThread(), buffer);
+            System.arraycopy(buffer, 0, destination, offset, length);
+        }
+    }
+
+    @Override
+    public void close() {}
+
+    private byte[] buffer() {
+        byte[] buffer = buffers.get();
+        if (buffer == null) {
+            buffer = new byte[length];
+            buffers.set(buffer);
+        }
+
+        return buffer;
+    }
+}
@@ -0,0 +1,645 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * User registry that survives restarts. Registrations are appended to a log file, where each record
+ * is laid out as
+ *
+ * [body length (4 bytes)][CRC32 of the body (4 bytes)][body]
+ *
+ * and the body holds the username, the key algorithm and the X.509 encoded key. Users get ids in
+ * registration order, and two memory-mapped files index the log: an offsets file holding the log
+ * offset of the record of every id, and an open addressing index file mapping 64-bit username
+ * hashes to ids. The index header records the checkpoint: the log length and the number of users
+ * up to which all files have been forced to disk. On startup the files are mapped as they are and
+ * only the log records after the checkpoint are replayed, so startup time does not grow with the
+ * number of users. A torn record at the end of the log (e.g. after a crash in the middle of a
+ * write) fails its checksum and is truncated away during that replay.
+ *
+ * The mapped files can reach the disk at any time, so a user is only added to them once their
+ * record has been forced to the log: a registration appends its record, forces the log together
+ * with the registrations appended meanwhile, and then adds the users of all the forced records in
+ * log order. The replay can then give the users after the checkpoint the same ids again, and
+ * finds them in the index if it got there before a crash.
+ *
+ * Since registrations are never changed or removed, the log has no dead records and the index
+ * checkpoint is the whole snapshot; checkpoints are taken periodically and on #close(), and force
+ * the mapped files without holding up registrations and lookups. The index is a single mapping,
+ * which limits it to #MAX_CAPACITY slots.
+ */
+final class DurableUserRegistry implements UserRegistry {
+    private static final Logger LOG = Logger.getLogger(DurableUserRegistry.class.getName());
+
+    private static final String LOG_FILE = "users.log";
+    private static final String INDEX_FILE = "users.idx";
+    private static final String NEW_INDEX_FILE = "users.idx.new";
+    private static final String OFFSETS_FILE = "users.ofs";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int MAX_CAPACITY = 1 << 26; // The largest power of two for which the index length fits in an int.
+
+    private static final long INDEX_MAGIC = 0x696d7072696e7432L;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int CHECKPOINT_OFFSET = 16;
+    private static final int INDEX_HEADER_LENGTH = 32;
+    private static final int SLOT_LENGTH = 16;
+    private static final float MAX_LOAD = 0.7f;
+
+    private static final int OFFSETS_CHUNK_SHIFT = 17;
+    private static final int OFFSETS_CHUNK_MASK = (1 << OFFSETS_CHUNK_SHIFT) - 1;
+
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int HOT_KEYS = 1024;
+
+    private final File directory;
+    private final FileChannel log;
+    private final FileChannel offsetsFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object forceLock = new Object();
+    private final ScheduledExecutorService checkpoints;
+    private final HotKeyCache hotKeys = new HotKeyCache(HOT_KEYS);
+
+    // Guarded by the lock.
+    private long logLength;
+    private long indexedLength;
+    private final Queue<Appended> appended = new ArrayDeque<>();
+    private final Set<String> appendedUsernames = new HashSet<>();
+    private MappedByteBuffer index;
+    private MappedByteBuffer[] offsets = new MappedByteBuffer[0];
+    private int capacity;
+    private int count;
+
+    // Guarded by the force lock.
+    private long forcedLength;
+
+    DurableUserRegistry(File directory, int initialCapacity, long checkpointIntervalMillis) throws IOException {
+        if (initialCapacity <= 0 || initialCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("The initial capacity must be between 1 and " + MAX_CAPACITY + ": " + initialCapacity);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the user registry directory: " + directory);
+        }
+
+        this.directory = directory;
+        this.log = new RandomAccessFile(new File(directory, LOG_FILE), "rw").getChannel();
+        this.logLength = log.size();
+        this.offsetsFile = new RandomAccessFile(new File(directory, OFFSETS_FILE), "rw").getChannel();
+
+        openIndex(Math.max(16, Integer.highestOneBit(initialCapacity - 1) << 1));
+        recover();
+
+        checkpoints = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "user-registry-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        checkpoints.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkpoint();
+                } catch (RuntimeException re) {
+                    LOG.log(Level.SEVERE, "Periodic checkpoint failed.", re); // Caught, so that the next checkpoints are still taken.
+                }
+            }
+        }, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void openIndex(int initialCapacity) throws IOException {
+        final File indexFile = new File(directory, INDEX_FILE);
+        if (indexFile.isFile() && indexFile.length() >= INDEX_HEADER_LENGTH) {
+            final MappedByteBuffer existing = map(indexFile, indexFile.length());
+            final int existingCapacity = existing.getInt(CAPACITY_OFFSET);
+            if (existing.getLong(0) == INDEX_MAGIC && existingCapacity > 0 && existingCapacity <= MAX_CAPACITY
+                    && Integer.bitCount(existingCapacity) == 1 && indexFile.length() == indexLength(existingCapacity)) {
+                index = existing;
+                capacity = existingCapacity;
+                count = existing.getInt(COUNT_OFFSET);
+                return;
+            }
+            LOG.warning("Ignoring invalid user registry index file; it will be rebuilt from the log.");
+        }
+
+        index = newIndex(indexFile, initialCapacity);
+        capacity = initialCapacity;
+        count = 0;
+    }
+
+    private static MappedByteBuffer newIndex(File file, int capacity) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete the user registry index file: " + file);
+        }
+
+        final MappedByteBuffer index = map(file, indexLength(capacity));
+        index.putLong(0, INDEX_MAGIC);
+        index.putInt(CAPACITY_OFFSET, capacity);
+        index.putInt(COUNT_OFFSET, 0);
+        index.putLong(CHECKPOINT_OFFSET, 0);
+
+        return index;
+    }
+
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length); // The mapping outlives the channel.
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long indexLength(int capacity) {
+        return INDEX_HEADER_LENGTH + (long)capacity*SLOT_LENGTH;
+    }
+
+    // Replays the log records written after the last checkpoint, which are forced to disk first, as
+    // they are indexed again.
+    private void recover() throws IOException {
+        log.force(false);
+        while (((long)offsets.length << OFFSETS_CHUNK_SHIFT) < count) {
+            mapOffsetsChunk();
+        }
+
+        long position = index.getLong(CHECKPOINT_OFFSET);
+        if (position > logLength) {
+            LOG.warning("The user registry index is ahead of the log; rebuilding it.");
+            index = newIndex(new File(directory, INDEX_FILE), capacity);
+            count = 0;
+            position = 0;
+        }
+
+        while (position < logLength) {
+            final Record record = readRecord(position);
+            if (record == null) {
+                LOG.warning("Truncating the user registry log at offset " + position + " (torn or corrupt record).");
+                log.truncate(position);
+                logLength = position;
+                break;
+            }
+
+            if (lookup(record.username) == NOT_REGISTERED) {
+                add(record.username, position);
+            }
+            position += record.length;
+        }
+
+        indexedLength = logLength;
+        forcedLength = logLength;
+        checkpoint();
+    }
+
+    @Override
+    public boolean register(String username, PublicKey publicKey) throws ServerException {
+        final byte[] record = encodeRecord(username, publicKey);
+
+        final long end;
+        lock.writeLock().lock();
+        try {
+            if (appendedUsernames.contains(username) || lookup(username) != NOT_REGISTERED) {
+                return false;
+            }
+
+            final long offset = logLength;
+            final ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                log.write(buffer, offset + buffer.position());
+            }
+            logLength += record.length;
+            end = logLength;
+
+            appended.add(new Appended(username, offset, end));
+            appendedUsernames.add(username);
+        } catch (IOException ioe) {
+            throw new ServerException("User registry write error.", ioe);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        index(end);
+
+        return true;
+    }
+
+    // Forces the log up to at least the input length, once for all the registrations waiting on it,
+    // and then indexes the users of the forced records in log order.
+    private void index(long end) throws ServerException {
+        final long forced;
+        try {
+            synchronized (forceLock) {
+                if (forcedLength < end) {
+                    final long length;
+                    lock.readLock().lock();
+                    try {
+                        length = logLength;
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+
+                    log.force(false);
+                    forcedLength = length;
+                }
+                forced = forcedLength;
+            }
+        } catch (IOException ioe) {
+            throw new ServerException("User registry write error.", ioe);
+        }
+
+        lock.writeLock().lock();
+        try {
+            while (!appended.isEmpty() && appended.peek().end <= forced) {
+                final Appended record = appended.remove();
+                add(record.username, record.offset);
+                appendedUsernames.remove(record.username);
+                indexedLength = record.end;
+            }
+        } catch (IOException ioe) {
+            throw new ServerException("User registry index write error.", ioe);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int find(String username) throws ServerException {
+        lock.readLock().lock();
+        try {
+            return lookup(username);
+        } catch (IOException ioe) {
+            throw readError(ioe);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public PublicKey publicKey(int userId) throws ServerException {
+        final PublicKey cached = hotKeys.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Record record = record(userId);
+        try {
+            final PublicKey key = KeyFactory.getInstance(record.algorithm).generatePublic(new X509EncodedKeySpec(record.key));
+            hotKeys.put(userId, key);
+
+            return key;
+        } catch (Exception e) {
+            throw new ServerException("Stored public key decoding error.", e);
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String username(int userId) throws ServerException {
+        return record(userId).username;
+    }
+
+    private Record record(int userId) throws ServerException {
+        final Record record;
+        lock.readLock().lock();
+        try {
+            record = (userId >= 0 && userId < count ? readRecord(offset(userId)) : null);
+        } catch (IOException ioe) {
+            throw readError(ioe);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (record == null) {
+            throw new ServerException("Unknown user id " + userId + ".");
+        }
+
+        return record;
+    }
+
+    private ServerException readError(IOException ioe) {
+        return new ServerException("User registry read error.", ioe);
+    }
+
+    /**
+     * Forces the index to disk and moves the checkpoint to the end of the indexed records, which are
+     * already forced to the log. Only the snapshot of the checkpoint and the header update are taken
+     * under the lock.
+     */
+    synchronized void checkpoint() {
+        final long length;
+        final int users;
+        final MappedByteBuffer[] offsetChunks;
+        final MappedByteBuffer indexSnapshot;
+        lock.readLock().lock();
+        try {
+            length = indexedLength;
+            users = count;
+            offsetChunks = offsets;
+            indexSnapshot = index;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (MappedByteBuffer chunk : offsetChunks) {
+            chunk.force();
+        }
+        indexSnapshot.force(); // A grown index replacing this one meanwhile has been forced whole.
+
+        final MappedByteBuffer current;
+        lock.writeLock().lock();
+        try {
+            current = index;
+            current.putInt(COUNT_OFFSET, users);
+            current.putLong(CHECKPOINT_OFFSET, length);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        current.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        checkpoints.shutdown();
+        checkpoint();
+        log.close();
+        offsetsFile.close();
+    }
+
+    // Only reads the log for a slot with the hash of the username, and then only the stored name.
+    private int lookup(String username) throws IOException {
+        final long hash = slotHash(username);
+        final int mask = capacity - 1;
+        byte[] name = null;
+        for (int slot=(int)hash & mask, probes=0 ; probes<capacity ; slot=(slot + 1) & mask, probes++) {
+            final int position = slotPosition(slot);
+            final long slotHash = index.getLong(position);
+            if (slotHash == 0) {
+                return NOT_REGISTERED;
+            }
+
+            if (slotHash == hash) {
+                final int id = index.getInt(position + 8);
+                if (name == null) {
+                    name = username.getBytes(UTF_8);
+                }
+
+                if (id < count && hasName(offset(id), name)) {
+                    return id;
+                }
+            }
+        }
+
+        return NOT_REGISTERED;
+    }
+
+    // Gives the next id to the input user, whose record is at the input log offset. The replay can
+    // find the user indexed already, if the index reached the disk after the last checkpoint.
+    private void add(String username, long offset) throws IOException {
+        growIfNeeded();
+
+        final int id = count;
+        setOffset(id, offset);
+
+        final long hash = slotHash(username);
+        final int mask = capacity - 1;
+        int slot = (int)hash & mask;
+        long slotHash;
+        while ((slotHash = index.getLong(slotPosition(slot))) != 0) {
+            if (slotHash == hash && index.getInt(slotPosition(slot) + 8) == id) {
+                count++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        index.putInt(slotPosition(slot) + 8, id);
+        index.putLong(slotPosition(slot), hash);
+        count++;
+    }
+
+    private long offset(int id) {
+        return offsets[id >>> OFFSETS_CHUNK_SHIFT].getLong((id & OFFSETS_CHUNK_MASK)*8);
+    }
+
+    private void setOffset(int id, long offset) throws IOException {
+        final int chunk = id >>> OFFSETS_CHUNK_SHIFT;
+        while (chunk >= offsets.length) {
+            mapOffsetsChunk();
+        }
+
+        offsets[chunk].putLong((id & OFFSETS_CHUNK_MASK)*8, offset);
+    }
+
+    private void mapOffsetsChunk() throws IOException {
+        final long chunkLength = 8L << OFFSETS_CHUNK_SHIFT;
+        final MappedByteBuffer[] grown = Arrays.copyOf(offsets, offsets.length + 1);
+        grown[offsets.length] = offsetsFile.map(FileChannel.MapMode.READ_WRITE, offsets.length*chunkLength, chunkLength);
+        offsets = grown;
+    }
+
+    // Doubles the index into a new file that then replaces the old one.
+    private void growIfNeeded() throws IOException {
+        if (count + 1 <= capacity*MAX_LOAD) {
+            return;
+        }
+
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException("The user registry index is full (" + count + " users).");
+        }
+
+        final File newFile = new File(directory, NEW_INDEX_FILE);
+        final int newCapacity = capacity*2;
+        final MappedByteBuffer newIndex = newIndex(newFile, newCapacity);
+        final int newMask = newCapacity - 1;
+        for (int slot=0 ; slot<capacity ; slot++) {
+            final long hash = index.getLong(slotPosition(slot));
+            if (hash != 0) {
+                int newSlot = (int)hash & newMask;
+                while (newIndex.getLong(slotPosition(newSlot)) != 0) {
+                    newSlot = (newSlot + 1) & newMask;
+                }
+                newIndex.putLong(slotPosition(newSlot) + 8, index.getLong(slotPosition(slot) + 8));
+                newIndex.putLong(slotPosition(newSlot), hash);
+            }
+        }
+        newIndex.putInt(COUNT_OFFSET, index.getInt(COUNT_OFFSET));
+        newIndex.putLong(CHECKPOINT_OFFSET, index.getLong(CHECKPOINT_OFFSET));
+        newIndex.force();
+
+        if (!newFile.renameTo(new File(directory, INDEX_FILE))) {
+            throw new IOException("Could not replace the user registry index file.");
+        }
+
+        index = newIndex;
+        capacity = newCapacity;
+    }
+
+    private static long slotHash(String username) {
+        final long hash = UsernameHash.of(username);
+
+        return (hash == 0 ? 1 : hash); // Zero marks an empty slot.
+    }
+
+    private static int slotPosition(int slot) {
+        return INDEX_HEADER_LENGTH + slot*SLOT_LENGTH;
+    }
+
+    private static byte[] encodeRecord(String username, PublicKey publicKey) throws ServerException {
+        final byte[] name = username.getBytes(UTF_8);
+        final byte[] algorithm = publicKey.getAlgorithm().getBytes(UTF_8);
+        final byte[] key = publicKey.getEncoded();
+        if (name.length > Short.MAX_VALUE || key == null || !"X.509".equals(publicKey.getFormat())) {
+            throw new ServerException("Cannot store the public key of user '" + username + "'.");
+        }
+
+        final int bodyLength = 2 + name.length + 2 + algorithm.length + key.length;
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + bodyLength);
+        record.putInt(bodyLength).putInt(0);
+        record.putShort((short)name.length).put(name);
+        record.putShort((short)algorithm.length).put(algorithm);
+        record.put(key);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_LENGTH, bodyLength);
+        record.putInt(4, (int)crc.getValue());
+
+        return record.array();
+    }
+
+    // Returns null if there is no complete and intact record at the input offset.
+    private Record readRecord(long offset) throws IOException {
+        if (offset < 0 || offset + RECORD_HEADER_LENGTH > logLength) {
+            return null;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        readFully(header, offset);
+        final int bodyLength = header.getInt(0);
+        if (bodyLength < 4 || offset + RECORD_HEADER_LENGTH + bodyLength > logLength) {
+            return null;
+        }
+
+        final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        readFully(body, offset + RECORD_HEADER_LENGTH);
+
+        final CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, bodyLength);
+        if ((int)crc.getValue() != header.getInt(4)) {
+            return null;
+        }
+
+        try {
+            body.flip();
+            final String username = readString(body);
+            final String algorithm = readString(body);
+            final byte[] key = new byte[body.remaining()];
+            body.get(key);
+
+            return new Record(username, algorithm, key, RECORD_HEADER_LENGTH + bodyLength);
+        } catch (RuntimeException re) {
+            return null;
+        }
+    }
+
+    // The records were checked when they were indexed, so their names are compared without the checksum.
+    private boolean hasName(long offset, byte[] name) throws IOException {
+        final int length = RECORD_HEADER_LENGTH + 2 + name.length;
+        if (offset < 0 || offset + length > logLength) {
+            return false;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, offset);
+        if ((buffer.getShort(RECORD_HEADER_LENGTH) & 0xffff) != name.length) {
+            return false;
+        }
+
+        final byte[] stored = buffer.array();
+        for (int i=0 ; i<name.length ; i++) {
+            if (stored[RECORD_HEADER_LENGTH + 2 + i] != name[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xffff;
+        final String s = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+
+        return s;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the user registry log.");
+            }
+        }
+    }
+
+    // A record appended to the log and not indexed yet.
+    private static final class Appended {
+        final String username;
+        final long offset;
+        final long end;
+
+        Appended(String username, long offset, long end) {
+            this.username = username;
+            this.offset = offset;
+            this.end = end;
+        }
+    }
+
+    private static final class Record {
+        final String username;
+        final String algorithm;
+        final byte[] key;
+        final int length;
+
+        Record(String username, String algorithm, byte[] key, int length) {
+            this.username = username;
+            this.algorithm = algorithm;
+            this.key = key;
+            this.length = length;
+        }
+    }
+}
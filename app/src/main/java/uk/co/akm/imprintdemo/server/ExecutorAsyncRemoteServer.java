@@ -0,0 +1,131 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the calls of a (blocking) #RemoteServer on a request executor and informs the callbacks on a
+ * callback executor (e.g. one that posts to the Android main thread). The request executor decides
+ * how many calls can be in flight at once: on a JVM with virtual threads it can be a
+ * virtual-thread-per-task executor, so that thousands of calls waiting on storage or verification
+ * do not need thousands of platform threads.
+ */
+public final class ExecutorAsyncRemoteServer implements AsyncRemoteServer {
+    private final RemoteServer server;
+    private final Executor requestExecutor;
+    private final Executor callbackExecutor;
+
+    public ExecutorAsyncRemoteServer(RemoteServer server, Executor requestExecutor, Executor callbackExecutor) {
+        this.server = server;
+        this.requestExecutor = requestExecutor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public Future<Void> registerPublicKey(final String username, final String publicKeyData, ServerCallback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                server.registerPublicKey(username, publicKeyData);
+                return null;
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Void> registerPublicKey(final String username, final PublicKey publicKey, ServerCallback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                server.registerPublicKey(username, publicKey);
+                return null;
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<byte[]> getAuthenticationMessageToSign(final String username, ServerCallback<byte[]> callback) {
+        return submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return server.getAuthenticationMessageToSign(username);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> authenticate(final String username, final byte[] message, final byte[] signature, ServerCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return server.authenticate(username, message, signature);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<boolean[]> authenticateAll(final List<AuthRequest> requests, ServerCallback<boolean[]> callback) {
+        return submit(new Callable<boolean[]>() {
+            @Override
+            public boolean[] call() {
+                return server.authenticateAll(requests);
+            }
+        }, callback);
+    }
+
+    private <T> Future<T> submit(Callable<T> call, ServerCallback<T> callback) {
+        final ServerCall<T> task = new ServerCall<>(call, callback);
+        requestExecutor.execute(task);
+
+        return task;
+    }
+
+    private final class ServerCall<T> extends FutureTask<T> {
+        private final ServerCallback<T> callback;
+
+        ServerCall(Callable<T> call, ServerCallback<T> callback) {
+            super(call);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+
+            try {
+                final T result = get();
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(result);
+                    }
+                });
+            } catch (Exception e) {
+                final ServerException error = asServerException(e);
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailure(error);
+                    }
+                });
+            }
+        }
+
+        private ServerException asServerException(Exception e) {
+            final Throwable cause = (e instanceof ExecutionException ? e.getCause() : e);
+            if (cause instanceof ServerException) {
+                return (ServerException)cause;
+            }
+
+            return new ServerException("Server call error.", cause);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the last challenge issued to each user until it is consumed or until it expires, whichever
+ * comes first. Expired challenges are dropped in bulk by a hashed timing wheel: a user is queued in
+ * the wheel slot of the tick in which their challenge expires, and whichever caller first notices
+ * that the clock has moved past some ticks drains the slots of those ticks, dropping the challenges
+ * of the users found there if they have expired. The number of outstanding challenges is capped, so
+ * memory stays bounded no matter how many users there are. Challenges are kept in a column indexed
+ * by the user id, so there is no per-user map entry.
+ *
+ * A user is not queued again for a challenge that expires in the same tick as the one it replaces,
+ * so the wheel holds at most one entry per user and tick however often the challenges are issued.
+ * A consumed challenge is replaced by a marker with the same expiry time for that, which the wheel
+ * drops like a challenge but which is not counted as outstanding.
+ */
+final class ExpiringChallengeStore implements ChallengeStore {
+    private static final int TICKS_PER_TTL = 32;
+
+    private final NonceSource nonceSource;
+    private final long ttlMillis;
+    private final int maxChallenges;
+
+    private final ReferenceColumn<Challenge> challenges = new ReferenceColumn<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final long tickMillis;
+    private final Queue<Challenge>[] wheel;
+    private final AtomicLong lastSweptTick;
+
+    ExpiringChallengeStore(NonceSource nonceSource, long ttlMillis, int maxChallenges) {
+        this.nonceSource = nonceSource;
+        this.ttlMillis = ttlMillis;
+        this.maxChallenges = maxChallenges;
+
+        tickMillis = Math.max(1, (ttlMillis + TICKS_PER_TTL - 1)/TICKS_PER_TTL);
+        wheel = newWheel((int)(ttlMillis/tickMillis) + 2);
+        lastSweptTick = new AtomicLong(now()/tickMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Queue<Challenge>[] newWheel(int slots) {
+        final Queue<Challenge>[] wheel = new Queue[slots];
+        for (int i=0 ; i<slots ; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        return wheel;
+    }
+
+    @Override
+    public byte[] issue(int userId, String username) throws ServerException {
+        final long now = now();
+        expire(now);
+
+        final byte[] message = new byte[nonceSource.length()];
+        nonceSource.next(message, 0);
+
+        final Challenge challenge = new Challenge(userId, message, now + ttlMillis, false);
+        final Challenge replaced = store(challenge);
+        final long tick = tick(challenge.expiresAt);
+        if (replaced == null || tick(replaced.expiresAt) != tick) {
+            wheel[(int)(tick % wheel.length)].add(challenge); // Otherwise the user is already in the slot of the tick.
+        }
+
+        return message;
+    }
+
+    // Returns the challenge or marker replaced, if any.
+    private Challenge store(Challenge challenge) {
+        final Challenge current = challenges.get(challenge.userId);
+        if (current != null && !current.consumed && challenges.compareAndSet(challenge.userId, current, challenge)) {
+            current.message = null; // Replacing the previous challenge of this user does not change the size.
+            return current;
+        }
+
+        reserve();
+        final Challenge previous = challenges.getAndSet(challenge.userId, challenge);
+        if (previous != null && !previous.consumed) {
+            size.decrementAndGet();
+            previous.message = null;
+        }
+
+        return previous;
+    }
+
+    private void reserve() {
+        while (true) {
+            final int current = size.get();
+            if (current >= maxChallenges) {
+                throw new ServerException("Too many outstanding authentication challenges.");
+            }
+
+            if (size.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean consume(int userId, String username, byte[] message) {
+        final long now = now();
+        expire(now);
+
+        final Challenge challenge = challenges.get(userId);
+        if (challenge == null || challenge.consumed || challenge.expiresAt <= now || notExpectedMessage(challenge.message, message)) {
+            return false;
+        }
+
+        if (challenges.compareAndSet(userId, challenge, new Challenge(userId, null, challenge.expiresAt, true))) {
+            size.decrementAndGet();
+            challenge.message = null; // The wheel may keep the entry until it expires, but not its bytes.
+            return true;
+        }
+
+        return false; // Consumed or replaced concurrently.
+    }
+
+    @Override
+    public void close() {
+        nonceSource.close();
+    }
+
+    // The number of entries in the wheel, for the tests.
+    int wheelEntries() {
+        int entries = 0;
+        for (Queue<Challenge> slot : wheel) {
+            entries += slot.size();
+        }
+
+        return entries;
+    }
+
+    static boolean notExpectedMessage(byte[] expectedMessage, byte[] message) {
+        if (expectedMessage == null) {
+            return true;
+        }
+
+        if (expectedMessage.length != message.length) {
+            return true;
+        }
+
+        for (int i=0 ; i<message.length ; i++) {
+            if (expectedMessage[i] != message[i]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void expire(long now) {
+        final long tick = now/tickMillis;
+        final long last = lastSweptTick.get();
+        if (tick <= last || !lastSweptTick.compareAndSet(last, tick)) {
+            return; // Nothing to sweep or another caller is sweeping these ticks.
+        }
+
+        final long ticks = Math.min(tick - last, wheel.length);
+        for (long t=tick - ticks + 1 ; t<=tick ; t++) {
+            sweep(wheel[(int)(t % wheel.length)], now);
+        }
+    }
+
+    private void sweep(Queue<Challenge> slot, long now) {
+        final int n = slot.size();
+        for (int i=0 ; i<n ; i++) {
+            final Challenge entry = slot.poll();
+            if (entry == null) {
+                return;
+            }
+
+            if (entry.expiresAt > now) {
+                slot.add(entry); // Not due yet; can only happen if the sweeper fell a whole wheel behind.
+                continue;
+            }
+
+            final Challenge current = challenges.get(entry.userId);
+            if (current != null && current.expiresAt <= now && challenges.compareAndSet(entry.userId, current, null) && !current.consumed) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    // The tick in whose sweep a challenge that expires at the input time is dropped.
+    private long tick(long expiresAt) {
+        return (expiresAt + tickMillis - 1)/tickMillis;
+    }
+
+    private long now() {
+        return System.nanoTime()/1000000;
+    }
+
+    private static final class Challenge {
+        final int userId;
+        final long expiresAt;
+        final boolean consumed;
+        volatile byte[] message;
+
+        Challenge(int userId, byte[] message, long expiresAt, boolean consumed) {
+            this.userId = userId;
+            this.message = message;
+            this.expiresAt = expiresAt;
+            this.consumed = consumed;
+        }
+    }
+}
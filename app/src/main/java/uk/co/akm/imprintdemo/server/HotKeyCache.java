@@ -0,0 +1,94 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.PublicKey;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Small cache of the public keys of the users that authenticated most recently, so that the keys of
+ * active users are not rebuilt from their encoding on every authentication.
+ *
+ * The cache is set-associative: a user id maps to a set of a few entries, so that a lookup reads
+ * those entries only, without locking or boxing the id. Adding a key locks the stripe of its set and
+ * replaces an empty entry, or else one that has not been read since the read marks of the set were
+ * last cleared, which happens when all its entries are marked. The cache holds up to the capacity
+ * rounded up to a power of two, and at least one set.
+ */
+final class HotKeyCache {
+    private static final int WAYS = 4;
+    private static final int MAX_LOCKS = 64;
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int setMask;
+    private final Object[] locks;
+
+    HotKeyCache(int capacity) {
+        final int minSets = Math.max(1, (capacity + WAYS - 1)/WAYS);
+        final int sets = (minSets == 1 ? 1 : Integer.highestOneBit(minSets - 1) << 1);
+        entries = new AtomicReferenceArray<>(sets*WAYS);
+        setMask = sets - 1;
+        locks = new Object[Math.min(sets, MAX_LOCKS)];
+        for (int i=0 ; i<locks.length ; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    PublicKey get(int userId) {
+        final int first = set(userId)*WAYS;
+        for (int i=first ; i<first + WAYS ; i++) {
+            final Entry entry = entries.get(i);
+            if (entry != null && entry.userId == userId) {
+                if (!entry.used) {
+                    entry.used = true;
+                }
+
+                return entry.key;
+            }
+        }
+
+        return null;
+    }
+
+    void put(int userId, PublicKey key) {
+        final int set = set(userId);
+        final int first = set*WAYS;
+        synchronized (locks[set & (locks.length - 1)]) {
+            int victim = -1;
+            for (int i=first ; i<first + WAYS ; i++) {
+                final Entry entry = entries.get(i);
+                if (entry == null || entry.userId == userId) {
+                    victim = i;
+                    break;
+                }
+
+                if (victim < 0 && !entry.used) {
+                    victim = i;
+                }
+            }
+
+            if (victim < 0) {
+                for (int i=first ; i<first + WAYS ; i++) {
+                    entries.get(i).used = false;
+                }
+                victim = first;
+            }
+
+            entries.set(victim, new Entry(userId, key));
+        }
+    }
+
+    private int set(int userId) {
+        return (userId ^ (userId >>> 16)) & setMask;
+    }
+
+    private static final class Entry {
+        final int userId;
+        final PublicKey key;
+        volatile boolean used;
+
+        Entry(int userId, PublicKey key) {
+            this.userId = userId;
+            this.key = key;
+        }
+    }
+}
@@ -1,125 +1,429 @@
 package uk.co.akm.imprintdemo.server;
 
 
-import android.util.Log;
-
+import java.io.IOException;
 import java.security.PublicKey;
-import java.security.SecureRandom;
-import java.security.Signature;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 import uk.co.akm.imprintdemo.key.KeySerializationException;
 import uk.co.akm.imprintdemo.key.KeySerializer;
+import uk.co.akm.imprintdemo.key.KeySerializerConstants;
 import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Operation;
+import uk.co.akm.imprintdemo.metrics.Outcome;
 
+/**
+ * Thread-safe server. Users are kept by a #UserRegistry, which by default is an in-memory index
+ * with lock-free lookups, so calls for different users can proceed in parallel. Challenges are kept
+ * by a #ChallengeStore, which by default lets them expire and accepts each of them only once.
+ * Signatures are verified by a #VerificationEngine, by default with the signature algorithm
+ * configured for the algorithm of the user key, and keys that it cannot verify are refused on
+ * registration.
+ */
 public final class InMemoryRemoteServer implements RemoteServer {
-    private static final int MESSAGE_LENGTH = 512;
-    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    public static final String SIGNATURE_ALGORITHM_EC = "SHA256withECDSA";
+    public static final String SIGNATURE_ALGORITHM_RSA = "SHA256withRSA";
+    public static final String SIGNATURE_ALGORITHM_ED25519 = "Ed25519";
+
+    private static final int BATCH_SPLIT_THRESHOLD = 2;
+    private static final int VERIFICATION_BATCH_SIZE = 32;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+    private static final byte[] ED25519_ALGORITHM_ID = {0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70};
+
+    private final KeySerializer keySerializer = KeySerializerFactory.compactInstance(0); // Each key is registered once, so a cache would never hit.
+    private final VerificationEngine verificationEngine;
+    private final ChallengeStore challengeStore;
+    private final UserRegistry users;
+    private final ForkJoinPool verificationPool;
+
+    public InMemoryRemoteServer() {
+        this(ChallengeStoreFactory.instance());
+    }
+
+    public InMemoryRemoteServer(int concurrencyLevel) {
+        this(concurrencyLevel, ChallengeStoreFactory.instance());
+    }
 
-    private final KeySerializer keySerializer = KeySerializerFactory.instance();
+    public InMemoryRemoteServer(ChallengeStore challengeStore) {
+        this(Runtime.getRuntime().availableProcessors(), challengeStore);
+    }
+
+    public InMemoryRemoteServer(int concurrencyLevel, ChallengeStore challengeStore) {
+        this(concurrencyLevel, UserRegistryFactory.inMemoryInstance(), challengeStore);
+    }
 
-    private final Random random = new SecureRandom();
-    private final Map<String, PublicKey> users = new HashMap<>();
-    private final Map<String, byte[]> messages = new HashMap<>();
+    public InMemoryRemoteServer(UserRegistry users, ChallengeStore challengeStore) {
+        this(Runtime.getRuntime().availableProcessors(), users, challengeStore);
+    }
+
+    public InMemoryRemoteServer(int concurrencyLevel, UserRegistry users, ChallengeStore challengeStore) {
+        this(concurrencyLevel, users, challengeStore, VerificationEngineFactory.instance());
+    }
+
+    /**
+     * @param concurrencyLevel the number of threads that verify batched authentications
+     * @param users the user registry
+     * @param challengeStore the challenge store
+     * @param signatureAlgorithms the signature algorithm for each supported public key algorithm
+     */
+    public InMemoryRemoteServer(int concurrencyLevel, UserRegistry users, ChallengeStore challengeStore, Map<String, String> signatureAlgorithms) {
+        this(concurrencyLevel, users, challengeStore, VerificationEngineFactory.jcaInstance(signatureAlgorithms));
+    }
+
+    public InMemoryRemoteServer(int concurrencyLevel, UserRegistry users, ChallengeStore challengeStore, VerificationEngine verificationEngine) {
+        if (users == null) {
+            throw new IllegalArgumentException("Missing user registry.");
+        }
+
+        if (challengeStore == null) {
+            throw new IllegalArgumentException("Missing challenge store.");
+        }
+
+        if (verificationEngine == null) {
+            throw new IllegalArgumentException("Missing verification engine.");
+        }
+
+        this.verificationEngine = verificationEngine;
+        this.users = users;
+        this.challengeStore = challengeStore;
+        this.verificationPool = new ForkJoinPool(Math.max(1, concurrencyLevel));
+    }
+
+    /**
+     * @return a new map from the supported public key algorithms to the signature algorithms used by default
+     */
+    public static Map<String, String> defaultSignatureAlgorithms() {
+        final Map<String, String> signatureAlgorithms = new HashMap<>(3);
+        signatureAlgorithms.put(KeySerializerConstants.KEY_ALGORITHM_EC, SIGNATURE_ALGORITHM_EC);
+        signatureAlgorithms.put(KeySerializerConstants.KEY_ALGORITHM_RSA, SIGNATURE_ALGORITHM_RSA);
+        signatureAlgorithms.put(KeySerializerConstants.KEY_ALGORITHM_EDDSA, SIGNATURE_ALGORITHM_ED25519);
+
+        return signatureAlgorithms;
+    }
 
     @Override
     public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+        final long start = Metrics.start();
         try {
             final PublicKey publicKey = keySerializer.deserialize(publicKeyData);
-            registerPublicKey(username, publicKey);
+            register(username, publicKey);
         } catch (KeySerializationException kse) {
+            Metrics.count(Outcome.REGISTRATION_DESERIALIZATION_ERROR);
             throw new ServerException("Public key deserialization error.");
+        } finally {
+            Metrics.stop(Operation.REGISTER, start);
+        }
+    }
+
+    @Override
+    public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+        final long start = Metrics.start();
+        try {
+            register(username, publicKey);
+        } finally {
+            Metrics.stop(Operation.REGISTER, start);
         }
     }
 
-    private void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+    private void register(String username, PublicKey publicKey) throws ServerException {
         if (username == null || username.trim().isEmpty()) {
+            Metrics.count(Outcome.REGISTRATION_INVALID);
             throw new ServerException("Missing username.");
         }
 
-        if (users.containsKey(username)) {
+        if (publicKey == null) {
+            Metrics.count(Outcome.REGISTRATION_INVALID);
+            throw new ServerException("Missing public key.");
+        }
+
+        if (!verificationEngine.supports(publicKey.getAlgorithm())) {
+            Metrics.count(Outcome.REGISTRATION_INVALID);
+            throw new ServerException("Unsupported public key algorithm " + publicKey.getAlgorithm() + ".");
+        }
+
+        if (KeySerializerConstants.KEY_ALGORITHM_EDDSA.equals(publicKey.getAlgorithm()) && !isEd25519(publicKey)) {
+            Metrics.count(Outcome.REGISTRATION_INVALID);
+            throw new ServerException("Unsupported EdDSA curve. Only Ed25519 keys are supported.");
+        }
+
+        if (!users.register(username, publicKey)) {
+            Metrics.count(Outcome.ALREADY_REGISTERED);
             throw new ServerException("User '" + username + "' is already registered.");
         }
 
-        users.put(username, publicKey);
+        Metrics.count(Outcome.REGISTERED);
     }
 
-    @Override
-    public byte[] getAuthenticationMessageToSign(String username) {
-        if (!users.containsKey(username)) {
-            throw new ServerException("User '" + username + "' has not registered.");
+    // EdDSA keys of every curve share the algorithm name, but they are all verified with Ed25519. The curve
+    // is told by the algorithm identifier of the X.509 encoding: SEQUENCE { OID 1.3.101.112 }.
+    private static boolean isEd25519(PublicKey publicKey) {
+        final byte[] x509 = publicKey.getEncoded();
+        if (x509 == null || x509.length < 2 + ED25519_ALGORITHM_ID.length) {
+            return false;
         }
 
-        final byte[] message = new byte[MESSAGE_LENGTH];
-        random.nextBytes(message);
+        for (int i=0 ; i<ED25519_ALGORITHM_ID.length ; i++) {
+            if (x509[2 + i] != ED25519_ALGORITHM_ID[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
 
-        messages.put(username, message);
+    @Override
+    public byte[] getAuthenticationMessageToSign(String username) {
+        final long start = Metrics.start();
+        try {
+            final int userId = (username == null ? UserRegistry.NOT_REGISTERED : users.find(username));
+            if (userId == UserRegistry.NOT_REGISTERED) {
+                Metrics.count(Outcome.CHALLENGE_UNKNOWN_USER);
+                throw new ServerException("User '" + username + "' has not registered.");
+            }
 
-        return message;
+            final byte[] challenge = challengeStore.issue(userId, username);
+            Metrics.count(Outcome.CHALLENGE_ISSUED);
+
+            return challenge;
+        } finally {
+            Metrics.stop(Operation.ISSUE_CHALLENGE, start);
+        }
     }
 
     @Override
     public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+        final long start = Metrics.start();
+        try {
+            final Outcome outcome = authenticationOutcome(username, message, signature);
+            Metrics.count(outcome);
+
+            return (outcome == Outcome.AUTHENTICATED);
+        } finally {
+            Metrics.stop(Operation.AUTHENTICATE, start);
+        }
+    }
+
+    private Outcome authenticationOutcome(String username, byte[] message, byte[] signature) throws ServerException {
         checkArguments(username, message, signature);
 
-        final byte[] expectedMessage = messages.get(username);
-        if (notExpectedMessage(expectedMessage, message)) {
-            return false;
+        final int userId = users.find(username);
+        final Outcome challengeOutcome = challengeOutcome(userId, username, message);
+        if (challengeOutcome != null) {
+            return challengeOutcome;
+        }
+
+        return (verifySignature(message, users.publicKey(userId), signature) ? Outcome.AUTHENTICATED : Outcome.AUTHENTICATION_BAD_SIGNATURE);
+    }
+
+    // Returns the outcome of an authentication that fails before its signature is verified, or null.
+    private Outcome challengeOutcome(int userId, String username, byte[] message) {
+        if (userId == UserRegistry.NOT_REGISTERED) {
+            return Outcome.AUTHENTICATION_UNKNOWN_USER; // Nobody could have been issued a challenge for this username.
+        }
+
+        if (!challengeStore.consume(userId, username, message)) {
+            return Outcome.AUTHENTICATION_STALE_CHALLENGE; // Unknown, stale or already used challenge.
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException {
+        if (requests == null) {
+            throw new ServerException("Missing authentication requests.");
+        }
+
+        final AuthRequest[] batch = requests.toArray(new AuthRequest[requests.size()]);
+        final boolean[] results = new boolean[batch.length];
+        if (batch.length > 1 && verificationEngine instanceof BatchVerificationEngine) {
+            authenticateInBatches(batch, results);
+        } else if (batch.length > 0) {
+            verificationPool.invoke(new BatchAuthentication(batch, results, 0, batch.length));
+        }
+
+        return results;
+    }
+
+    // Checks the challenges of all the requests first and then verifies the remaining signatures in batches.
+    // Every request is timed as an equal share of the whole batch.
+    private void authenticateInBatches(AuthRequest[] batch, boolean[] results) {
+        final long start = Metrics.start();
+        final int[] pending = new int[batch.length];
+        final PublicKey[] keys = new PublicKey[batch.length];
+        int requests = 0;
+        int size = 0;
+        for (int i=0 ; i<batch.length ; i++) {
+            final AuthRequest request = batch[i];
+            if (request == null) {
+                continue;
+            }
+
+            requests++;
+            try {
+                checkArguments(request.username, request.message, request.signature);
+
+                final int userId = users.find(request.username);
+                final Outcome challengeOutcome = challengeOutcome(userId, request.username, request.message);
+                if (challengeOutcome == null) {
+                    pending[size] = i;
+                    keys[size++] = users.publicKey(userId);
+                } else {
+                    Metrics.count(challengeOutcome);
+                }
+            } catch (ServerException se) {
+                // An invalid request, which fails like in #authenticateQuietly(AuthRequest).
+            }
+        }
+
+        if (size > 0) {
+            verificationPool.invoke(new BatchVerification(batch, results, pending, keys, 0, size));
+        }
+        Metrics.stop(Operation.AUTHENTICATE, start, requests);
+    }
+
+    private void verifyBatch(AuthRequest[] batch, boolean[] results, int[] pending, PublicKey[] keys, int from, int to) {
+        final byte[][] messages = new byte[to - from][];
+        final byte[][] signatures = new byte[to - from][];
+        for (int k=from ; k<to ; k++) {
+            messages[k - from] = batch[pending[k]].message;
+            signatures[k - from] = batch[pending[k]].signature;
+        }
+
+        boolean[] verified;
+        try {
+            final long start = Metrics.start();
+            verified = ((BatchVerificationEngine)verificationEngine).verifyAll(Arrays.copyOfRange(keys, from, to), messages, signatures);
+            Metrics.stop(Operation.VERIFY_SIGNATURE, start, to - from);
+        } catch (Exception e) {
+            verified = null; // The signatures are verified one by one instead, which reports the errors.
+        }
+
+        for (int k=from ; k<to ; k++) {
+            try {
+                final boolean authenticated = (verified == null ? verifySignature(messages[k - from], keys[k], signatures[k - from]) : verified[k - from]);
+                Metrics.count(authenticated ? Outcome.AUTHENTICATED : Outcome.AUTHENTICATION_BAD_SIGNATURE);
+                results[pending[k]] = authenticated;
+            } catch (ServerException se) {
+                results[pending[k]] = false;
+            }
         }
+    }
 
-        final PublicKey key = users.get(username);
-        if (key == null) {
-            throw new ServerException("User '" + username + "' has not registered.");
+    /**
+     * Stops the threads that verify batched authentications, after the batches in progress, and
+     * closes the challenge store and the user registry of the server.
+     */
+    @Override
+    public void close() throws IOException {
+        verificationPool.shutdown();
+        try {
+            verificationPool.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         }
 
-        return verifySignature(message, key, signature);
+        challengeStore.close();
+        users.close();
+    }
+
+    private boolean authenticateQuietly(AuthRequest request) {
+        try {
+            return (request != null && authenticate(request.username, request.message, request.signature));
+        } catch (ServerException se) {
+            return false;
+        }
     }
 
     private void checkArguments(String username, byte[] message, byte[] signature) throws ServerException {
         if (username == null || username.trim().isEmpty()) {
+            Metrics.count(Outcome.AUTHENTICATION_INVALID);
             throw new ServerException("Missing username.");
         }
 
         if (message == null || message.length == 0) {
+            Metrics.count(Outcome.AUTHENTICATION_INVALID);
             throw new ServerException("Missing authentication message.");
         }
 
         if (signature == null || signature.length == 0) {
+            Metrics.count(Outcome.AUTHENTICATION_INVALID);
             throw new ServerException("Missing authentication signature.");
         }
     }
 
-    private boolean notExpectedMessage(byte[] expectedMessage, byte[] message) {
-        if (expectedMessage == null) {
-            return true;
+    private boolean verifySignature(byte[] message, PublicKey key, byte[] signature) throws ServerException {
+        final long start = Metrics.start();
+        try {
+            return verificationEngine.verify(key, message, signature);
+        } catch (Exception e) {
+            Metrics.count(Outcome.AUTHENTICATION_VERIFICATION_ERROR);
+            throw new ServerException("Signature versification error.", e);
+        } finally {
+            Metrics.stop(Operation.VERIFY_SIGNATURE, start);
         }
+    }
+
+    // Splits the batch in halves until the pieces are small enough to authenticate directly.
+    private final class BatchAuthentication extends RecursiveAction {
+        private final AuthRequest[] batch;
+        private final boolean[] results;
+        private final int from;
+        private final int to;
 
-        if (expectedMessage.length != message.length) {
-            return true;
+        BatchAuthentication(AuthRequest[] batch, boolean[] results, int from, int to) {
+            this.batch = batch;
+            this.results = results;
+            this.from = from;
+            this.to = to;
         }
 
-        for (int i=0 ; i<message.length ; i++) {
-            if (expectedMessage[i] != message[i]) {
-                return true;
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SPLIT_THRESHOLD) {
+                for (int i=from ; i<to ; i++) {
+                    results[i] = authenticateQuietly(batch[i]);
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new BatchAuthentication(batch, results, from, middle), new BatchAuthentication(batch, results, middle, to));
             }
         }
-
-        return false;
     }
 
-    private boolean verifySignature(byte[] message, PublicKey key, byte[] signature) throws ServerException {
-        try {
-            final Signature verificationFunction = Signature.getInstance(SIGNATURE_ALGORITHM);
+    // Splits the signatures left to verify until the pieces fit in one verification batch.
+    private final class BatchVerification extends RecursiveAction {
+        private final AuthRequest[] batch;
+        private final boolean[] results;
+        private final int[] pending;
+        private final PublicKey[] keys;
+        private final int from;
+        private final int to;
 
-            verificationFunction.initVerify(key);
-            verificationFunction.update(message);
+        BatchVerification(AuthRequest[] batch, boolean[] results, int[] pending, PublicKey[] keys, int from, int to) {
+            this.batch = batch;
+            this.results = results;
+            this.pending = pending;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
 
-            return verificationFunction.verify(signature);
-        } catch (Exception e) {
-            Log.e(getClass().getSimpleName(), "Signature versification error.", e);
-            throw new ServerException("Signature versification error.");
+        @Override
+        protected void compute() {
+            if (to - from <= VERIFICATION_BATCH_SIZE) {
+                verifyBatch(batch, results, pending, keys, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new BatchVerification(batch, results, pending, keys, from, middle), new BatchVerification(batch, results, pending, keys, middle, to));
+            }
         }
     }
 }
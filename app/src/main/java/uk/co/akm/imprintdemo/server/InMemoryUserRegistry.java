@@ -0,0 +1,88 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.PublicKey;
+
+import uk.co.akm.imprintdemo.key.KeyCodec;
+import uk.co.akm.imprintdemo.key.KeySerializationException;
+import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+
+/**
+ * Keeps the public keys in their compact binary encoding (e.g. 66 bytes for a P-256 key) packed in
+ * a #ByteArena, instead of keeping the (much larger) #PublicKey objects. The users are kept in a
+ * #UsernameIndex whose value for every user is the arena handle of the user key. Keys are rebuilt
+ * when they are needed for a verification, and the keys of the most recently active users are cached.
+ */
+final class InMemoryUserRegistry implements UserRegistry {
+    private static final int HOT_KEYS = 1024;
+
+    private final KeyCodec keyCodec = KeySerializerFactory.compactCodecInstance();
+    private final ByteArena keys = new ByteArena();
+    private final HotKeyCache hotKeys = new HotKeyCache(HOT_KEYS);
+    private final UsernameIndex users = new UsernameIndex();
+
+    @Override
+    public boolean register(String username, PublicKey publicKey) throws ServerException {
+        if (users.find(username) != UsernameIndex.NOT_FOUND) {
+            return false;
+        }
+
+        final byte[] encodedKey;
+        try {
+            encodedKey = keyCodec.encode(publicKey);
+        } catch (KeySerializationException kse) {
+            throw new ServerException("Cannot store the public key of user '" + username + "'.", kse);
+        }
+
+        synchronized (this) {
+            if (users.find(username) != UsernameIndex.NOT_FOUND) {
+                return false; // Registered concurrently.
+            }
+
+            return (users.add(username, keys.append(encodedKey)) != UsernameIndex.NOT_FOUND);
+        }
+    }
+
+    @Override
+    public int find(String username) {
+        final int id = users.find(username);
+
+        return (id == UsernameIndex.NOT_FOUND ? NOT_REGISTERED : id);
+    }
+
+    @Override
+    public PublicKey publicKey(int userId) throws ServerException {
+        final PublicKey cached = hotKeys.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long handle = users.value(userId);
+        try {
+            final byte[] chunk = keys.chunk(handle);
+            final PublicKey key = keyCodec.decode(chunk, ByteArena.offset(handle), ByteArena.length(chunk, handle));
+            hotKeys.put(userId, key);
+
+            return key;
+        } catch (KeySerializationException kse) {
+            throw new ServerException("Stored public key decoding error.", kse);
+        }
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    @Override
+    public String username(int userId) throws ServerException {
+        if (userId < 0 || userId >= users.size()) {
+            throw new ServerException("Unknown user id " + userId + ".");
+        }
+
+        return users.name(userId);
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,34 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.Arrays;
+
+/**
+ * A growable array of longs, indexed by user id. It grows by adding fixed size chunks, so existing
+ * values are never copied and readers never see a half-grown array. Values must be published to
+ * readers through a thread-safe structure (e.g. the #UsernameIndex that hands out the ids).
+ */
+final class LongColumn {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private volatile long[][] chunks = new long[0][];
+
+    long get(int index) {
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    // Writers must be serialized by the caller.
+    void set(int index, long value) {
+        final int chunk = index >>> CHUNK_SHIFT;
+        if (chunk >= chunks.length) {
+            final long[][] grown = Arrays.copyOf(chunks, chunk + 1);
+            for (int i=chunks.length ; i<grown.length ; i++) {
+                grown[i] = new long[CHUNK_MASK + 1];
+            }
+            chunks = grown;
+        }
+
+        chunks[chunk][index & CHUNK_MASK] = value;
+    }
+}
@@ -0,0 +1,330 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.co.akm.imprintdemo.key.KeyCodec;
+import uk.co.akm.imprintdemo.key.KeySerializationException;
+import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+
+/**
+ * Non-blocking host. A single selector thread accepts connections and reads their frames, and every
+ * complete request frame is handed to a worker, so that many requests of the same connection can be
+ * in flight at once. Workers queue their responses on the connection and wake the selector up to
+ * write them.
+ *
+ * Both queues are bounded. The own worker pool queues a limited number of requests and a request
+ * that does not fit is answered with an error, and a connection stops being read while it has too
+ * many requests whose responses have not been written yet, until half of them have been.
+ */
+final class NioRemoteServerHost implements RemoteServerHost {
+    private static final int READ_BUFFER_LENGTH = 1 << 16;
+    private static final int MAX_QUEUED_REQUESTS = 1 << 12;
+    static final int MAX_OUTSTANDING_REQUESTS = 1 << 8;
+
+    private final KeyCodec keyCodec = KeySerializerFactory.compactCodecInstance();
+    private final RemoteServer server;
+    private final Executor workers;
+    private final ExecutorService ownWorkers;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Thread selectorThread;
+
+    private volatile boolean closed;
+
+    NioRemoteServerHost(RemoteServer server, InetSocketAddress address, Executor workers) throws IOException {
+        this.server = server;
+        this.ownWorkers = (workers == null ? newWorkers(Runtime.getRuntime().availableProcessors()) : null);
+        this.workers = (workers == null ? ownWorkers : workers);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+
+        try {
+            serverChannel.socket().bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ioe) {
+            serverChannel.close();
+            selector.close();
+            throw ioe;
+        }
+
+        this.selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                selectLoop();
+            }
+        }, "remote-server-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    private static ExecutorService newWorkers(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS));
+    }
+
+    @Override
+    public InetSocketAddress address() {
+        return (InetSocketAddress)serverChannel.socket().getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+
+        try {
+            selectorThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (ownWorkers != null) {
+            ownWorkers.shutdown();
+        }
+    }
+
+    private void selectLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                flushPendingWrites();
+
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            closed = true;
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+
+            if (key.isAcceptable()) {
+                accept();
+            } else {
+                final Connection connection = (Connection)key.attachment();
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.write();
+                }
+            }
+        } catch (IOException ioe) {
+            close(key);
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private void flushPendingWrites() {
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            try {
+                if (connection.key.isValid()) {
+                    connection.write();
+                }
+            } catch (IOException ioe) {
+                close(connection.key);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {}
+    }
+
+    private void closeAll() {
+        final List<SelectionKey> keys = new ArrayList<>(selector.keys());
+        for (SelectionKey key : keys) {
+            close(key);
+        }
+
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void execute(final Connection connection, final ByteBuffer request) {
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connection.respond(process(request));
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            connection.respond(WireCodec.error(request.getInt(0), closed ? "Server is shutting down." : "Server is busy."));
+        }
+    }
+
+    private ByteBuffer process(ByteBuffer request) {
+        final int requestId = request.getInt();
+
+        try {
+            switch (WireCodec.getMessageType(request)) {
+                case WireCodec.REGISTRATION:
+                    server.registerPublicKey(WireCodec.getString(request), WireCodec.getKey(request, keyCodec));
+                    return WireCodec.acknowledgement(requestId);
+                case WireCodec.CHALLENGE_REQUEST:
+                    return WireCodec.challenge(requestId, server.getAuthenticationMessageToSign(WireCodec.getString(request)));
+                case WireCodec.AUTHENTICATION:
+                    return WireCodec.results(requestId, server.authenticate(WireCodec.getString(request), WireCodec.getBytes(request), WireCodec.getBytes(request)));
+                case WireCodec.AUTHENTICATION_BATCH:
+                    return WireCodec.results(requestId, server.authenticateAll(WireCodec.getAuthenticationBatch(request)));
+                default:
+                    return WireCodec.error(requestId, "Unknown request type.");
+            }
+        } catch (KeySerializationException kse) {
+            return WireCodec.error(requestId, "Public key deserialization error.");
+        } catch (ServerException se) {
+            return WireCodec.error(requestId, se.getMessage());
+        } catch (RuntimeException re) {
+            return WireCodec.error(requestId, "Server error.");
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger outstanding = new AtomicInteger(); // Requests executed but not written back.
+
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_LENGTH);
+        private boolean paused; // Selector thread only.
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        // Selector thread only.
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Connection closed by the client.");
+            }
+
+            dispatch();
+        }
+
+        // Selector thread only. Executes the complete frames read, unless there are too many outstanding.
+        private void dispatch() throws IOException {
+            in.flip();
+            while (in.remaining() >= WireCodec.LENGTH_FIELD) {
+                if (outstanding.get() >= MAX_OUTSTANDING_REQUESTS) {
+                    paused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    break;
+                }
+
+                final int length = in.getInt(in.position());
+                if (length < WireCodec.MIN_FRAME_LENGTH || length > WireCodec.MAX_FRAME_LENGTH) {
+                    throw new IOException("Bad frame length: " + length);
+                }
+
+                if (in.remaining() < WireCodec.LENGTH_FIELD + length) {
+                    break;
+                }
+
+                // The read buffer is reused, so each frame is copied once, into a buffer that the
+                // worker decodes in place.
+                in.position(in.position() + WireCodec.LENGTH_FIELD);
+                final ByteBuffer frame = in.slice();
+                frame.limit(length);
+                in.position(in.position() + length);
+
+                final ByteBuffer request = ByteBuffer.allocate(length);
+                request.put(frame);
+                request.flip();
+                outstanding.incrementAndGet();
+                execute(this, request);
+            }
+            in.compact();
+
+            if (!paused && !in.hasRemaining()) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.min(2 * in.capacity(), WireCodec.LENGTH_FIELD + WireCodec.MAX_FRAME_LENGTH));
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+        }
+
+        // Any thread.
+        void respond(ByteBuffer response) {
+            responses.add(response);
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        // Selector thread only.
+        void write() throws IOException {
+            ByteBuffer response;
+            while ((response = responses.peek()) != null) {
+                channel.write(response);
+                if (response.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    resume();
+                    return;
+                }
+                responses.poll();
+                outstanding.decrementAndGet();
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            resume();
+        }
+
+        // Selector thread only.
+        private void resume() throws IOException {
+            if (paused && outstanding.get() <= MAX_OUTSTANDING_REQUESTS/2) {
+                paused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                dispatch(); // The frames read before pausing.
+            }
+        }
+    }
+}
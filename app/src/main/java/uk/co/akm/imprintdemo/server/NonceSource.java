@@ -0,0 +1,24 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.Closeable;
+
+/**
+ * Source of the random bytes that make challenges unpredictable.
+ */
+interface NonceSource extends Closeable {
+
+    int length();
+
+    /**
+     * Writes the next #length() random bytes into the input array, starting at the input offset.
+     */
+    void next(byte[] destination, int offset);
+
+    /**
+     * Stops any background generation of nonces. Nonces can still be taken afterwards, but they are
+     * generated on the calling thread.
+     */
+    @Override
+    void close();
+}
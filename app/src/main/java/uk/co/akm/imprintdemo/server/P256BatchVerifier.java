@@ -0,0 +1,257 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECPoint;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+/**
+ * Verifies batches of SHA256withECDSA signatures of P-256 keys, sharing the inversions between the
+ * signatures of a batch with Montgomery's trick: the inversions of all the s values modulo n take
+ * one inversion, and so does the conversion to affine coordinates of the window multiples of all
+ * the keys. Each u2*Q is then a 4-bit windowed multiplication with mixed additions and each u1*G
+ * uses the #P256Table of the generator.
+ *
+ * ECDSA signatures cannot be checked together with one equation, since r does not give the y
+ * coordinate of the point it comes from, so the signatures of a batch keep their own outcomes. What
+ * can fail for the batch as a whole is a shared inversion, if one of its factors is zero, which the
+ * checks on the keys and signatures should rule out. Such a batch is split in halves until the
+ * signatures that cause it are alone, and those go to the fallback engine, as do single
+ * verifications, other keys and signatures that are not minimally DER encoded.
+ *
+ * One in every cross-check interval of the signatures verified in batches is verified with the
+ * fallback engine too, and the fallback result is the one returned if they disagree.
+ *
+ * Not final, so that the tests can make a shared inversion fail, which valid keys cannot.
+ */
+class P256BatchVerifier implements BatchVerificationEngine {
+    private static final int WINDOW_BITS = 4;
+    private static final int MULTIPLES = (1 << WINDOW_BITS) - 1;
+    private static final int POINT_WORDS = 2*P256Field.WORDS;
+
+    private final VerificationEngine fallback;
+    private final int crossCheckInterval;
+    private final AtomicLong batchVerifications = new AtomicLong();
+    private final ThreadLocal<P256Curve> curves = new ThreadLocal<>();
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
+
+    P256BatchVerifier(VerificationEngine fallback, int crossCheckInterval) {
+        this.fallback = fallback;
+        this.crossCheckInterval = crossCheckInterval;
+    }
+
+    @Override
+    public boolean supports(String keyAlgorithm) {
+        return fallback.supports(keyAlgorithm);
+    }
+
+    @Override
+    public boolean verify(PublicKey key, byte[] message, byte[] signature) throws GeneralSecurityException {
+        return fallback.verify(key, message, signature);
+    }
+
+    @Override
+    public boolean[] verifyAll(PublicKey[] keys, byte[][] messages, byte[][] signatures) throws GeneralSecurityException {
+        final boolean[] results = new boolean[keys.length];
+        final int[] batch = new int[keys.length];
+        final BigInteger[][] rs = new BigInteger[keys.length][];
+        int size = 0;
+        for (int i=0 ; i<keys.length ; i++) {
+            rs[i] = (P256Signatures.isP256Key(keys[i]) ? P256Signatures.decode(signatures[i]) : null);
+            if (rs[i] == null) {
+                results[i] = verifyAlone(keys[i], messages[i], signatures[i]);
+            } else {
+                batch[size++] = i;
+            }
+        }
+
+        verifyAll(batch, 0, size, keys, messages, signatures, rs, results);
+
+        return results;
+    }
+
+    // Bisects the batch when one of its shared inversions fails.
+    private void verifyAll(int[] batch, int from, int to, PublicKey[] keys, byte[][] messages, byte[][] signatures, BigInteger[][] rs, boolean[] results) throws GeneralSecurityException {
+        if (to - from == 1) {
+            final int i = batch[from];
+            results[i] = verifyAlone(keys[i], messages[i], signatures[i]);
+        } else if (to - from > 1) {
+            try {
+                verifyBatch(batch, from, to, keys, messages, rs, results);
+            } catch (ArithmeticException ae) {
+                final int middle = (from + to) >>> 1;
+                verifyAll(batch, from, middle, keys, messages, signatures, rs, results);
+                verifyAll(batch, middle, to, keys, messages, signatures, rs, results);
+                return;
+            }
+
+            crossCheck(batch, from, to, keys, messages, signatures, results);
+        }
+    }
+
+    // Verifies the signatures of the batch whose counts are multiples of the interval with the fallback engine too.
+    private void crossCheck(int[] batch, int from, int to, PublicKey[] keys, byte[][] messages, byte[][] signatures, boolean[] results) {
+        if (crossCheckInterval == 0) {
+            return;
+        }
+
+        final long last = batchVerifications.addAndGet(to - from);
+        final long first = last - (to - from) + 1;
+        for (long count=(first + crossCheckInterval - 1)/crossCheckInterval*crossCheckInterval ; count<=last ; count+=crossCheckInterval) {
+            final int i = batch[from + (int)(count - first)];
+            final boolean expected = verifyAlone(keys[i], messages[i], signatures[i]);
+            if (expected != results[i]) {
+                Metrics.count(Outcome.VERIFICATION_BATCH_MISMATCH);
+                results[i] = expected;
+            }
+        }
+    }
+
+    private boolean verifyAlone(PublicKey key, byte[] message, byte[] signature) {
+        try {
+            return fallback.verify(key, message, signature);
+        } catch (GeneralSecurityException gse) {
+            return false;
+        }
+    }
+
+    // Throws an ArithmeticException if a shared inversion fails.
+    void verifyBatch(int[] batch, int from, int to, PublicKey[] keys, byte[][] messages, BigInteger[][] rs, boolean[] results) throws GeneralSecurityException {
+        final int size = to - from;
+        final P256Curve curve = curve();
+        final P256Field field = curve.field;
+
+        // The inverses of all the s values, with one inversion modulo n.
+        final BigInteger[] inverses = new BigInteger[size];
+        BigInteger product = BigInteger.ONE;
+        for (int k=0 ; k<size ; k++) {
+            inverses[k] = product;
+            product = product.multiply(rs[batch[from + k]][1]).mod(P256Curve.N);
+        }
+        BigInteger inverse = product.modInverse(P256Curve.N);
+        for (int k=size - 1 ; k>=0 ; k--) {
+            final BigInteger s = rs[batch[from + k]][1];
+            inverses[k] = inverse.multiply(inverses[k]).mod(P256Curve.N);
+            inverse = inverse.multiply(s).mod(P256Curve.N);
+        }
+
+        // The Jacobian multiples 1 to 15 of every key, made affine with one field inversion.
+        final int points = size*MULTIPLES;
+        final int[][] xs = new int[points][P256Field.WORDS];
+        final int[][] ys = new int[points][P256Field.WORDS];
+        final int[][] zs = new int[points][P256Field.WORDS];
+        final int[] baseX = new int[P256Field.WORDS];
+        final int[] baseY = new int[P256Field.WORDS];
+        for (int k=0 ; k<size ; k++) {
+            final ECPoint point = ((ECPublicKey)keys[batch[from + k]]).getW();
+            P256Field.copy(P256Field.words(point.getAffineX()), baseX);
+            P256Field.copy(P256Field.words(point.getAffineY()), baseY);
+
+            final int first = k*MULTIPLES;
+            P256Field.copy(baseX, xs[first]);
+            P256Field.copy(baseY, ys[first]);
+            P256Field.set(zs[first], 1);
+            for (int m=1 ; m<MULTIPLES ; m++) {
+                P256Field.copy(xs[first + m - 1], xs[first + m]);
+                P256Field.copy(ys[first + m - 1], ys[first + m]);
+                P256Field.copy(zs[first + m - 1], zs[first + m]);
+                curve.addAffine(xs[first + m], ys[first + m], zs[first + m], baseX, baseY);
+            }
+        }
+        final int[] multiples = toAffine(xs, ys, zs, field);
+
+        final MessageDigest digest = digest();
+        final int[] x = new int[P256Field.WORDS];
+        final int[] y = new int[P256Field.WORDS];
+        final int[] z = new int[P256Field.WORDS];
+        final int[] pointX = new int[P256Field.WORDS];
+        final int[] pointY = new int[P256Field.WORDS];
+        for (int k=0 ; k<size ; k++) {
+            final int i = batch[from + k];
+            final BigInteger r = rs[i][0];
+            final BigInteger e = new BigInteger(1, digest.digest(messages[i]));
+            final int[] u1 = P256Field.words(e.multiply(inverses[k]).mod(P256Curve.N));
+            final int[] u2 = P256Field.words(r.multiply(inverses[k]).mod(P256Curve.N));
+
+            P256Field.set(z, 0);
+            for (int window=256/WINDOW_BITS - 1 ; window>=0 ; window--) {
+                if (!P256Field.isZero(z)) {
+                    for (int d=0 ; d<WINDOW_BITS ; d++) {
+                        curve.twice(x, y, z);
+                    }
+                }
+
+                final int digit = (u2[window >>> 3] >>> (WINDOW_BITS*(window & 7))) & MULTIPLES;
+                if (digit != 0) {
+                    final int offset = (k*MULTIPLES + digit - 1)*POINT_WORDS;
+                    System.arraycopy(multiples, offset, pointX, 0, P256Field.WORDS);
+                    System.arraycopy(multiples, offset + P256Field.WORDS, pointY, 0, P256Field.WORDS);
+                    curve.addAffine(x, y, z, pointX, pointY);
+                }
+            }
+            P256Table.generator().addMultiple(u1, x, y, z, pointX, pointY, curve);
+
+            results[i] = P256Signatures.matches(x, z, r, field, pointX, pointY);
+        }
+    }
+
+    // Returns the affine coordinates of the input points, laid out as x, y, x, y, ...
+    private static int[] toAffine(int[][] xs, int[][] ys, int[][] zs, P256Field field) {
+        final int points = zs.length;
+        final int[][] prefixes = new int[points][P256Field.WORDS];
+        P256Field.copy(zs[0], prefixes[0]);
+        for (int j=1 ; j<points ; j++) {
+            field.multiply(prefixes[j - 1], zs[j], prefixes[j]);
+        }
+
+        final int[] inverse = new int[P256Field.WORDS];
+        final int[] zInverse = new int[P256Field.WORDS];
+        final int[] zInverse2 = new int[P256Field.WORDS];
+        final int[] affine = new int[points*POINT_WORDS];
+        P256Field.invert(prefixes[points - 1], inverse); // Throws an ArithmeticException if a Z is zero.
+        for (int j=points - 1 ; j>=0 ; j--) {
+            if (j > 0) {
+                field.multiply(inverse, prefixes[j - 1], zInverse);
+                field.multiply(inverse, zs[j], inverse);
+            } else {
+                P256Field.copy(inverse, zInverse);
+            }
+
+            field.square(zInverse, zInverse2);
+            field.multiply(xs[j], zInverse2, xs[j]);
+            field.multiply(zInverse2, zInverse, zInverse2);
+            field.multiply(ys[j], zInverse2, ys[j]);
+            System.arraycopy(xs[j], 0, affine, j*POINT_WORDS, P256Field.WORDS);
+            System.arraycopy(ys[j], 0, affine, j*POINT_WORDS + P256Field.WORDS, P256Field.WORDS);
+        }
+
+        return affine;
+    }
+
+    private P256Curve curve() {
+        P256Curve curve = curves.get();
+        if (curve == null) {
+            curve = new P256Curve();
+            curves.set(curve);
+        }
+
+        return curve;
+    }
+
+    private MessageDigest digest() throws GeneralSecurityException {
+        MessageDigest digest = digests.get();
+        if (digest == null) {
+            digest = MessageDigest.getInstance("SHA-256");
+            digests.set(digest);
+        }
+
+        return digest;
+    }
+}
@@ -0,0 +1,128 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.math.BigInteger;
+
+/**
+ * Point arithmetic on the NIST P-256 curve y^2 = x^3 - 3x + b, in Jacobian coordinates (X, Y, Z),
+ * which stand for the affine point (X/Z^2, Y/Z^3), with Z = 0 for the point at infinity. A point is
+ * only ever added to an affine point (e.g. one from a #P256Table), with the mixed addition formulas,
+ * so no verification needs a field inversion. An instance keeps the scratch space of the formulas
+ * and must not be shared between threads.
+ */
+final class P256Curve {
+    static final BigInteger N = new BigInteger("FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551", 16);
+    static final BigInteger B = new BigInteger("5AC635D8AA3A93E7B3EBBD55769886BC651D06B0CC53B0F63BCE3C3E27D2604B", 16);
+    static final BigInteger GX = new BigInteger("6B17D1F2E12C4247F8BCE6E563A440F277037D812DEB33A0F4A13945D898C296", 16);
+    static final BigInteger GY = new BigInteger("4FE342E2FE1A7F9B8EE7EB4A7C0F9E162BCE33576B315ECECBB6406837BF51F5", 16);
+
+    final P256Field field = new P256Field();
+
+    private final int[] t0 = new int[P256Field.WORDS];
+    private final int[] t1 = new int[P256Field.WORDS];
+    private final int[] t2 = new int[P256Field.WORDS];
+    private final int[] t3 = new int[P256Field.WORDS];
+    private final int[] t4 = new int[P256Field.WORDS];
+    private final int[] t5 = new int[P256Field.WORDS];
+
+    static boolean isOnCurve(BigInteger x, BigInteger y) {
+        final BigInteger p = P256Field.P;
+        if (x.signum() < 0 || x.compareTo(p) >= 0 || y.signum() < 0 || y.compareTo(p) >= 0) {
+            return false;
+        }
+
+        return y.multiply(y).subtract(x.multiply(x).multiply(x)).add(x.multiply(BigInteger.valueOf(3))).subtract(B).mod(p).signum() == 0;
+    }
+
+    // dbl-2001-b: delta = Z^2, gamma = Y^2, beta = X*gamma, alpha = 3*(X - delta)*(X + delta)
+    void twice(int[] x, int[] y, int[] z) {
+        final int[] delta = t0, gamma = t1, beta = t2, alpha = t3;
+        field.square(z, delta);
+        field.square(y, gamma);
+        field.multiply(x, gamma, beta);
+        P256Field.subtract(x, delta, t4);
+        P256Field.add(x, delta, t5);
+        field.multiply(t4, t5, alpha);
+        P256Field.add(alpha, alpha, t4);
+        P256Field.add(alpha, t4, alpha);
+
+        // Z3 = (Y + Z)^2 - gamma - delta
+        P256Field.add(y, z, t4);
+        field.square(t4, z);
+        P256Field.subtract(z, gamma, z);
+        P256Field.subtract(z, delta, z);
+
+        // X3 = alpha^2 - 8*beta
+        P256Field.add(beta, beta, beta);
+        P256Field.add(beta, beta, beta); // 4*beta
+        field.square(alpha, x);
+        P256Field.subtract(x, beta, x);
+        P256Field.subtract(x, beta, x);
+
+        // Y3 = alpha*(4*beta - X3) - 8*gamma^2
+        P256Field.subtract(beta, x, t4);
+        field.multiply(alpha, t4, y);
+        field.square(gamma, t5);
+        P256Field.add(t5, t5, t5);
+        P256Field.add(t5, t5, t5);
+        P256Field.add(t5, t5, t5);
+        P256Field.subtract(y, t5, y);
+    }
+
+    // madd-2007-bl, with the cases that the formulas do not cover (infinity, equal and opposite points).
+    void addAffine(int[] x, int[] y, int[] z, int[] x2, int[] y2) {
+        if (P256Field.isZero(z)) {
+            P256Field.copy(x2, x);
+            P256Field.copy(y2, y);
+            P256Field.set(z, 1);
+            return;
+        }
+
+        final int[] z1z1 = t0, h = t1, hh = t2, r = t3;
+        field.square(z, z1z1);
+        field.multiply(x2, z1z1, h);
+        P256Field.subtract(h, x, h); // H = U2 - X1
+        field.multiply(y2, z, r);
+        field.multiply(r, z1z1, r);
+        P256Field.subtract(r, y, r); // S2 - Y1
+
+        if (P256Field.isZero(h)) {
+            if (P256Field.isZero(r)) {
+                twice(x, y, z);
+            } else {
+                P256Field.set(z, 0);
+            }
+            return;
+        }
+
+        P256Field.add(r, r, r);
+        field.square(h, hh);
+
+        // Z3 = (Z1 + H)^2 - Z1Z1 - HH
+        P256Field.add(z, h, t4);
+        field.square(t4, z);
+        P256Field.subtract(z, z1z1, z);
+        P256Field.subtract(z, hh, z);
+
+        final int[] i = t0, j = t2, v = t4;
+        P256Field.add(hh, hh, i);
+        P256Field.add(i, i, i); // I = 4*HH
+        field.multiply(h, i, j); // J = H*I
+        field.multiply(x, i, v); // V = X1*I
+
+        // Y1*J is needed for Y3 before X1 and Y1 are overwritten.
+        field.multiply(y, j, t5);
+
+        // X3 = r^2 - J - 2*V
+        field.square(r, x);
+        P256Field.subtract(x, j, x);
+        P256Field.subtract(x, v, x);
+        P256Field.subtract(x, v, x);
+
+        // Y3 = r*(V - X3) - 2*Y1*J
+        P256Field.subtract(v, x, v);
+        field.multiply(r, v, y);
+        P256Field.subtract(y, t5, y);
+        P256Field.subtract(y, t5, y);
+    }
+}
@@ -0,0 +1,196 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic modulo the prime of the NIST P-256 curve, on field elements held as 8 little-endian
+ * 32-bit words. Products are reduced with the fast reduction for the special form of the prime
+ * (FIPS 186-4, D.2.3) instead of a division. Results are always fully reduced, so that elements can
+ * be compared word by word. An instance keeps the scratch space of the multiplications and must not
+ * be shared between threads.
+ */
+final class P256Field {
+    static final int WORDS = 8;
+
+    static final BigInteger P = new BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFF", 16);
+
+    private static final int[] P_WORDS = words(P);
+    private static final long M = 0xffffffffL;
+
+    private final long[] c = new long[2*WORDS];
+
+    static int[] words(BigInteger value) {
+        final int[] words = new int[WORDS];
+        for (int i=0 ; i<WORDS ; i++) {
+            words[i] = value.shiftRight(32*i).intValue();
+        }
+
+        return words;
+    }
+
+    static BigInteger toBigInteger(int[] a) {
+        final byte[] bytes = new byte[4*WORDS + 1];
+        for (int i=0 ; i<WORDS ; i++) {
+            final int word = a[WORDS - 1 - i];
+            bytes[1 + 4*i] = (byte)(word >>> 24);
+            bytes[2 + 4*i] = (byte)(word >>> 16);
+            bytes[3 + 4*i] = (byte)(word >>> 8);
+            bytes[4 + 4*i] = (byte)word;
+        }
+
+        return new BigInteger(bytes);
+    }
+
+    static boolean isZero(int[] a) {
+        int bits = 0;
+        for (int i=0 ; i<WORDS ; i++) {
+            bits |= a[i];
+        }
+
+        return (bits == 0);
+    }
+
+    static boolean equal(int[] a, int[] b) {
+        for (int i=0 ; i<WORDS ; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static void copy(int[] a, int[] r) {
+        System.arraycopy(a, 0, r, 0, WORDS);
+    }
+
+    static void set(int[] r, int value) {
+        r[0] = value;
+        for (int i=1 ; i<WORDS ; i++) {
+            r[i] = 0;
+        }
+    }
+
+    static void add(int[] a, int[] b, int[] r) {
+        long carry = 0;
+        for (int i=0 ; i<WORDS ; i++) {
+            final long v = (a[i] & M) + (b[i] & M) + carry;
+            r[i] = (int)v;
+            carry = v >>> 32;
+        }
+
+        if (carry != 0 || !lessThanP(r)) {
+            subtractP(r);
+        }
+    }
+
+    static void subtract(int[] a, int[] b, int[] r) {
+        long borrow = 0;
+        for (int i=0 ; i<WORDS ; i++) {
+            final long v = (a[i] & M) - (b[i] & M) + borrow;
+            r[i] = (int)v;
+            borrow = v >> 32;
+        }
+
+        if (borrow != 0) {
+            long carry = 0;
+            for (int i=0 ; i<WORDS ; i++) {
+                final long v = (r[i] & M) + (P_WORDS[i] & M) + carry;
+                r[i] = (int)v;
+                carry = v >>> 32;
+            }
+        }
+    }
+
+    void multiply(int[] a, int[] b, int[] r) {
+        for (int i=0 ; i<2*WORDS ; i++) {
+            c[i] = 0;
+        }
+
+        for (int i=0 ; i<WORDS ; i++) {
+            final long ai = a[i] & M;
+            long carry = 0;
+            for (int j=0 ; j<WORDS ; j++) {
+                final long v = ai*(b[j] & M) + c[i + j] + carry; // At most 2^64 - 1 as an unsigned value.
+                c[i + j] = v & M;
+                carry = v >>> 32;
+            }
+            c[i + WORDS] = carry;
+        }
+
+        reduce(r);
+    }
+
+    void square(int[] a, int[] r) {
+        multiply(a, a, r);
+    }
+
+    // The sum s1 + 2s2 + 2s3 + s4 + s5 - s6 - s7 - s8 - s9 of the fast reduction, word by word.
+    private void reduce(int[] r) {
+        final long c0 = c[0], c1 = c[1], c2 = c[2], c3 = c[3], c4 = c[4], c5 = c[5], c6 = c[6], c7 = c[7];
+        final long c8 = c[8], c9 = c[9], c10 = c[10], c11 = c[11], c12 = c[12], c13 = c[13], c14 = c[14], c15 = c[15];
+
+        c[0] = c0 + c8 + c9 - c11 - c12 - c13 - c14;
+        c[1] = c1 + c9 + c10 - c12 - c13 - c14 - c15;
+        c[2] = c2 + c10 + c11 - c13 - c14 - c15;
+        c[3] = c3 + 2*c11 + 2*c12 + c13 - c15 - c8 - c9;
+        c[4] = c4 + 2*c12 + 2*c13 + c14 - c9 - c10;
+        c[5] = c5 + 2*c13 + 2*c14 + c15 - c10 - c11;
+        c[6] = c6 + 3*c14 + 2*c15 + c13 - c8 - c9;
+        c[7] = c7 + 3*c15 + c8 - c10 - c11 - c12 - c13;
+
+        // Folds the carry out of the top word back in, as 2^256 = 2^224 - 2^192 - 2^96 + 1 (mod p).
+        while (true) {
+            long carry = 0;
+            for (int i=0 ; i<WORDS ; i++) {
+                final long v = c[i] + carry;
+                c[i] = v & M;
+                carry = v >> 32;
+            }
+
+            if (carry == 0) {
+                break;
+            }
+
+            c[0] += carry;
+            c[3] -= carry;
+            c[6] -= carry;
+            c[7] += carry;
+        }
+
+        for (int i=0 ; i<WORDS ; i++) {
+            r[i] = (int)c[i];
+        }
+
+        if (!lessThanP(r)) {
+            subtractP(r);
+        }
+    }
+
+    static void invert(int[] a, int[] r) {
+        final int[] inverse = words(toBigInteger(a).modInverse(P));
+        copy(inverse, r);
+    }
+
+    private static boolean lessThanP(int[] a) {
+        for (int i=WORDS - 1 ; i>=0 ; i--) {
+            final long ai = a[i] & M;
+            final long pi = P_WORDS[i] & M;
+            if (ai != pi) {
+                return (ai < pi);
+            }
+        }
+
+        return false;
+    }
+
+    private static void subtractP(int[] r) {
+        long borrow = 0;
+        for (int i=0 ; i<WORDS ; i++) {
+            final long v = (r[i] & M) - (P_WORDS[i] & M) + borrow;
+            r[i] = (int)v;
+            borrow = v >> 32;
+        }
+    }
+}
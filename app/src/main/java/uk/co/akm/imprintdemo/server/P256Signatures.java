@@ -0,0 +1,111 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.EllipticCurve;
+import java.util.Arrays;
+
+/**
+ * The parts of SHA256withECDSA verification on P-256 that do not depend on how u1*G + u2*Q is
+ * computed.
+ */
+final class P256Signatures {
+    private static final BigInteger R_LIMIT = P256Field.P.subtract(P256Curve.N); // x mod n = r also holds for x = r + n when r + n < p.
+
+    /**
+     * @return true if the input key is a P-256 key whose point is on the curve (and not the point at infinity)
+     */
+    static boolean isP256Key(PublicKey key) {
+        if (!(key instanceof ECPublicKey)) {
+            return false;
+        }
+
+        final ECParameterSpec parameters = ((ECPublicKey)key).getParams();
+        final EllipticCurve curve = parameters.getCurve();
+        if (!(P256Curve.N.equals(parameters.getOrder()) && curve.getField() instanceof ECFieldFp
+                && P256Field.P.equals(((ECFieldFp)curve.getField()).getP()) && P256Curve.B.equals(curve.getB())
+                && P256Curve.GX.equals(parameters.getGenerator().getAffineX()) && P256Curve.GY.equals(parameters.getGenerator().getAffineY()))) {
+            return false;
+        }
+
+        final ECPoint point = ((ECPublicKey)key).getW();
+        if (point == null || ECPoint.POINT_INFINITY.equals(point)) {
+            return false;
+        }
+
+        return P256Curve.isOnCurve(point.getAffineX(), point.getAffineY());
+    }
+
+    /**
+     * Decodes a minimally DER encoded SEQUENCE of the two INTEGERs r and s.
+     *
+     * @return r and s, or null if the encoding is not minimal or if r or s is not between 1 and n - 1
+     */
+    static BigInteger[] decode(byte[] der) {
+        if (der == null || der.length < 8 || der[0] != 0x30 || (der[1] & 0xff) != der.length - 2 || der[2] != 0x02) {
+            return null;
+        }
+
+        final int rLength = der[3] & 0xff;
+        final int sOffset = 4 + rLength;
+        if (sOffset + 2 > der.length || der[sOffset] != 0x02 || sOffset + 2 + (der[sOffset + 1] & 0xff) != der.length) {
+            return null;
+        }
+
+        final BigInteger r = decodeInteger(der, 4, rLength);
+        final BigInteger s = decodeInteger(der, sOffset + 2, der[sOffset + 1] & 0xff);
+        if (r == null || s == null || r.compareTo(P256Curve.N) >= 0 || s.compareTo(P256Curve.N) >= 0) {
+            return null;
+        }
+
+        return new BigInteger[] {r, s};
+    }
+
+    private static BigInteger decodeInteger(byte[] der, int offset, int length) {
+        if (length == 0 || length > P256Field.WORDS*4 + 1 || (der[offset] & 0x80) != 0) {
+            return null;
+        }
+
+        if (length > 1 && der[offset] == 0 && (der[offset + 1] & 0x80) == 0) {
+            return null;
+        }
+
+        final BigInteger value = new BigInteger(1, Arrays.copyOfRange(der, offset, offset + length));
+
+        return (value.signum() == 0 ? null : value);
+    }
+
+    /**
+     * Checks the Jacobian point (X, Y, Z) = u1*G + u2*Q against r. The affine x is X/Z^2, so it is
+     * compared as X against r*Z^2, without an inversion.
+     *
+     * @param zz scratch space
+     * @param product scratch space
+     */
+    static boolean matches(int[] x, int[] z, BigInteger r, P256Field field, int[] zz, int[] product) {
+        if (P256Field.isZero(z)) {
+            return false;
+        }
+
+        field.square(z, zz);
+        field.multiply(P256Field.words(r), zz, product);
+        if (P256Field.equal(product, x)) {
+            return true;
+        }
+
+        if (r.compareTo(R_LIMIT) < 0) {
+            field.multiply(P256Field.words(r.add(P256Curve.N)), zz, product);
+
+            return P256Field.equal(product, x);
+        }
+
+        return false;
+    }
+
+    private P256Signatures() {}
+}
@@ -0,0 +1,106 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.math.BigInteger;
+
+/**
+ * Fixed-base precomputation for one P-256 point Q: the affine points d*16^i*Q for every 4-bit window
+ * position i (0 to 63) and digit d (1 to 15). A scalar multiple k*Q is then the sum of one table
+ * point per non-zero 4-bit digit of k, i.e. at most 64 mixed additions and no doublings, where a
+ * generic multiplication needs about 256 doublings on top of its additions. A table takes 60 KiB.
+ */
+final class P256Table {
+    static final int WINDOW_BITS = 4;
+    static final int ROWS = 256/WINDOW_BITS;
+    static final int DIGITS = (1 << WINDOW_BITS) - 1;
+
+    private static final int POINT_WORDS = 2*P256Field.WORDS;
+
+    private final int[] points = new int[ROWS*DIGITS*POINT_WORDS];
+
+    /**
+     * @return the table of the curve generator G, which is built on first use
+     */
+    static P256Table generator() {
+        return GeneratorTable.TABLE;
+    }
+
+    /**
+     * Builds the table of the input affine point, which must be on the curve.
+     */
+    P256Table(BigInteger x, BigInteger y, P256Curve curve) {
+        final P256Field field = curve.field;
+        final int[][] xs = new int[DIGITS + 1][P256Field.WORDS];
+        final int[][] ys = new int[DIGITS + 1][P256Field.WORDS];
+        final int[][] zs = new int[DIGITS + 1][P256Field.WORDS];
+        final int[][] prefixes = new int[DIGITS + 1][P256Field.WORDS];
+        final int[] baseX = P256Field.words(x);
+        final int[] baseY = P256Field.words(y);
+        final int[] inverse = new int[P256Field.WORDS];
+        final int[] zInverse = new int[P256Field.WORDS];
+        final int[] zInverse2 = new int[P256Field.WORDS];
+
+        for (int row=0 ; row<ROWS ; row++) {
+            // The Jacobian multiples 1 to 16 of the row base 16^row*Q.
+            P256Field.copy(baseX, xs[0]);
+            P256Field.copy(baseY, ys[0]);
+            P256Field.set(zs[0], 1);
+            for (int d=1 ; d<=DIGITS ; d++) {
+                P256Field.copy(xs[d - 1], xs[d]);
+                P256Field.copy(ys[d - 1], ys[d]);
+                P256Field.copy(zs[d - 1], zs[d]);
+                curve.addAffine(xs[d], ys[d], zs[d], baseX, baseY);
+            }
+
+            // All 16 points are made affine with one inversion (Montgomery's trick).
+            P256Field.copy(zs[0], prefixes[0]);
+            for (int d=1 ; d<=DIGITS ; d++) {
+                field.multiply(prefixes[d - 1], zs[d], prefixes[d]);
+            }
+            P256Field.invert(prefixes[DIGITS], inverse);
+            for (int d=DIGITS ; d>=0 ; d--) {
+                if (d > 0) {
+                    field.multiply(inverse, prefixes[d - 1], zInverse);
+                    field.multiply(inverse, zs[d], inverse);
+                } else {
+                    P256Field.copy(inverse, zInverse);
+                }
+
+                field.square(zInverse, zInverse2);
+                field.multiply(xs[d], zInverse2, xs[d]);
+                field.multiply(zInverse2, zInverse, zInverse2);
+                field.multiply(ys[d], zInverse2, ys[d]);
+            }
+
+            for (int d=0 ; d<DIGITS ; d++) {
+                final int offset = (row*DIGITS + d)*POINT_WORDS;
+                System.arraycopy(xs[d], 0, points, offset, P256Field.WORDS);
+                System.arraycopy(ys[d], 0, points, offset + P256Field.WORDS, P256Field.WORDS);
+            }
+
+            P256Field.copy(xs[DIGITS], baseX);
+            P256Field.copy(ys[DIGITS], baseY);
+        }
+    }
+
+    /**
+     * Adds the table points of the 4-bit digits of the input scalar (8 little-endian 32-bit words)
+     * to the input Jacobian point.
+     */
+    void addMultiple(int[] scalar, int[] x, int[] y, int[] z, int[] pointX, int[] pointY, P256Curve curve) {
+        for (int row=0 ; row<ROWS ; row++) {
+            final int digit = (scalar[row >>> 3] >>> (WINDOW_BITS*(row & 7))) & DIGITS;
+            if (digit != 0) {
+                final int offset = (row*DIGITS + digit - 1)*POINT_WORDS;
+                System.arraycopy(points, offset, pointX, 0, P256Field.WORDS);
+                System.arraycopy(points, offset + P256Field.WORDS, pointY, 0, P256Field.WORDS);
+                curve.addAffine(x, y, z, pointX, pointY);
+            }
+        }
+    }
+
+    // Built on first use, as it takes as long as a few verifications.
+    private static final class GeneratorTable {
+        static final P256Table TABLE = new P256Table(P256Curve.GX, P256Curve.GY, new P256Curve());
+    }
+}
@@ -0,0 +1,127 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps a ring buffer of nonces that a background thread generates ahead of time, so that issuing
+ * a challenge does not have to wait for a SecureRandom. The ring is a bounded queue with a single
+ * producer (the refill thread) and lock-free consumers: every slot carries a sequence number that
+ * tells whether it holds a fresh nonce or can be refilled, and consumers claim slots by advancing
+ * the head with a compare-and-set. If the ring is ever drained, callers fall back to generating the
+ * nonce themselves on a per-core SecureRandom, which is also what they do once the source is closed.
+ */
+final class PooledNonceSource implements NonceSource {
+    private static final long IDLE_PARK_NANOS = 100000000L;
+
+    private final int length;
+    private final int mask;
+    private final byte[] slab;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final NonceSource fallback;
+    private final Thread refiller;
+
+    private volatile boolean closed;
+
+    PooledNonceSource(int length, int minCapacity) {
+        int capacity = 1;
+        while (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+
+        this.length = length;
+        this.mask = capacity - 1;
+        this.slab = new byte[capacity*length];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i=0 ; i<capacity ; i++) {
+            sequences.set(i, i);
+        }
+
+        this.fallback = new DirectNonceSource(length);
+        this.refiller = new Thread(new Refill(), "challenge-nonce-refill");
+        this.refiller.setDaemon(true);
+        this.refiller.start();
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void next(byte[] destination, int offset) {
+        if (!dequeue(destination, offset)) {
+            fallback.next(destination, offset);
+        }
+
+        if (!closed && tail.get() - head.get() <= mask/2) {
+            LockSupport.unpark(refiller); // Below the low watermark.
+        }
+    }
+
+    /**
+     * Stops the refill thread and waits for it to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refiller.interrupt();
+
+        boolean interrupted = false;
+        while (refiller.isAlive()) {
+            try {
+                refiller.join();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean dequeue(byte[] destination, int offset) {
+        long position = head.get();
+        while (true) {
+            final int slot = (int)position & mask;
+            final long available = sequences.get(slot) - (position + 1);
+            if (available == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    System.arraycopy(slab, slot*length, destination, offset, length);
+                    sequences.set(slot, position + mask + 1); // Hand the slot back to the refill thread.
+                    return true;
+                }
+                position = head.get();
+            } else if (available < 0) {
+                return false; // Empty.
+            } else {
+                position = head.get(); // Another consumer got this slot first.
+            }
+        }
+    }
+
+    private final class Refill implements Runnable {
+        private final DirectNonceSource random = new DirectNonceSource(length);
+
+        @Override
+        public void run() {
+            while (!closed) {
+                final long position = tail.get();
+                final int slot = (int)position & mask;
+                if (sequences.get(slot) == position) {
+                    random.next(slab, slot*length);
+                    sequences.set(slot, position + 1); // Publish the nonce.
+                    tail.set(position + 1);
+                } else {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS); // Full, wait until consumers drain it.
+                }
+            }
+        }
+    }
+}
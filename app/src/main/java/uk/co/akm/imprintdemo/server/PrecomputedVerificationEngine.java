@@ -0,0 +1,228 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECPoint;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+/**
+ * Verifies SHA256withECDSA signatures of hot P-256 keys as u1*G + u2*Q with a #P256Table for the
+ * generator G and one for each hot key Q. A key becomes hot after a number of verifications,
+ * counted in a bounded map of candidates, and the tables of the hot keys are kept in a bounded
+ * least-recently-used map. Everything else, including signatures that are not minimally DER
+ * encoded or whose values are out of range, goes to the fallback engine, so that the results can
+ * only differ from those of the fallback through a defect of the tables, which the cross-checks
+ * are there to catch.
+ *
+ * Both maps are concurrent, so verifications do not lock. The tables are evicted least recently
+ * used first, by a scan of their last use times when a new table is added, which is the only
+ * operation that locks. The candidates are evicted in no particular order.
+ */
+final class PrecomputedVerificationEngine implements VerificationEngine {
+    private static final int VALID = 1;
+    private static final int INVALID = 0;
+    private static final int UNSUPPORTED = -1;
+
+    private static final int CANDIDATES_PER_TABLE = 8;
+    private static final long USE_TIME_RESOLUTION_NANOS = 1000000L;
+
+    private final VerificationEngine fallback;
+    private final ConcurrentMap<ECPoint, HotTable> tables = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ECPoint, AtomicInteger> candidates = new ConcurrentHashMap<>();
+    private final int maxTables;
+    private final int maxCandidates;
+    private final int hotThreshold;
+    private final int crossCheckInterval;
+    private final AtomicLong tableVerifications = new AtomicLong();
+
+    private final ThreadLocal<Context> contexts = new ThreadLocal<>();
+
+    PrecomputedVerificationEngine(VerificationEngine fallback, int maxTables, int hotThreshold, int crossCheckInterval) {
+        this.fallback = fallback;
+        this.maxTables = maxTables;
+        this.maxCandidates = CANDIDATES_PER_TABLE*maxTables;
+        this.hotThreshold = hotThreshold;
+        this.crossCheckInterval = crossCheckInterval;
+    }
+
+    @Override
+    public boolean supports(String keyAlgorithm) {
+        return fallback.supports(keyAlgorithm);
+    }
+
+    @Override
+    public boolean verify(PublicKey key, byte[] message, byte[] signature) throws GeneralSecurityException {
+        if (!P256Signatures.isP256Key(key)) {
+            return fallback.verify(key, message, signature);
+        }
+
+        final ECPoint point = ((ECPublicKey)key).getW();
+        P256Table table = hotTable(point);
+        final boolean built = (table == null && becameHot(point));
+        if (built) {
+            table = new P256Table(point.getAffineX(), point.getAffineY(), context().curve);
+        }
+
+        if (table == null) {
+            return fallback.verify(key, message, signature);
+        }
+
+        final int result = verify(table, message, signature);
+        if (result == UNSUPPORTED) {
+            return fallback.verify(key, message, signature);
+        }
+
+        if (built || (crossCheckInterval > 0 && tableVerifications.incrementAndGet() % crossCheckInterval == 0)) {
+            final boolean expected = fallback.verify(key, message, signature);
+            if (expected != (result == VALID)) {
+                Metrics.count(Outcome.VERIFICATION_TABLE_MISMATCH);
+                drop(point);
+
+                return expected;
+            }
+        }
+
+        if (built) {
+            Metrics.count(Outcome.VERIFICATION_TABLE_BUILT);
+            keep(point, table);
+        }
+
+        return (result == VALID);
+    }
+
+    private P256Table hotTable(ECPoint point) {
+        final HotTable hotTable = tables.get(point);
+        if (hotTable == null) {
+            return null;
+        }
+
+        hotTable.used(System.nanoTime());
+
+        return hotTable.table;
+    }
+
+    // Counts a verification with a key without a table and returns true when the key becomes hot,
+    // for only one of the threads that verify with the key at the time.
+    private boolean becameHot(ECPoint point) {
+        AtomicInteger uses = candidates.get(point);
+        if (uses == null) {
+            if (candidates.size() >= maxCandidates) {
+                evictCandidate();
+            }
+
+            final AtomicInteger firstUse = new AtomicInteger();
+            uses = candidates.putIfAbsent(point, firstUse);
+            if (uses == null) {
+                uses = firstUse;
+            }
+        }
+
+        return (uses.incrementAndGet() >= hotThreshold && candidates.remove(point, uses));
+    }
+
+    private void evictCandidate() {
+        final Iterator<AtomicInteger> iterator = candidates.values().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private synchronized void keep(ECPoint point, P256Table table) {
+        tables.put(point, new HotTable(table, System.nanoTime()));
+        while (tables.size() > maxTables) {
+            evictLeastRecentlyUsedTable();
+        }
+    }
+
+    // Guarded by this, with at most maxTables + 1 tables to scan.
+    private void evictLeastRecentlyUsedTable() {
+        Map.Entry<ECPoint, HotTable> eldest = null;
+        for (Map.Entry<ECPoint, HotTable> entry : tables.entrySet()) {
+            if (eldest == null || entry.getValue().lastUse - eldest.getValue().lastUse < 0) {
+                eldest = entry;
+            }
+        }
+
+        tables.remove(eldest.getKey(), eldest.getValue());
+    }
+
+    private void drop(ECPoint point) {
+        tables.remove(point);
+    }
+
+    private int verify(P256Table table, byte[] message, byte[] signature) throws GeneralSecurityException {
+        final BigInteger[] rs = P256Signatures.decode(signature);
+        if (rs == null) {
+            return UNSUPPORTED;
+        }
+
+        final Context context = context();
+        final BigInteger e = new BigInteger(1, context.digest.digest(message));
+        final BigInteger w = rs[1].modInverse(P256Curve.N);
+        final int[] u1 = P256Field.words(e.multiply(w).mod(P256Curve.N));
+        final int[] u2 = P256Field.words(rs[0].multiply(w).mod(P256Curve.N));
+
+        P256Field.set(context.z, 0);
+        P256Table.generator().addMultiple(u1, context.x, context.y, context.z, context.pointX, context.pointY, context.curve);
+        table.addMultiple(u2, context.x, context.y, context.z, context.pointX, context.pointY, context.curve);
+
+        return (P256Signatures.matches(context.x, context.z, rs[0], context.curve.field, context.zz, context.pointX) ? VALID : INVALID);
+    }
+
+    private Context context() throws GeneralSecurityException {
+        Context context = contexts.get();
+        if (context == null) {
+            context = new Context();
+            contexts.set(context);
+        }
+
+        return context;
+    }
+
+    // A table and the time it was last used, which is only updated once per resolution period, so
+    // that the threads verifying with a hot key do not all write to it every time.
+    private static final class HotTable {
+        final P256Table table;
+        volatile long lastUse;
+
+        HotTable(P256Table table, long now) {
+            this.table = table;
+            this.lastUse = now;
+        }
+
+        void used(long now) {
+            if (now - lastUse > USE_TIME_RESOLUTION_NANOS) {
+                lastUse = now;
+            }
+        }
+    }
+
+    // The per-thread digest, curve arithmetic and coordinates of a verification.
+    private static final class Context {
+        final MessageDigest digest;
+        final P256Curve curve = new P256Curve();
+        final int[] x = new int[P256Field.WORDS];
+        final int[] y = new int[P256Field.WORDS];
+        final int[] z = new int[P256Field.WORDS];
+        final int[] zz = new int[P256Field.WORDS];
+        final int[] pointX = new int[P256Field.WORDS];
+        final int[] pointY = new int[P256Field.WORDS];
+
+        Context() throws GeneralSecurityException {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+    }
+}
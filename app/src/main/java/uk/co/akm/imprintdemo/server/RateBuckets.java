@@ -0,0 +1,70 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of lock-free token buckets, implemented with the generic cell rate algorithm: each
+ * bucket is the single "theoretical arrival time" of its next request, and a request is admitted
+ * (and the time pushed forward by one emission interval) if that time is not further ahead of the
+ * clock than the burst allows. Admitting a request is a single compare-and-set.
+ */
+final class RateBuckets {
+    private final long start = System.nanoTime();
+    private final AtomicLongArray arrivalTimes;
+    private final int mask;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+
+    RateBuckets(int buckets, double ratePerSecond, int burst) {
+        if (buckets <= 0 || Integer.bitCount(buckets) != 1) {
+            throw new IllegalArgumentException("The number of buckets must be a positive power of two: " + buckets);
+        }
+
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Non-positive rate: " + ratePerSecond);
+        }
+
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Non-positive burst: " + burst);
+        }
+
+        this.arrivalTimes = new AtomicLongArray(buckets);
+        this.mask = buckets - 1;
+        this.emissionIntervalNanos = Math.max(1, (long)(1e9/ratePerSecond));
+        this.burstToleranceNanos = emissionIntervalNanos*(burst - 1);
+    }
+
+    int bucket(long hash) {
+        long h = hash;
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+
+        return (int)h & mask;
+    }
+
+    boolean tryAcquire(int bucket) {
+        final long now = now();
+        while (true) {
+            final long arrivalTime = arrivalTimes.get(bucket);
+            if (arrivalTime - burstToleranceNanos > now) {
+                return false;
+            }
+
+            if (arrivalTimes.compareAndSet(bucket, arrivalTime, Math.max(arrivalTime, now) + emissionIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    // Gives back a token taken with tryAcquire, e.g. for a request that was turned away after all.
+    void release(int bucket) {
+        arrivalTimes.addAndGet(bucket, -emissionIntervalNanos);
+    }
+
+    // Nanoseconds since this instance was created, so that all arrival times start in the past.
+    long now() {
+        return System.nanoTime() - start;
+    }
+}
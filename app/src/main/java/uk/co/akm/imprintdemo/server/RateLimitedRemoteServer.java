@@ -0,0 +1,186 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Admission control in front of another server, so that floods of challenge requests or bogus
+ * signatures cannot use up its CPU. Every challenge and authentication request must get a token from
+ * the bucket of its user and from a global bucket, and a user that fails to authenticate is
+ * blocked for a period that doubles with every consecutive failure. Rejected requests never reach
+ * the other server, so they cost no cryptography.
+ *
+ * The per-user state is a fixed table indexed by username hash, so that its size does not depend on
+ * the number of (possibly made up) usernames. Users whose hashes collide share their state.
+ */
+public final class RateLimitedRemoteServer implements RemoteServer {
+    public static final int DEFAULT_USER_SLOTS = 1 << 16;
+    public static final double DEFAULT_USER_RATE_PER_SECOND = 1;
+    public static final int DEFAULT_USER_BURST = 6;
+    public static final int DEFAULT_GLOBAL_RATE_PER_SECOND_PER_CORE = 2000;
+    public static final long DEFAULT_MIN_BACKOFF_MILLIS = 500;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60000;
+
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private final RemoteServer server;
+    private final RateBuckets userBuckets;
+    private final RateBuckets globalBucket;
+    private final AtomicIntegerArray failures;
+    private final AtomicLongArray blockedUntil;
+    private final long minBackoffNanos;
+    private final long maxBackoffNanos;
+
+    public RateLimitedRemoteServer(RemoteServer server) {
+        this(server, DEFAULT_USER_SLOTS, DEFAULT_USER_RATE_PER_SECOND, DEFAULT_USER_BURST,
+                DEFAULT_GLOBAL_RATE_PER_SECOND_PER_CORE*Runtime.getRuntime().availableProcessors(), DEFAULT_GLOBAL_RATE_PER_SECOND_PER_CORE*Runtime.getRuntime().availableProcessors(),
+                DEFAULT_MIN_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param server the server to protect
+     * @param userSlots the number of per-user states (a power of two)
+     * @param userRatePerSecond the sustained rate of requests allowed for each user
+     * @param userBurst the number of requests a user can make at once
+     * @param globalRatePerSecond the sustained rate of requests allowed for all users together
+     * @param globalBurst the number of requests all users together can make at once
+     * @param minBackoffMillis the time a user is blocked for after a failed authentication
+     * @param maxBackoffMillis the longest time a user can be blocked for
+     */
+    public RateLimitedRemoteServer(RemoteServer server, int userSlots, double userRatePerSecond, int userBurst, double globalRatePerSecond, int globalBurst, long minBackoffMillis, long maxBackoffMillis) {
+        if (server == null) {
+            throw new IllegalArgumentException("Missing server.");
+        }
+
+        if (minBackoffMillis < 0 || maxBackoffMillis < minBackoffMillis) {
+            throw new IllegalArgumentException("Invalid back-off range: " + minBackoffMillis + " to " + maxBackoffMillis + " ms");
+        }
+
+        this.server = server;
+        this.userBuckets = new RateBuckets(userSlots, userRatePerSecond, userBurst);
+        this.globalBucket = new RateBuckets(1, globalRatePerSecond, globalBurst);
+        this.failures = new AtomicIntegerArray(userSlots);
+        this.blockedUntil = new AtomicLongArray(userSlots);
+        this.minBackoffNanos = minBackoffMillis*1000000;
+        this.maxBackoffNanos = maxBackoffMillis*1000000;
+    }
+
+    @Override
+    public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+        server.registerPublicKey(username, publicKeyData);
+    }
+
+    @Override
+    public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+        server.registerPublicKey(username, publicKey);
+    }
+
+    @Override
+    public byte[] getAuthenticationMessageToSign(String username) {
+        if (username != null && !admit(slot(username))) {
+            throw new ServerException("Too many authentication attempts for user '" + username + "'. Please try again later.");
+        }
+
+        return server.getAuthenticationMessageToSign(username);
+    }
+
+    @Override
+    public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+        if (username == null) {
+            return server.authenticate(username, message, signature);
+        }
+
+        final int slot = slot(username);
+        if (!admit(slot)) {
+            throw new ServerException("Too many authentication attempts for user '" + username + "'. Please try again later.");
+        }
+
+        boolean authenticated = false;
+        try {
+            authenticated = server.authenticate(username, message, signature);
+        } finally {
+            recordOutcome(slot, authenticated);
+        }
+
+        return authenticated;
+    }
+
+    @Override
+    public boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException {
+        if (requests == null) {
+            throw new ServerException("Missing authentication requests.");
+        }
+
+        final boolean[] results = new boolean[requests.size()];
+        final int[] admitted = new int[requests.size()];
+        final List<AuthRequest> admittedRequests = new ArrayList<>(requests.size());
+        for (int i=0 ; i<requests.size() ; i++) {
+            final AuthRequest request = requests.get(i);
+            if (request == null) {
+                continue; // Fails, like it would on the other server.
+            }
+
+            if (request.username == null || admit(slot(request.username))) {
+                admitted[admittedRequests.size()] = i;
+                admittedRequests.add(request);
+            }
+        }
+
+        if (admittedRequests.isEmpty()) {
+            return results;
+        }
+
+        final boolean[] admittedResults = server.authenticateAll(admittedRequests);
+        for (int i=0 ; i<admittedResults.length ; i++) {
+            final AuthRequest request = admittedRequests.get(i);
+            results[admitted[i]] = admittedResults[i];
+            if (request.username != null) {
+                recordOutcome(slot(request.username), admittedResults[i]);
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private int slot(String username) {
+        return userBuckets.bucket(UsernameHash.of(username));
+    }
+
+    // Blocked users are turned away before they use up any tokens, and users turned away by the
+    // global bucket get their token back.
+    private boolean admit(int slot) {
+        if (userBuckets.now() < blockedUntil.get(slot) || !userBuckets.tryAcquire(slot)) {
+            return false;
+        }
+
+        if (!globalBucket.tryAcquire(0)) {
+            userBuckets.release(slot);
+            return false;
+        }
+
+        return true;
+    }
+
+    private void recordOutcome(int slot, boolean authenticated) {
+        if (authenticated) {
+            if (failures.get(slot) != 0) {
+                failures.set(slot, 0);
+                blockedUntil.set(slot, 0);
+            }
+        } else {
+            final int consecutiveFailures = failures.incrementAndGet(slot);
+            final long backoff = Math.min(maxBackoffNanos, minBackoffNanos << Math.min(Math.max(consecutiveFailures - 1, 0), MAX_BACKOFF_SHIFT));
+            blockedUntil.set(slot, userBuckets.now() + (backoff < 0 ? maxBackoffNanos : backoff));
+        }
+    }
+}
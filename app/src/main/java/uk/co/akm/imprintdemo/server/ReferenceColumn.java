@@ -0,0 +1,56 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A growable array of atomic references, indexed by user id. Like #LongColumn it grows by adding
+ * fixed size chunks, but every element supports compare-and-set.
+ */
+final class ReferenceColumn<T> {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private volatile AtomicReferenceArray<T>[] chunks = newChunks(0);
+
+    @SuppressWarnings("unchecked")
+    private static <T> AtomicReferenceArray<T>[] newChunks(int length) {
+        return new AtomicReferenceArray[length];
+    }
+
+    T get(int index) {
+        final AtomicReferenceArray<T>[] current = chunks;
+        final int chunk = index >>> CHUNK_SHIFT;
+
+        return (chunk < current.length ? current[chunk].get(index & CHUNK_MASK) : null);
+    }
+
+    T getAndSet(int index, T value) {
+        return chunk(index).getAndSet(index & CHUNK_MASK, value);
+    }
+
+    boolean compareAndSet(int index, T expected, T value) {
+        return chunk(index).compareAndSet(index & CHUNK_MASK, expected, value);
+    }
+
+    private AtomicReferenceArray<T> chunk(int index) {
+        final int chunk = index >>> CHUNK_SHIFT;
+        AtomicReferenceArray<T>[] current = chunks;
+        if (chunk >= current.length) {
+            synchronized (this) {
+                current = chunks;
+                if (chunk >= current.length) {
+                    final AtomicReferenceArray<T>[] grown = Arrays.copyOf(current, chunk + 1);
+                    for (int i=current.length ; i<grown.length ; i++) {
+                        grown[i] = new AtomicReferenceArray<>(CHUNK_MASK + 1);
+                    }
+                    chunks = grown;
+                    current = grown;
+                }
+            }
+        }
+
+        return current[chunk];
+    }
+}
@@ -0,0 +1,18 @@
+package uk.co.akm.imprintdemo.server;
+
+/**
+ * A registration as shipped from a #ReplicationLeader to its followers. The sequence number of a
+ * change is the id that the leader registry gave to the user, so changes are numbered 0, 1, 2, ...
+ * in the order they were made, and the public key is in its compact binary encoding.
+ */
+public final class RegistrationChange {
+    public final long sequence;
+    public final String username;
+    public final byte[] encodedKey;
+
+    public RegistrationChange(long sequence, String username, byte[] encodedKey) {
+        this.sequence = sequence;
+        this.username = username;
+        this.encodedKey = encodedKey;
+    }
+}
@@ -1,11 +1,35 @@
 package uk.co.akm.imprintdemo.server;
 
 
-public interface RemoteServer {
+import java.io.Closeable;
+import java.security.PublicKey;
+import java.util.List;
+
+/**
+ * The server side of the remote authentication. Closing a server releases its threads and closes
+ * the registry and challenge store it serves from, or the server it stands in front of.
+ */
+public interface RemoteServer extends Closeable {
 
     void registerPublicKey(String username, String publicKeyData) throws ServerException;
 
+    /**
+     * Registers an already decoded public key, so that callers holding the key object (or its
+     * binary encoding) need not go through its string serialization.
+     */
+    void registerPublicKey(String username, PublicKey publicKey) throws ServerException;
+
     byte[] getAuthenticationMessageToSign(String username);
 
     boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException;
+
+    /**
+     * Authenticates all the input requests in one call. The result at index i is the outcome of
+     * the request at index i. A request that would make #authenticate(String, byte[], byte[]) throw
+     * a #ServerException is reported as failed, so that one bad request does not fail the whole batch.
+     *
+     * @param requests the authentication requests
+     * @return the authentication outcome of each request, in the order of the input requests
+     */
+    boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException;
 }
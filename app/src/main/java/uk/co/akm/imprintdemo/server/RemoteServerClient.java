@@ -0,0 +1,11 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.Closeable;
+
+/**
+ * A #RemoteServer that forwards its calls to a #RemoteServerHost. It is thread-safe and the calls
+ * of different threads are pipelined on the same connection.
+ */
+public interface RemoteServerClient extends RemoteServer, Closeable {
+}
@@ -0,0 +1,13 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+
+/**
+ * Makes a #RemoteServer reachable over the network, until it is closed.
+ */
+public interface RemoteServerHost extends Closeable {
+
+    InetSocketAddress address();
+}
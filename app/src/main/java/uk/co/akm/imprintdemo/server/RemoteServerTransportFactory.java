@@ -0,0 +1,52 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+public final class RemoteServerTransportFactory {
+    public static final long DEFAULT_CALL_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Hosts the input server at the input address (use port 0 for any free port). Requests are
+     * read by a single selector thread and run on a pool with one thread per core.
+     */
+    public static RemoteServerHost hostInstance(RemoteServer server, InetSocketAddress address) throws ServerException {
+        return hostInstance(server, address, null);
+    }
+
+    /**
+     * Hosts the input server at the input address, running its requests on the input executor.
+     * The executor is not shut down when the host is closed.
+     */
+    public static RemoteServerHost hostInstance(RemoteServer server, InetSocketAddress address, Executor workers) throws ServerException {
+        if (server == null) {
+            throw new IllegalArgumentException("Missing server.");
+        }
+
+        try {
+            return new NioRemoteServerHost(server, address, workers);
+        } catch (IOException ioe) {
+            throw new ServerException("Could not host the server at " + address + ".", ioe);
+        }
+    }
+
+    public static RemoteServerClient clientInstance(InetSocketAddress address) throws ServerException {
+        return clientInstance(address, DEFAULT_CALL_TIMEOUT_MILLIS);
+    }
+
+    public static RemoteServerClient clientInstance(InetSocketAddress address, long callTimeoutMillis) throws ServerException {
+        if (callTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive call timeout: " + callTimeoutMillis);
+        }
+
+        try {
+            return new SocketRemoteServerClient(address, callTimeoutMillis);
+        } catch (IOException ioe) {
+            throw new ServerException("Could not connect to the server at " + address + ".", ioe);
+        }
+    }
+
+    private RemoteServerTransportFactory() {}
+}
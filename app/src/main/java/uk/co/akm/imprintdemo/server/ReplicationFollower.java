@@ -0,0 +1,195 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.List;
+
+import uk.co.akm.imprintdemo.key.KeyCodec;
+import uk.co.akm.imprintdemo.key.KeySerializationException;
+import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+
+/**
+ * A read replica of a #ReplicationLeader. A background thread streams the leader change log into a
+ * local registry (catching up from snapshots when it is further behind than the log reaches), and
+ * challenges and authentications are served from that local copy, with a local challenge store.
+ * A challenge must therefore be answered to the node that issued it, unless all nodes share a
+ * stateless challenge store secret. Registrations are forwarded to the leader.
+ *
+ * The local registry receives the users in the leader order, so user ids are the same on all nodes.
+ * A challenge request for a user unknown here catches up with the leader, in case the user has just
+ * registered with another node, but at most once per catch-up interval: the requests that miss
+ * meanwhile wait for the catch-up in progress, if any, and are then answered from the local copy.
+ */
+public final class ReplicationFollower implements RemoteServer {
+    private static final int BATCH_SIZE = 1024;
+    private static final long POLL_MILLIS = 1000;
+    private static final long RETRY_MILLIS = 1000;
+    private static final long UNKNOWN_USER_CATCH_UP_NANOS = 100000000L;
+
+    private final KeyCodec keyCodec = KeySerializerFactory.compactCodecInstance();
+    private final ReplicationSource source;
+    private final RemoteServer leader;
+    private final UserRegistry users;
+    private final RemoteServer server;
+    private final Thread replicator;
+    private final Object unknownUserLock = new Object();
+
+    private long lastUnknownUserCatchUp = System.nanoTime() - UNKNOWN_USER_CATCH_UP_NANOS; // Guarded by the unknown user lock.
+    private volatile boolean closed;
+
+    public ReplicationFollower(ReplicationLeader leader) {
+        this(leader, leader, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance());
+    }
+
+    /**
+     * @param source the change log to follow
+     * @param leader the server that registrations are forwarded to
+     * @param users the local registry, which must be empty or a previous copy of the leader registry
+     * @param challengeStore the local challenge store
+     */
+    public ReplicationFollower(ReplicationSource source, RemoteServer leader, UserRegistry users, ChallengeStore challengeStore) {
+        this.source = source;
+        this.leader = leader;
+        this.users = users;
+        this.server = new InMemoryRemoteServer(users, challengeStore);
+
+        this.replicator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replicate();
+            }
+        }, "registry-replicator");
+        replicator.setDaemon(true);
+        replicator.start();
+    }
+
+    /**
+     * @return the number of leader registrations applied locally so far
+     */
+    public long sequence() throws ServerException {
+        return users.size();
+    }
+
+    /**
+     * Applies all the registrations that the leader has made so far.
+     */
+    public void catchUp() throws ServerException {
+        final long target = source.sequence();
+        while (sequence() < target) {
+            pull(0);
+        }
+    }
+
+    /**
+     * Stops the replication and closes the local registry and challenge store. The leader is not
+     * closed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        replicator.interrupt();
+        try {
+            replicator.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        server.close();
+    }
+
+    private void replicate() {
+        while (!closed) {
+            try {
+                pull(POLL_MILLIS);
+            } catch (ServerException se) {
+                if (closed) {
+                    return;
+                }
+
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Both the replicator and the callers of catchUp() pull, so applying is serialized.
+    private void pull(long waitMillis) throws ServerException {
+        final List<RegistrationChange> changes = source.changesSince(sequence(), BATCH_SIZE, waitMillis);
+        synchronized (this) {
+            apply(changes == null ? source.snapshot(sequence(), BATCH_SIZE) : changes);
+        }
+    }
+
+    private void apply(List<RegistrationChange> changes) throws ServerException {
+        for (RegistrationChange change : changes) {
+            final long next = users.size();
+            if (change.sequence < next) {
+                continue; // Applied by a concurrent pull.
+            }
+
+            if (change.sequence > next) {
+                throw new ServerException("Missing registrations " + next + " to " + (change.sequence - 1) + ".");
+            }
+
+            final PublicKey publicKey;
+            try {
+                publicKey = keyCodec.decode(change.encodedKey, 0, change.encodedKey.length);
+            } catch (KeySerializationException kse) {
+                throw new ServerException("Replicated public key decoding error.", kse);
+            }
+            if (!users.register(change.username, publicKey)) {
+                throw new ServerException("Replicated user '" + change.username + "' is already registered.");
+            }
+        }
+    }
+
+    @Override
+    public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+        leader.registerPublicKey(username, publicKeyData);
+        catchUp();
+    }
+
+    @Override
+    public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+        leader.registerPublicKey(username, publicKey);
+        catchUp();
+    }
+
+    // A user unknown here may have registered with the leader after the last pull.
+    @Override
+    public byte[] getAuthenticationMessageToSign(String username) {
+        if (username != null && users.find(username) == UserRegistry.NOT_REGISTERED) {
+            catchUpForUnknownUser();
+        }
+
+        return server.getAuthenticationMessageToSign(username);
+    }
+
+    private void catchUpForUnknownUser() throws ServerException {
+        synchronized (unknownUserLock) {
+            if (System.nanoTime() - lastUnknownUserCatchUp < UNKNOWN_USER_CATCH_UP_NANOS) {
+                return;
+            }
+
+            try {
+                catchUp();
+            } finally {
+                lastUnknownUserCatchUp = System.nanoTime();
+            }
+        }
+    }
+
+    @Override
+    public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+        return server.authenticate(username, message, signature);
+    }
+
+    @Override
+    public boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException {
+        return server.authenticateAll(requests);
+    }
+}
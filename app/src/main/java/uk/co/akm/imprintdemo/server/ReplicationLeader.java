@@ -0,0 +1,113 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.co.akm.imprintdemo.key.KeyCodec;
+import uk.co.akm.imprintdemo.key.KeySerializationException;
+import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+
+/**
+ * The node that takes all registrations. Each registration is applied to the leader registry and
+ * appended to an ordered change log that #ReplicationFollower instances stream from. Registrations
+ * are serialized, so that the ids the registry hands out, which are the change sequence numbers,
+ * follow the order of the log. The leader also serves challenges and authentications itself.
+ */
+public final class ReplicationLeader implements RemoteServer, ReplicationSource {
+    public static final int DEFAULT_LOG_CAPACITY = 1 << 16;
+
+    private final KeyCodec keyCodec = KeySerializerFactory.compactCodecInstance();
+    private final Object registrationLock = new Object();
+    private final UserRegistry users;
+    private final RemoteServer server;
+    private final ReplicationLog log;
+
+    public ReplicationLeader() {
+        this(UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance(), DEFAULT_LOG_CAPACITY);
+    }
+
+    public ReplicationLeader(UserRegistry users, ChallengeStore challengeStore, int logCapacity) throws ServerException {
+        this.users = users;
+        this.server = new InMemoryRemoteServer(users, challengeStore);
+        this.log = new ReplicationLog(logCapacity, users.size()); // The users already in the registry are served to followers through snapshots.
+    }
+
+    @Override
+    public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+        synchronized (registrationLock) {
+            server.registerPublicKey(username, publicKeyData);
+            logRegistration(username);
+        }
+    }
+
+    @Override
+    public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+        synchronized (registrationLock) {
+            server.registerPublicKey(username, publicKey);
+            logRegistration(username);
+        }
+    }
+
+    private void logRegistration(String username) throws ServerException {
+        final int userId = users.find(username);
+        log.append(new RegistrationChange(userId, username, encode(users.publicKey(userId))));
+    }
+
+    private byte[] encode(PublicKey publicKey) throws ServerException {
+        try {
+            return keyCodec.encode(publicKey);
+        } catch (KeySerializationException kse) {
+            throw new ServerException("Public key serialization error.", kse);
+        }
+    }
+
+    @Override
+    public byte[] getAuthenticationMessageToSign(String username) {
+        return server.getAuthenticationMessageToSign(username);
+    }
+
+    @Override
+    public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+        return server.authenticate(username, message, signature);
+    }
+
+    @Override
+    public boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException {
+        return server.authenticateAll(requests);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    @Override
+    public long sequence() {
+        return log.next();
+    }
+
+    @Override
+    public List<RegistrationChange> changesSince(long sequence, int maxChanges, long waitMillis) throws ServerException {
+        try {
+            return log.since(sequence, maxChanges, waitMillis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while waiting for registrations.", ie);
+        }
+    }
+
+    @Override
+    public List<RegistrationChange> snapshot(long sequence, int maxChanges) throws ServerException {
+        final long end = Math.min(log.next(), sequence + maxChanges);
+        final List<RegistrationChange> changes = new ArrayList<>((int)Math.max(0, end - sequence));
+        for (long s=sequence ; s<end ; s++) {
+            final int userId = (int)s;
+            changes.add(new RegistrationChange(s, users.username(userId), encode(users.publicKey(userId))));
+        }
+
+        return changes;
+    }
+}
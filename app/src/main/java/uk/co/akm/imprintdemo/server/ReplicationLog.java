@@ -0,0 +1,71 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The most recent registrations of a leader, in a ring of fixed capacity. Readers that are further
+ * behind than the ring reaches, or than the first sequence number of the log, have to catch up from
+ * a snapshot.
+ */
+final class ReplicationLog {
+    private final RegistrationChange[] changes;
+    private final long first;
+
+    private long next; // Guarded by this.
+
+    /**
+     * @param capacity the number of most recent registrations kept
+     * @param first the sequence number of the first registration to be appended
+     */
+    ReplicationLog(int capacity, long first) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Non-positive replication log capacity: " + capacity);
+        }
+
+        this.changes = new RegistrationChange[capacity];
+        this.first = first;
+        this.next = first;
+    }
+
+    synchronized void append(RegistrationChange change) {
+        if (change.sequence != next) {
+            throw new IllegalStateException("Out of order registration " + change.sequence + "; expected " + next + ".");
+        }
+
+        changes[(int)(next % changes.length)] = change;
+        next++;
+        notifyAll();
+    }
+
+    synchronized long next() {
+        return next;
+    }
+
+    synchronized List<RegistrationChange> since(long sequence, int maxChanges, long waitMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + waitMillis;
+        long remaining = waitMillis;
+        while (sequence >= next && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        if (sequence < first || sequence < next - changes.length) {
+            return null;
+        }
+
+        if (sequence >= next) {
+            return Collections.emptyList();
+        }
+
+        final int count = (int)Math.min(maxChanges, next - sequence);
+        final List<RegistrationChange> since = new ArrayList<>(count);
+        for (long s=sequence ; s<sequence + count ; s++) {
+            since.add(changes[(int)(s % changes.length)]);
+        }
+
+        return since;
+    }
+}
@@ -0,0 +1,37 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.List;
+
+/**
+ * The side of a #ReplicationLeader that its followers read from.
+ */
+public interface ReplicationSource {
+
+    /**
+     * @return the number of registrations made so far, i.e. the sequence number of the next one
+     */
+    long sequence() throws ServerException;
+
+    /**
+     * Returns the registrations from the input sequence number on, waiting up to the input time for
+     * one to be made if there are none yet. Returns null if the registration with the input sequence
+     * number is no longer in the change log, in which case the follower has to catch up with
+     * #snapshot(long, int).
+     *
+     * @param sequence the sequence number of the first registration to return
+     * @param maxChanges the maximum number of registrations to return
+     * @param waitMillis the maximum time to wait for a registration, if there are none yet
+     * @return the registrations from the input sequence number on (possibly none) or null
+     */
+    List<RegistrationChange> changesSince(long sequence, int maxChanges, long waitMillis) throws ServerException;
+
+    /**
+     * Reads the registrations from the input sequence number on from the leader registry itself.
+     *
+     * @param sequence the sequence number of the first registration to return
+     * @param maxChanges the maximum number of registrations to return
+     * @return the registrations from the input sequence number on (possibly none)
+     */
+    List<RegistrationChange> snapshot(long sequence, int maxChanges) throws ServerException;
+}
@@ -0,0 +1,11 @@
+package uk.co.akm.imprintdemo.server;
+
+/**
+ * Receives the outcome of an #AsyncRemoteServer call.
+ */
+public interface ServerCallback<T> {
+
+    void onSuccess(T result);
+
+    void onFailure(ServerException error);
+}
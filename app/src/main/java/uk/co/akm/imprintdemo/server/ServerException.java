@@ -5,4 +5,8 @@ public class ServerException extends RuntimeException {
     ServerException(String message) {
         super(message);
     }
+
+    ServerException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
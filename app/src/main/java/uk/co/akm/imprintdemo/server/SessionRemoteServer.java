@@ -0,0 +1,215 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.Operation;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+/**
+ * Issues short-lived session tokens in front of another server, so that a user who has just proved
+ * their identity with a signed challenge can make further requests checked with one MAC instead of
+ * one signature verification. A token is laid out as
+ *
+ * [version (1 byte)][expiry time in epoch millis (8 bytes)][generation (4 bytes)][HMAC-SHA256 tag truncated to 16 bytes]
+ *
+ * where the tag is computed, under the server secret, over everything before it followed by the
+ * UTF-8 bytes of the username. Revoking the sessions of a user increments the generation of the user,
+ * which invalidates every token issued before. The generations are a fixed table indexed by username
+ * hash, so users whose hashes collide are revoked together, and they are not persisted, so a
+ * restarted server accepts revoked tokens until they expire. The time-to-live should be kept short.
+ */
+public final class SessionRemoteServer implements RemoteServer {
+    public static final long DEFAULT_TTL_MILLIS = 15*60000;
+    public static final int DEFAULT_GENERATION_SLOTS = 1 << 16;
+
+    private static final byte VERSION = 1;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int HEADER_LENGTH = 13;
+    private static final int TAG_LENGTH = 16;
+    private static final int TOKEN_LENGTH = HEADER_LENGTH + TAG_LENGTH;
+
+    private final RemoteServer server;
+    private final SecretKeySpec secret;
+    private final long ttlMillis;
+    private final AtomicIntegerArray generations;
+    private final int mask;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<>();
+
+    public SessionRemoteServer(RemoteServer server, byte[] secret) {
+        this(server, secret, DEFAULT_TTL_MILLIS, DEFAULT_GENERATION_SLOTS);
+    }
+
+    /**
+     * @param server the server that checks the signed challenges
+     * @param secret the token secret, which must be at least 32 bytes long
+     * @param ttlMillis the session time-to-live in milliseconds
+     * @param generationSlots the number of per-user generations (a power of two)
+     */
+    public SessionRemoteServer(RemoteServer server, byte[] secret, long ttlMillis, int generationSlots) {
+        if (server == null) {
+            throw new IllegalArgumentException("Missing server.");
+        }
+
+        if (secret == null || secret.length < ChallengeStoreFactory.MIN_SECRET_LENGTH) {
+            throw new IllegalArgumentException("The session secret must be at least " + ChallengeStoreFactory.MIN_SECRET_LENGTH + " bytes long.");
+        }
+
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive session time-to-live: " + ttlMillis);
+        }
+
+        if (generationSlots <= 0 || Integer.bitCount(generationSlots) != 1) {
+            throw new IllegalArgumentException("The number of generation slots must be a positive power of two: " + generationSlots);
+        }
+
+        this.server = server;
+        this.secret = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.generations = new AtomicIntegerArray(generationSlots);
+        this.mask = generationSlots - 1;
+    }
+
+    @Override
+    public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+        server.registerPublicKey(username, publicKeyData);
+    }
+
+    @Override
+    public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+        server.registerPublicKey(username, publicKey);
+    }
+
+    @Override
+    public byte[] getAuthenticationMessageToSign(String username) {
+        return server.getAuthenticationMessageToSign(username);
+    }
+
+    @Override
+    public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+        return server.authenticate(username, message, signature);
+    }
+
+    @Override
+    public boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException {
+        return server.authenticateAll(requests);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Authenticates the user as #authenticate(String, byte[], byte[]) does and, if that succeeds,
+     * starts a session.
+     *
+     * @return the session token, or null if the user was not authenticated
+     */
+    public byte[] authenticateForSession(String username, byte[] message, byte[] signature) throws ServerException {
+        if (!server.authenticate(username, message, signature)) {
+            return null;
+        }
+
+        final ByteBuffer token = ByteBuffer.allocate(TOKEN_LENGTH);
+        token.put(VERSION).putLong(System.currentTimeMillis() + ttlMillis).putInt(generations.get(slot(username)));
+        System.arraycopy(tag(token.array(), username), 0, token.array(), HEADER_LENGTH, TAG_LENGTH);
+        Metrics.count(Outcome.SESSION_ISSUED);
+
+        return token.array();
+    }
+
+    /**
+     * @return true if the input token was issued to the input user, has not expired and has not been revoked
+     */
+    public boolean validateSession(String username, byte[] token) {
+        final long start = Metrics.start();
+        try {
+            final Outcome outcome = sessionOutcome(username, token);
+            Metrics.count(outcome);
+
+            return (outcome == Outcome.SESSION_VALID);
+        } finally {
+            Metrics.stop(Operation.VALIDATE_SESSION, start);
+        }
+    }
+
+    // Package-private for the tests.
+    Outcome sessionOutcome(String username, byte[] token) {
+        if (username == null || token == null || token.length != TOKEN_LENGTH || token[0] != VERSION) {
+            return Outcome.SESSION_INVALID;
+        }
+
+        final byte[] expectedTag = new byte[TAG_LENGTH];
+        final byte[] presentedTag = new byte[TAG_LENGTH];
+        System.arraycopy(tag(token, username), 0, expectedTag, 0, TAG_LENGTH);
+        System.arraycopy(token, HEADER_LENGTH, presentedTag, 0, TAG_LENGTH);
+        if (!MessageDigest.isEqual(presentedTag, expectedTag)) { // Constant time comparison.
+            return Outcome.SESSION_INVALID;
+        }
+
+        final ByteBuffer header = ByteBuffer.wrap(token, 1, HEADER_LENGTH - 1);
+        if (header.getLong() <= System.currentTimeMillis()) {
+            return Outcome.SESSION_EXPIRED;
+        }
+
+        return (header.getInt() == generations.get(slot(username)) ? Outcome.SESSION_VALID : Outcome.SESSION_REVOKED);
+    }
+
+    /**
+     * Invalidates all the session tokens issued to the input user so far.
+     */
+    public void revokeSessions(String username) {
+        if (username == null) {
+            throw new ServerException("Missing username.");
+        }
+
+        generations.incrementAndGet(slot(username));
+    }
+
+    private int slot(String username) {
+        long h = UsernameHash.of(username);
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+
+        return (int)h & mask;
+    }
+
+    private byte[] tag(byte[] token, String username) {
+        final Mac mac = macInstance();
+        mac.update(token, 0, HEADER_LENGTH);
+        mac.update(username.getBytes(UTF_8));
+
+        return mac.doFinal();
+    }
+
+    private Mac macInstance() {
+        Mac mac = macs.get();
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(secret);
+            } catch (GeneralSecurityException gse) {
+                throw new IllegalStateException("Could not initialize the " + MAC_ALGORITHM + " session tag function.", gse);
+            }
+            macs.set(mac);
+        }
+
+        return mac;
+    }
+}
@@ -0,0 +1,379 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Partitions the users over in-process shards, each an #InMemoryRemoteServer with its own user
+ * registry, challenge store (and so random source) and locks. Usernames are mapped to shards by
+ * consistent hashing: every shard is placed at a number of (virtual node) points on a 64-bit hash
+ * ring and a username belongs to the shard of the first point at or after its hash. Adding or
+ * removing a shard therefore changes the owner of about 1/N of the users, and only those users are
+ * copied to their new shard.
+ *
+ * Requests are routed with a single read of the current (immutable) ring. Registrations and shard
+ * changes are serialized by a read-write lock, so that no registration is missed while users are
+ * being copied. Challenges that were issued by the previous owner of a user are not carried over, so
+ * a user caught by a shard change has to ask for a new one.
+ *
+ * Registries cannot remove users, so a shard keeps its copies of the users that moved to a newer
+ * shard. The ring never routes to those leftovers and a registered key never changes, so they are
+ * only a cost in memory, until the shard itself is removed: removing a shard closes its server and
+ * with it its registry, challenge store and threads. Calls that were routed to the removed shard just
+ * before may fail.
+ */
+public final class ShardedRemoteServer implements RemoteServer {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int virtualNodes;
+    private final ReadWriteLock membership = new ReentrantReadWriteLock();
+
+    private volatile Ring ring = new Ring(new long[0], new Shard[0], Collections.<Shard>emptyList());
+
+    public ShardedRemoteServer() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardedRemoteServer(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Non-positive number of virtual nodes: " + virtualNodes);
+        }
+
+        this.virtualNodes = virtualNodes;
+    }
+
+    public void addShard(String shardId) throws ServerException {
+        addShard(shardId, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance());
+    }
+
+    /**
+     * Adds a shard that keeps its users in the input registry and its challenges in the input store,
+     * and copies to it the users that it now owns. The registry and the store belong to the shard
+     * from then on and are closed with it, or right away if the shard cannot be added.
+     */
+    public void addShard(String shardId, UserRegistry users, ChallengeStore challengeStore) throws ServerException {
+        membership.writeLock().lock();
+        try {
+            if (shardId == null || ring.shard(shardId) != null) {
+                closeQuietly(users);
+                closeQuietly(challengeStore);
+                throw new IllegalArgumentException(shardId == null ? "Missing shard id." : "Shard '" + shardId + "' already exists.");
+            }
+
+            final Shard shard = new Shard(shardId, users, new InMemoryRemoteServer(users, challengeStore));
+            try {
+                final Ring current = ring;
+                final Ring next = current.with(shard, virtualNodes);
+                for (Shard previousOwner : current.shards()) {
+                    moveUsers(previousOwner, current, next);
+                }
+                ring = next;
+            } catch (RuntimeException re) {
+                closeQuietly(shard.server); // With the users copied so far, which the ring does not route to.
+                throw re;
+            }
+        } finally {
+            membership.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the shard with the input id, after copying its users to their new shards, and closes it.
+     */
+    public void removeShard(String shardId) throws ServerException {
+        final Shard removed;
+        membership.writeLock().lock();
+        try {
+            final Ring current = ring;
+            final Shard shard = current.shard(shardId);
+            if (shard == null) {
+                throw new IllegalArgumentException("Unknown shard '" + shardId + "'.");
+            }
+
+            if (current.shards().size() == 1) {
+                throw new IllegalStateException("Cannot remove the last shard.");
+            }
+
+            final Ring next = current.without(shard);
+            moveUsers(shard, current, next);
+            ring = next;
+            removed = shard;
+        } finally {
+            membership.writeLock().unlock();
+        }
+
+        try {
+            removed.server.close();
+        } catch (IOException ioe) {
+            throw new ServerException("Could not close the removed shard '" + shardId + "'.", ioe);
+        }
+    }
+
+    public List<String> shardIds() {
+        final List<String> ids = new ArrayList<>();
+        for (Shard shard : ring.shards()) {
+            ids.add(shard.id);
+        }
+
+        return ids;
+    }
+
+    // The id of the shard that the input user is routed to, for the tests.
+    String shardOf(String username) throws ServerException {
+        return route(username).id;
+    }
+
+    // Copies the users of the input shard that change owner between the two rings. Users that the
+    // shard only keeps as leftovers of earlier moves are skipped, as the ring does not route to them.
+    private void moveUsers(Shard from, Ring current, Ring next) throws ServerException {
+        final int size = from.users.size();
+        for (int userId=0 ; userId<size ; userId++) {
+            final String username = from.users.username(userId);
+            if (current.owner(username) == from) {
+                final Shard to = next.owner(username);
+                if (to != from) {
+                    to.users.register(username, from.users.publicKey(userId));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+        membership.readLock().lock();
+        try {
+            route(username).server.registerPublicKey(username, publicKeyData);
+        } finally {
+            membership.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+        membership.readLock().lock();
+        try {
+            route(username).server.registerPublicKey(username, publicKey);
+        } finally {
+            membership.readLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] getAuthenticationMessageToSign(String username) {
+        return route(username).server.getAuthenticationMessageToSign(username);
+    }
+
+    @Override
+    public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+        return route(username).server.authenticate(username, message, signature);
+    }
+
+    @Override
+    public boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException {
+        if (requests == null) {
+            throw new ServerException("Missing authentication requests.");
+        }
+
+        final Ring current = checkShards(ring);
+        final Map<Shard, List<Integer>> indices = new LinkedHashMap<>();
+        final Map<Shard, List<AuthRequest>> batches = new LinkedHashMap<>();
+        for (int i=0 ; i<requests.size() ; i++) {
+            final AuthRequest request = requests.get(i);
+            if (request == null) {
+                continue;
+            }
+
+            final Shard shard = current.route(request.username);
+            if (!batches.containsKey(shard)) {
+                indices.put(shard, new ArrayList<Integer>());
+                batches.put(shard, new ArrayList<AuthRequest>());
+            }
+            indices.get(shard).add(i);
+            batches.get(shard).add(request);
+        }
+
+        final boolean[] results = new boolean[requests.size()];
+        for (Map.Entry<Shard, List<AuthRequest>> batch : batches.entrySet()) {
+            final boolean[] shardResults = batch.getKey().server.authenticateAll(batch.getValue());
+            final List<Integer> shardIndices = indices.get(batch.getKey());
+            for (int i=0 ; i<shardResults.length ; i++) {
+                results[shardIndices.get(i)] = shardResults[i];
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Closes all the shards.
+     */
+    @Override
+    public void close() throws IOException {
+        final List<Shard> shards;
+        membership.writeLock().lock();
+        try {
+            shards = ring.shards();
+            ring = new Ring(new long[0], new Shard[0], Collections.<Shard>emptyList());
+        } finally {
+            membership.writeLock().unlock();
+        }
+
+        IOException failure = null;
+        for (Shard shard : shards) {
+            try {
+                shard.server.close();
+            } catch (IOException ioe) {
+                failure = (failure == null ? ioe : failure);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException | RuntimeException ignored) {}
+        }
+    }
+
+    private Shard route(String username) throws ServerException {
+        return checkShards(ring).route(username);
+    }
+
+    private static Ring checkShards(Ring ring) throws ServerException {
+        if (ring.shards().isEmpty()) {
+            throw new ServerException("There are no shards.");
+        }
+
+        return ring;
+    }
+
+    private static final class Shard {
+        final String id;
+        final UserRegistry users;
+        final RemoteServer server;
+
+        Shard(String id, UserRegistry users, RemoteServer server) {
+            this.id = id;
+            this.users = users;
+            this.server = server;
+        }
+    }
+
+    // Sorted ring points and the shard owning each of them.
+    private static final class Ring {
+        private final long[] points;
+        private final Shard[] owners;
+        private final List<Shard> shards;
+
+        Ring(long[] points, Shard[] owners, List<Shard> shards) {
+            this.points = points;
+            this.owners = owners;
+            this.shards = Collections.unmodifiableList(shards);
+        }
+
+        List<Shard> shards() {
+            return shards;
+        }
+
+        Shard shard(String shardId) {
+            for (Shard shard : shards) {
+                if (shard.id.equals(shardId)) {
+                    return shard;
+                }
+            }
+
+            return null;
+        }
+
+        // Null usernames go to any shard, which rejects them in the usual way.
+        Shard route(String username) {
+            return (username == null ? owners[0] : owner(username));
+        }
+
+        Shard owner(String username) {
+            final int index = Arrays.binarySearch(points, hash(UsernameHash.of(username)));
+            final int point = (index >= 0 ? index : -index - 1);
+
+            return owners[point == points.length ? 0 : point];
+        }
+
+        Ring with(Shard shard, int virtualNodes) {
+            final long[] shardPoints = new long[virtualNodes];
+            for (int i=0 ; i<virtualNodes ; i++) {
+                shardPoints[i] = hash(UsernameHash.of(shard.id + '#' + i));
+            }
+
+            return merge(shard, shardPoints);
+        }
+
+        Ring without(Shard shard) {
+            int kept = 0;
+            for (Shard owner : owners) {
+                if (owner != shard) {
+                    kept++;
+                }
+            }
+
+            final long[] nextPoints = new long[kept];
+            final Shard[] nextOwners = new Shard[kept];
+            for (int i=0, j=0 ; i<points.length ; i++) {
+                if (owners[i] != shard) {
+                    nextPoints[j] = points[i];
+                    nextOwners[j++] = owners[i];
+                }
+            }
+
+            final List<Shard> nextShards = new ArrayList<>(shards);
+            nextShards.remove(shard);
+
+            return new Ring(nextPoints, nextOwners, nextShards);
+        }
+
+        private Ring merge(Shard shard, long[] shardPoints) {
+            Arrays.sort(shardPoints);
+
+            final long[] nextPoints = new long[points.length + shardPoints.length];
+            final Shard[] nextOwners = new Shard[nextPoints.length];
+            for (int i=0, j=0, k=0 ; k<nextPoints.length ; k++) {
+                if (j == shardPoints.length || (i < points.length && points[i] <= shardPoints[j])) {
+                    nextPoints[k] = points[i];
+                    nextOwners[k] = owners[i++];
+                } else {
+                    nextPoints[k] = shardPoints[j++];
+                    nextOwners[k] = shard;
+                }
+            }
+
+            final List<Shard> nextShards = new ArrayList<>(shards);
+            nextShards.add(shard);
+
+            return new Ring(nextPoints, nextOwners, nextShards);
+        }
+
+        // Murmur3 finalizer, to spread the FNV hashes evenly around the ring.
+        private static long hash(long h) {
+            h ^= (h >>> 33);
+            h *= 0xff51afd7ed558ccdL;
+            h ^= (h >>> 33);
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= (h >>> 33);
+
+            return h;
+        }
+    }
+}
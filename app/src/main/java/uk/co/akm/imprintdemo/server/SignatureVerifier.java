@@ -0,0 +1,71 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Verifies signatures with the signature algorithm configured for the algorithm of the public key,
+ * e.g. SHA256withECDSA for EC keys. Each thread keeps one reusable #Signature instance per signature
+ * algorithm, so that the provider lookup and the engine allocation are paid once per thread instead
+ * of once per verification. Only the #Signature.initVerify(PublicKey) call is repeated for every
+ * verification.
+ */
+final class SignatureVerifier implements VerificationEngine {
+    private final Map<String, String> algorithms;
+    private final ThreadLocal<Map<String, Signature>> signatures = new ThreadLocal<>();
+
+    /**
+     * @param algorithms the signature algorithm for each supported public key algorithm
+     */
+    SignatureVerifier(Map<String, String> algorithms) {
+        this.algorithms = new HashMap<>(algorithms);
+    }
+
+    @Override
+    public boolean supports(String keyAlgorithm) {
+        return algorithms.containsKey(keyAlgorithm);
+    }
+
+    /**
+     * @return the signature algorithm for the input public key algorithm, or null if it is not supported
+     */
+    String algorithm(String keyAlgorithm) {
+        return algorithms.get(keyAlgorithm);
+    }
+
+    @Override
+    public boolean verify(PublicKey key, byte[] message, byte[] signature) throws GeneralSecurityException {
+        final Signature verificationFunction = signatureInstance(key.getAlgorithm());
+
+        verificationFunction.initVerify(key);
+        verificationFunction.update(message);
+
+        return verificationFunction.verify(signature);
+    }
+
+    private Signature signatureInstance(String keyAlgorithm) throws GeneralSecurityException {
+        Map<String, Signature> threadSignatures = signatures.get();
+        if (threadSignatures == null) {
+            threadSignatures = new HashMap<>(algorithms.size());
+            signatures.set(threadSignatures);
+        }
+
+        Signature signature = threadSignatures.get(keyAlgorithm);
+        if (signature == null) {
+            final String algorithm = algorithms.get(keyAlgorithm);
+            if (algorithm == null) {
+                throw new NoSuchAlgorithmException("No signature algorithm for " + keyAlgorithm + " public keys.");
+            }
+
+            signature = Signature.getInstance(algorithm);
+            threadSignatures.put(keyAlgorithm, signature);
+        }
+
+        return signature;
+    }
+}
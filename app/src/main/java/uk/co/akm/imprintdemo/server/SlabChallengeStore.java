@@ -0,0 +1,252 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps any number of outstanding challenges per user (up to the store capacity) in a direct
+ * (off-heap) buffer of fixed-size slots, so that a challenge costs no Java objects or array headers
+ * while it is outstanding. A challenge is laid out as
+ *
+ * [challenge id (8 bytes)][random nonce]
+ *
+ * where both the id and the nonce are taken from the nonce source, and the id is the key of an open addressing (linear probing) table. Every slot holds
+ *
+ * [challenge id (8 bytes)][user id (8 bytes)][expiry time (8 bytes)][nonce]
+ *
+ * with a zero id marking an empty slot. The table is split into segments, each guarded by its own
+ * lock, and the id selects both the segment and the home slot inside it. Slots are freed with
+ * backward-shift deletion, so the table never fills up with tombstones, and expired slots found
+ * while probing are simply overwritten. The maximum number of challenges is split evenly between
+ * the segments and enforced per segment.
+ */
+final class SlabChallengeStore implements ChallengeStore {
+    private static final int ID_LENGTH = 8;
+    private static final int ID_OFFSET = 0;
+    private static final int USER_OFFSET = 8;
+    private static final int EXPIRY_OFFSET = 16;
+    private static final int NONCE_OFFSET = 24;
+
+    private static final int SEGMENTS_PER_CORE = 4;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final NonceSource nonceSource;
+    private final int nonceLength;
+    private final long ttlMillis;
+
+    private final int slotLength;
+    private final int segmentMask;
+    private final int segmentShift;
+    private final Segment[] segments;
+
+    SlabChallengeStore(NonceSource nonceSource, long ttlMillis, int maxChallenges) {
+        this.nonceSource = nonceSource;
+        this.nonceLength = nonceSource.length() - ID_LENGTH;
+        this.ttlMillis = ttlMillis;
+        this.slotLength = NONCE_OFFSET + nonceLength;
+
+        final int segmentCount = powerOfTwo(SEGMENTS_PER_CORE*Runtime.getRuntime().availableProcessors());
+        final int maxPerSegment = Math.max(1, (maxChallenges + segmentCount - 1)/segmentCount);
+        final int slotsPerSegment = powerOfTwo((int)Math.ceil(maxPerSegment/LOAD_FACTOR) + 1);
+
+        final long slabLength = (long)segmentCount*slotsPerSegment*slotLength;
+        if (slabLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many challenges (" + maxChallenges + ") for a single slab.");
+        }
+
+        final ByteBuffer slab = ByteBuffer.allocateDirect((int)slabLength);
+        segmentMask = segmentCount - 1;
+        segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+        segments = new Segment[segmentCount];
+        for (int i=0 ; i<segmentCount ; i++) {
+            segments[i] = new Segment(slab, i*slotsPerSegment*slotLength, slotsPerSegment, maxPerSegment);
+        }
+    }
+
+    private static int powerOfTwo(int min) {
+        int n = 1;
+        while (n < min) {
+            n <<= 1;
+        }
+
+        return n;
+    }
+
+    @Override
+    public byte[] issue(int userId, String username) throws ServerException {
+        final ByteBuffer challenge = ByteBuffer.allocate(ID_LENGTH + nonceLength);
+        long id;
+        do {
+            nonceSource.next(challenge.array(), 0);
+            id = challenge.getLong(0);
+        } while (id == 0); // Zero marks an empty slot.
+
+        segmentFor(id).put(id, userId, now() + ttlMillis, challenge.array());
+
+        return challenge.array();
+    }
+
+    @Override
+    public boolean consume(int userId, String username, byte[] message) {
+        if (message.length != ID_LENGTH + nonceLength) {
+            return false;
+        }
+
+        final long id = ByteBuffer.wrap(message).getLong();
+        if (id == 0) {
+            return false;
+        }
+
+        return segmentFor(id).consume(id, userId, now(), message);
+    }
+
+    @Override
+    public void close() {
+        nonceSource.close();
+    }
+
+    private Segment segmentFor(long id) {
+        return segments[(int)(id >>> 32) & segmentMask];
+    }
+
+    private long now() {
+        return System.nanoTime()/1000000;
+    }
+
+    private final class Segment {
+        private final ByteBuffer slab;
+        private final int base;
+        private final int mask;
+        private final int maxLive;
+        private int live;
+
+        Segment(ByteBuffer slab, int base, int slots, int maxLive) {
+            this.slab = slab;
+            this.base = base;
+            this.mask = slots - 1;
+            this.maxLive = maxLive;
+        }
+
+        synchronized void put(long id, long user, long expiresAt, byte[] challenge) {
+            final long now = expiresAt - ttlMillis;
+            if (live >= maxLive) {
+                purgeExpired(now);
+                if (live >= maxLive) {
+                    throw new ServerException("Too many outstanding authentication challenges.");
+                }
+            }
+
+            int slot = home(id);
+            while (true) {
+                final long slotId = slab.getLong(offset(slot) + ID_OFFSET);
+                if (slotId == 0) {
+                    live++;
+                    break;
+                }
+
+                if (slab.getLong(offset(slot) + EXPIRY_OFFSET) <= now) {
+                    break; // Overwrite an expired challenge; the live count does not change.
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            final int offset = offset(slot);
+            slab.putLong(offset + ID_OFFSET, id);
+            slab.putLong(offset + USER_OFFSET, user);
+            slab.putLong(offset + EXPIRY_OFFSET, expiresAt);
+            for (int i=0 ; i<nonceLength ; i++) {
+                slab.put(offset + NONCE_OFFSET + i, challenge[ID_LENGTH + i]);
+            }
+        }
+
+        synchronized boolean consume(long id, long user, long now, byte[] challenge) {
+            int slot = home(id);
+            for (int probes=0 ; probes<=mask ; probes++) {
+                final int offset = offset(slot);
+                final long slotId = slab.getLong(offset + ID_OFFSET);
+                if (slotId == 0) {
+                    return false;
+                }
+
+                if (slotId == id) {
+                    if (slab.getLong(offset + EXPIRY_OFFSET) <= now) {
+                        remove(slot);
+                        return false;
+                    }
+
+                    if (slab.getLong(offset + USER_OFFSET) != user || !sameNonce(offset, challenge)) {
+                        return false; // Not consumed: somebody else's or a forged challenge.
+                    }
+
+                    remove(slot);
+                    return true;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return false;
+        }
+
+        private boolean sameNonce(int offset, byte[] challenge) {
+            int difference = 0;
+            for (int i=0 ; i<nonceLength ; i++) {
+                difference |= (slab.get(offset + NONCE_OFFSET + i) ^ challenge[ID_LENGTH + i]);
+            }
+
+            return (difference == 0);
+        }
+
+        private void purgeExpired(long now) {
+            int slot = 0;
+            while (slot <= mask) {
+                final int offset = offset(slot);
+                if (slab.getLong(offset + ID_OFFSET) != 0 && slab.getLong(offset + EXPIRY_OFFSET) <= now) {
+                    remove(slot); // The backward shift may move a not yet visited slot here, so look again.
+                } else {
+                    slot++;
+                }
+            }
+        }
+
+        // Backward-shift deletion: pull later members of the probe run back into the freed slot.
+        private void remove(int slot) {
+            live--;
+
+            int free = slot;
+            int next = (free + 1) & mask;
+            while (true) {
+                final long nextId = slab.getLong(offset(next) + ID_OFFSET);
+                if (nextId == 0) {
+                    break;
+                }
+
+                final int home = home(nextId);
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    copySlot(next, free);
+                    free = next;
+                }
+                next = (next + 1) & mask;
+            }
+
+            slab.putLong(offset(free) + ID_OFFSET, 0);
+        }
+
+        private void copySlot(int from, int to) {
+            final int fromOffset = offset(from);
+            final int toOffset = offset(to);
+            for (int i=0 ; i<slotLength ; i++) {
+                slab.put(toOffset + i, slab.get(fromOffset + i));
+            }
+        }
+
+        private int home(long id) {
+            return (int)id & mask;
+        }
+
+        private int offset(int slot) {
+            return base + slot*slotLength;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.co.akm.imprintdemo.key.KeyCodec;
+import uk.co.akm.imprintdemo.key.KeySerializationException;
+import uk.co.akm.imprintdemo.key.KeySerializer;
+import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+
+/**
+ * Client over a single blocking socket channel. Callers write their request frames under a lock
+ * and wait for their own response, while a reader thread matches the responses, which may arrive in
+ * any order, to the waiting calls by request id. Many calls can thus be outstanding on the one
+ * connection. Keys registered in their string form are converted to their compact binary form
+ * here, so that the server does not have to parse them.
+ */
+final class SocketRemoteServerClient implements RemoteServerClient {
+    private final KeySerializer keySerializer = KeySerializerFactory.compactInstance();
+    private final KeyCodec keyCodec = KeySerializerFactory.compactCodecInstance();
+    private final SocketChannel channel;
+    private final long callTimeoutMillis;
+    private final Object writeLock = new Object();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ConcurrentMap<Integer, Call> calls = new ConcurrentHashMap<>();
+    private final Thread reader;
+
+    private volatile boolean closed;
+
+    SocketRemoteServerClient(InetSocketAddress address, long callTimeoutMillis) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.callTimeoutMillis = callTimeoutMillis;
+        channel.socket().setTcpNoDelay(true);
+
+        this.reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "remote-server-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+        final PublicKey publicKey;
+        try {
+            publicKey = keySerializer.deserialize(publicKeyData);
+        } catch (KeySerializationException kse) {
+            throw new ServerException("Public key deserialization error.");
+        }
+
+        registerPublicKey(username, publicKey);
+    }
+
+    @Override
+    public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+        if (publicKey == null) {
+            throw new ServerException("Missing public key.");
+        }
+
+        final byte[] encodedKey;
+        try {
+            encodedKey = keyCodec.encode(publicKey);
+        } catch (KeySerializationException kse) {
+            throw new ServerException("Public key serialization error.");
+        }
+
+        final int requestId = nextRequestId.incrementAndGet();
+        expect(WireCodec.ACKNOWLEDGEMENT, call(requestId, WireCodec.registration(requestId, username, encodedKey)));
+    }
+
+    @Override
+    public byte[] getAuthenticationMessageToSign(String username) throws ServerException {
+        final int requestId = nextRequestId.incrementAndGet();
+        final ByteBuffer response = call(requestId, WireCodec.challengeRequest(requestId, username));
+        expect(WireCodec.CHALLENGE, response);
+
+        return WireCodec.getBytes(response);
+    }
+
+    @Override
+    public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+        final int requestId = nextRequestId.incrementAndGet();
+        final ByteBuffer response = call(requestId, WireCodec.authentication(requestId, username, message, signature));
+        expect(WireCodec.RESULTS, response);
+
+        final boolean[] results = WireCodec.getResults(response);
+        if (results.length != 1) {
+            throw new ServerException("Malformed server response.");
+        }
+
+        return results[0];
+    }
+
+    @Override
+    public boolean[] authenticateAll(List<AuthRequest> requests) {
+        final int requestId = nextRequestId.incrementAndGet();
+        final ByteBuffer response = call(requestId, WireCodec.authenticationBatch(requestId, requests));
+        expect(WireCodec.RESULTS, response);
+
+        final boolean[] results = WireCodec.getResults(response);
+        if (results.length != requests.size()) {
+            throw new ServerException("Malformed server response.");
+        }
+
+        return results;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+        failAll("Client closed.");
+    }
+
+    private ByteBuffer call(int requestId, ByteBuffer request) throws ServerException {
+        final Call call = new Call();
+        calls.put(requestId, call);
+
+        try {
+            send(request);
+
+            if (!call.done.await(callTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new ServerException("Server call timed out.");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Server call interrupted.", ie);
+        } finally {
+            calls.remove(requestId);
+        }
+
+        if (call.failure != null) {
+            throw new ServerException(call.failure);
+        }
+
+        return call.response;
+    }
+
+    private void expect(byte type, ByteBuffer response) throws ServerException {
+        final byte responseType = WireCodec.getMessageType(response);
+        if (responseType == WireCodec.ERROR) {
+            throw new ServerException(WireCodec.getString(response));
+        }
+
+        if (responseType != type) {
+            throw new ServerException("Unexpected server response.");
+        }
+    }
+
+    private void send(ByteBuffer frame) throws ServerException {
+        if (closed) {
+            throw new ServerException("Client closed.");
+        }
+
+        try {
+            synchronized (writeLock) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        } catch (IOException ioe) {
+            throw new ServerException("Could not send the request to the server.", ioe);
+        }
+    }
+
+    private void readLoop() {
+        final ByteBuffer lengthField = ByteBuffer.allocate(WireCodec.LENGTH_FIELD);
+
+        try {
+            while (!closed) {
+                lengthField.clear();
+                readFully(lengthField);
+
+                final int length = lengthField.getInt(0);
+                if (length < WireCodec.MIN_FRAME_LENGTH || length > WireCodec.MAX_FRAME_LENGTH) {
+                    throw new IOException("Bad frame length: " + length);
+                }
+
+                final ByteBuffer response = ByteBuffer.allocate(length);
+                readFully(response);
+                response.flip();
+
+                final Call call = calls.get(response.getInt());
+                if (call != null) {
+                    call.complete(response);
+                }
+            }
+        } catch (IOException ioe) {
+            closed = true;
+        } finally {
+            failAll("Connection to the server lost.");
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed by the server.");
+            }
+        }
+    }
+
+    private void failAll(String reason) {
+        for (Call call : calls.values()) {
+            call.fail(reason);
+        }
+    }
+
+    private static final class Call {
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile ByteBuffer response;
+        private volatile String failure;
+
+        synchronized void complete(ByteBuffer frame) {
+            if (done.getCount() > 0) {
+                response = frame;
+                done.countDown();
+            }
+        }
+
+        synchronized void fail(String reason) {
+            if (done.getCount() > 0) {
+                failure = reason;
+                done.countDown();
+            }
+        }
+    }
+}
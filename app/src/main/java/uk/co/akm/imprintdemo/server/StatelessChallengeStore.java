@@ -0,0 +1,101 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues self-describing challenges and keeps no state at all. A challenge is laid out as
+ *
+ * [version (1 byte)][expiry time in epoch millis (8 bytes)][random nonce][HMAC-SHA256 tag (32 bytes)]
+ *
+ * where the tag is computed, under the server secret, over everything before it followed by the
+ * UTF-8 bytes of the username. Any server holding the same secret can check any challenge, so there
+ * is no per-user storage and no store to share between replicas. The price is that a challenge can
+ * be presented more than once until it expires, so the time-to-live should be kept short. The
+ * challenges are bound to the username rather than to the user id, since ids are not the same on
+ * every server.
+ */
+final class StatelessChallengeStore implements ChallengeStore {
+    private static final byte VERSION = 1;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int HEADER_LENGTH = 9;
+    private static final int TAG_LENGTH = 32;
+
+    private final NonceSource nonceSource;
+    private final SecretKeySpec secret;
+    private final int nonceLength;
+    private final long ttlMillis;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<>();
+
+    StatelessChallengeStore(NonceSource nonceSource, byte[] secret, long ttlMillis) {
+        this.nonceSource = nonceSource;
+        this.secret = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.nonceLength = nonceSource.length();
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public byte[] issue(int userId, String username) throws ServerException {
+        final ByteBuffer challenge = ByteBuffer.allocate(HEADER_LENGTH + nonceLength + TAG_LENGTH);
+        challenge.put(VERSION).putLong(System.currentTimeMillis() + ttlMillis);
+        nonceSource.next(challenge.array(), HEADER_LENGTH);
+        challenge.position(HEADER_LENGTH + nonceLength);
+        challenge.put(tag(challenge.array(), HEADER_LENGTH + nonceLength, username));
+
+        return challenge.array();
+    }
+
+    @Override
+    public boolean consume(int userId, String username, byte[] message) {
+        final int signedLength = HEADER_LENGTH + nonceLength;
+        if (message.length != signedLength + TAG_LENGTH || message[0] != VERSION) {
+            return false;
+        }
+
+        if (ByteBuffer.wrap(message, 1, 8).getLong() <= System.currentTimeMillis()) {
+            return false;
+        }
+
+        final byte[] presentedTag = new byte[TAG_LENGTH];
+        System.arraycopy(message, signedLength, presentedTag, 0, TAG_LENGTH);
+
+        return MessageDigest.isEqual(presentedTag, tag(message, signedLength, username)); // Constant time comparison.
+    }
+
+    @Override
+    public void close() {
+        nonceSource.close();
+    }
+
+    private byte[] tag(byte[] challenge, int length, String username) {
+        final Mac mac = macInstance();
+        mac.update(challenge, 0, length);
+        mac.update(username.getBytes(UTF_8));
+
+        return mac.doFinal();
+    }
+
+    private Mac macInstance() {
+        Mac mac = macs.get();
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(secret);
+            } catch (GeneralSecurityException gse) {
+                throw new IllegalStateException("Could not initialize the " + MAC_ALGORITHM + " challenge tag function.", gse);
+            }
+            macs.set(mac);
+        }
+
+        return mac;
+    }
+}
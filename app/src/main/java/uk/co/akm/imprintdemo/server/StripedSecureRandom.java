@@ -0,0 +1,42 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.SecureRandom;
+
+/**
+ * A set of independent SecureRandom instances, one per stripe, so that callers working on different
+ * stripes (e.g. different usernames) do not contend on the same generator lock.
+ */
+final class StripedSecureRandom {
+    private final int mask;
+    private final SecureRandom[] stripes;
+
+    StripedSecureRandom(int minStripes) {
+        final int n = stripeCount(minStripes);
+
+        mask = n - 1;
+        stripes = new SecureRandom[n];
+        for (int i=0 ; i<n ; i++) {
+            stripes[i] = new SecureRandom();
+        }
+    }
+
+    private static int stripeCount(int minStripes) {
+        int n = 1;
+        while (n < minStripes) {
+            n <<= 1;
+        }
+
+        return n;
+    }
+
+    void nextBytes(Object stripeKey, byte[] bytes) {
+        stripeFor(stripeKey).nextBytes(bytes);
+    }
+
+    private SecureRandom stripeFor(Object stripeKey) {
+        final int h = stripeKey.hashCode();
+
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+}
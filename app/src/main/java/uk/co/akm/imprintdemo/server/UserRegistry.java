@@ -0,0 +1,54 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.Closeable;
+import java.security.PublicKey;
+
+/**
+ * Keeps the public key registered by each user. Every registered user is given a non-negative
+ * integer id, which other per-user structures (e.g. a #ChallengeStore) can use as an array index.
+ */
+public interface UserRegistry extends Closeable {
+    int NOT_REGISTERED = -1;
+
+    /**
+     * Registers the input public key for the input user, unless the user has already registered.
+     *
+     * @param username the user registering
+     * @param publicKey the user public key
+     * @return true if the user was registered or false if the user had already registered
+     */
+    boolean register(String username, PublicKey publicKey) throws ServerException;
+
+    /**
+     * Returns the id of the input user or #NOT_REGISTERED if the user has not registered.
+     *
+     * @param username the user
+     * @return the id of the input user or #NOT_REGISTERED if the user has not registered
+     */
+    int find(String username) throws ServerException;
+
+    /**
+     * Returns the public key registered by the user with the input id.
+     *
+     * @param userId the id of a registered user, as returned by #find(String)
+     * @return the public key registered by the user with the input id
+     */
+    PublicKey publicKey(int userId) throws ServerException;
+
+    /**
+     * Returns the number of registered users. Their ids are 0 to size - 1, so the users can be
+     * listed with #username(int), e.g. to move them to another registry.
+     *
+     * @return the number of registered users
+     */
+    int size() throws ServerException;
+
+    /**
+     * Returns the name of the user with the input id.
+     *
+     * @param userId the id of a registered user
+     * @return the name of the user with the input id
+     */
+    String username(int userId) throws ServerException;
+}
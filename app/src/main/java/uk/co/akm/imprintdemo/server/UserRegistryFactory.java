@@ -0,0 +1,44 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.io.File;
+import java.io.IOException;
+
+public final class UserRegistryFactory {
+    public static final int DEFAULT_INITIAL_CAPACITY = 1 << 16;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 10000;
+
+    public static UserRegistry inMemoryInstance() {
+        return new InMemoryUserRegistry();
+    }
+
+    public static UserRegistry durableInstance(File directory) throws ServerException {
+        return durableInstance(directory, DEFAULT_INITIAL_CAPACITY, DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Returns a registry that keeps its users in the input directory, so that they survive restarts.
+     * Registrations are appended to a checksummed log and indexed by a memory-mapped hash table, and
+     * both are checkpointed to disk at the input interval (and when the registry is closed). A
+     * registration returns once its record has been forced to disk. The index holds up to 2^26
+     * slots, i.e. about 47 million users.
+     *
+     * @param directory the directory holding the registry files
+     * @param initialCapacity the number of index slots to start with, if there is no index yet (at most 2^26)
+     * @param checkpointIntervalMillis the interval between checkpoints in milliseconds
+     * @return a durable user registry
+     */
+    public static UserRegistry durableInstance(File directory, int initialCapacity, long checkpointIntervalMillis) throws ServerException {
+        if (checkpointIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive checkpoint interval: " + checkpointIntervalMillis);
+        }
+
+        try {
+            return new DurableUserRegistry(directory, initialCapacity, checkpointIntervalMillis);
+        } catch (IOException ioe) {
+            throw new ServerException("Could not open the user registry in " + directory + ".", ioe);
+        }
+    }
+
+    private UserRegistryFactory() {}
+}
@@ -0,0 +1,18 @@
+package uk.co.akm.imprintdemo.server;
+
+
+final class UsernameHash {
+
+    // 64-bit FNV-1a over the UTF-16 code units of the username.
+    static long of(String username) {
+        long h = 0xcbf29ce484222325L;
+        for (int i=0 ; i<username.length() ; i++) {
+            h ^= username.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        return h;
+    }
+
+    private UsernameHash() {}
+}
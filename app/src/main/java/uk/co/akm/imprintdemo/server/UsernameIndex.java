@@ -0,0 +1,187 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Maps usernames to dense integer ids (0, 1, 2, ...) and keeps one long value per id (e.g. a key
+ * handle). It is an open addressing (linear probing) table of 64-bit username hashes and ids, with
+ * the UTF-8 bytes of the usernames packed in a #ByteArena, so a user costs no String, map entry or
+ * boxed value. Per-user state elsewhere (e.g. in a challenge store) can be kept in columns indexed
+ * by the id instead of in maps keyed by the username.
+ *
+ * Lookups are lock-free: the slot id is written before the slot hash is published with a volatile
+ * write, and a full table is replaced by a larger copy that is published through a volatile field.
+ * Additions are serialized.
+ *
+ * Bytes per user are about 12/load (hash and id slot, with the load between 0.3 and 0.6) + 16
+ * (username handle and value) + 2 + the UTF-8 username length.
+ *
+ * Not final, so that the tests can make usernames collide.
+ */
+class UsernameIndex {
+    static final int NOT_FOUND = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float MAX_LOAD = 0.6f;
+
+    private final ByteArena names = new ByteArena();
+    private final LongColumn nameHandles = new LongColumn();
+    private final LongColumn values = new LongColumn();
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int size; // Guarded by this.
+
+    synchronized int size() {
+        return size;
+    }
+
+    int find(String username) {
+        final long hash = slotHash(username);
+        final Table current = table;
+        for (int slot=current.home(hash) ; ; slot=(slot + 1) & current.mask) {
+            final long slotHash = current.hashes.get(slot);
+            if (slotHash == 0) {
+                return NOT_FOUND;
+            }
+
+            if (slotHash == hash) {
+                final int id = current.ids[slot];
+                if (sameName(id, username)) {
+                    return id;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the input username with the input value and returns its new id, or returns #NOT_FOUND if
+     * the username is already in the index.
+     */
+    synchronized int add(String username, long value) {
+        if (find(username) != NOT_FOUND) {
+            return NOT_FOUND;
+        }
+
+        if (size + 1 > table.capacity()*MAX_LOAD) {
+            table = table.grow();
+        }
+
+        final int id = size;
+        nameHandles.set(id, names.append(username.getBytes(UTF_8)));
+        values.set(id, value);
+        table.insert(slotHash(username), id);
+        size++;
+
+        return id;
+    }
+
+    long value(int id) {
+        return values.get(id);
+    }
+
+    String name(int id) {
+        final long handle = nameHandles.get(id);
+        final byte[] chunk = names.chunk(handle);
+
+        return new String(chunk, ByteArena.offset(handle), ByteArena.length(chunk, handle), UTF_8);
+    }
+
+    // Compares the stored UTF-8 name with the username, encoding the username on the fly.
+    private boolean sameName(int id, String username) {
+        final long handle = nameHandles.get(id);
+        final byte[] chunk = names.chunk(handle);
+        final int end = ByteArena.offset(handle) + ByteArena.length(chunk, handle);
+
+        int position = ByteArena.offset(handle);
+        for (int i=0 ; i<username.length() ; i++) {
+            int c = username.charAt(i);
+            if (Character.isHighSurrogate((char)c) && i + 1 < username.length() && Character.isLowSurrogate(username.charAt(i + 1))) {
+                c = Character.toCodePoint((char)c, username.charAt(++i));
+            } else if (Character.isSurrogate((char)c)) {
+                c = '?'; // What String.getBytes writes for an unpaired surrogate.
+            }
+
+            final int length = (c < 0x80 ? 1 : (c < 0x800 ? 2 : (c < 0x10000 ? 3 : 4)));
+            if (position + length > end) {
+                return false;
+            }
+
+            if (length == 1) {
+                if (chunk[position++] != (byte)c) {
+                    return false;
+                }
+            } else {
+                if (chunk[position++] != (byte)((0xf00 >>> length) | (c >>> (6*(length - 1))))) {
+                    return false;
+                }
+                for (int shift=6*(length - 2) ; shift>=0 ; shift-=6) {
+                    if (chunk[position++] != (byte)(0x80 | ((c >>> shift) & 0x3f))) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return (position == end);
+    }
+
+    long hash(String username) {
+        return UsernameHash.of(username);
+    }
+
+    private long slotHash(String username) {
+        final long hash = hash(username);
+
+        return (hash == 0 ? 1 : hash); // Zero marks an empty slot.
+    }
+
+    private static final class Table {
+        final int mask;
+        final AtomicLongArray hashes;
+        final int[] ids;
+
+        Table(int capacity) {
+            mask = capacity - 1;
+            hashes = new AtomicLongArray(capacity);
+            ids = new int[capacity];
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        int home(long hash) {
+            long h = hash;
+            h ^= (h >>> 33);
+            h *= 0xff51afd7ed558ccdL;
+            h ^= (h >>> 33);
+
+            return (int)h & mask;
+        }
+
+        void insert(long hash, int id) {
+            int slot = home(hash);
+            while (hashes.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            ids[slot] = id;
+            hashes.set(slot, hash); // Publishes the id.
+        }
+
+        Table grow() {
+            final Table grown = new Table(2*capacity());
+            for (int slot=0 ; slot<=mask ; slot++) {
+                final long hash = hashes.get(slot);
+                if (hash != 0) {
+                    grown.insert(hash, ids[slot]);
+                }
+            }
+
+            return grown;
+        }
+    }
+}
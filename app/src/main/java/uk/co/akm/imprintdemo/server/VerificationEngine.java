@@ -0,0 +1,18 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+
+/**
+ * Verifies the signatures of the authentication messages for #InMemoryRemoteServer.
+ */
+public interface VerificationEngine {
+
+    /**
+     * @return true if signatures made with keys of the input algorithm can be verified
+     */
+    boolean supports(String keyAlgorithm);
+
+    boolean verify(PublicKey key, byte[] message, byte[] signature) throws GeneralSecurityException;
+}
@@ -0,0 +1,123 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.util.Map;
+
+import uk.co.akm.imprintdemo.key.KeySerializerConstants;
+
+public final class VerificationEngineFactory {
+    public static final int DEFAULT_MAX_TABLES = 64;
+    public static final int DEFAULT_HOT_THRESHOLD = 8;
+    public static final int DEFAULT_CROSS_CHECK_INTERVAL = 1024;
+
+    public static VerificationEngine instance() {
+        return jcaInstance(InMemoryRemoteServer.defaultSignatureAlgorithms());
+    }
+
+    /**
+     * @param signatureAlgorithms the signature algorithm for each supported public key algorithm
+     * @return an engine that verifies every signature with the platform #java.security.Signature implementation
+     */
+    public static VerificationEngine jcaInstance(Map<String, String> signatureAlgorithms) {
+        if (signatureAlgorithms == null || signatureAlgorithms.isEmpty()) {
+            throw new IllegalArgumentException("Missing signature algorithms.");
+        }
+
+        return new SignatureVerifier(signatureAlgorithms);
+    }
+
+    public static VerificationEngine precomputedInstance() {
+        return precomputedInstance(DEFAULT_MAX_TABLES, DEFAULT_HOT_THRESHOLD, DEFAULT_CROSS_CHECK_INTERVAL);
+    }
+
+    /**
+     * Returns an engine for servers where a few keys authenticate very often. It verifies the
+     * SHA256withECDSA signatures of hot P-256 keys with precomputed tables of multiples of the key
+     * (60 KiB each), which take far fewer point operations than a generic verification, and all other
+     * signatures like the #instance() engine. The table results are checked against that engine when a
+     * table is built and then at regular intervals, and a table that disagrees is dropped.
+     *
+     * @param maxTables the maximum number of key tables kept, least recently used first out
+     * @param hotThreshold the number of verifications with a key after which its table is built
+     * @param crossCheckInterval the number of table verifications per cross-check (0 for none after the first)
+     * @return a verification engine with precomputed tables for hot P-256 keys
+     */
+    public static VerificationEngine precomputedInstance(int maxTables, int hotThreshold, int crossCheckInterval) {
+        return precomputedInstance(instance(), maxTables, hotThreshold, crossCheckInterval);
+    }
+
+    /**
+     * Returns an engine like #precomputedInstance(int, int, int) that verifies all other signatures,
+     * and checks the table results, with the input engine instead (e.g. a #jcaInstance(Map) with
+     * custom signature algorithms). The tables verify SHA256withECDSA, so the input engine must verify
+     * the signatures of P-256 keys with that algorithm too.
+     *
+     * @param fallback the engine for the signatures that the tables do not verify
+     * @param maxTables the maximum number of key tables kept, least recently used first out
+     * @param hotThreshold the number of verifications with a key after which its table is built
+     * @param crossCheckInterval the number of table verifications per cross-check (0 for none after the first)
+     * @return a verification engine with precomputed tables for hot P-256 keys
+     */
+    public static VerificationEngine precomputedInstance(VerificationEngine fallback, int maxTables, int hotThreshold, int crossCheckInterval) {
+        checkP256Fallback(fallback);
+
+        if (maxTables <= 0) {
+            throw new IllegalArgumentException("Non-positive maximum number of tables: " + maxTables);
+        }
+
+        if (hotThreshold <= 0) {
+            throw new IllegalArgumentException("Non-positive hot key threshold: " + hotThreshold);
+        }
+
+        if (crossCheckInterval < 0) {
+            throw new IllegalArgumentException("Negative cross-check interval: " + crossCheckInterval);
+        }
+
+        return new PrecomputedVerificationEngine(fallback, maxTables, hotThreshold, crossCheckInterval);
+    }
+
+    /**
+     * Returns an engine that verifies the SHA256withECDSA signatures of P-256 keys in a batch (e.g.
+     * those of an #RemoteServer.authenticateAll(List) call) with the modular inversions shared
+     * between them, and all other signatures like the #instance() engine.
+     *
+     * @return a batch verification engine for P-256 signatures
+     */
+    public static BatchVerificationEngine batchInstance() {
+        return batchInstance(instance(), DEFAULT_CROSS_CHECK_INTERVAL);
+    }
+
+    /**
+     * Returns an engine like #batchInstance() that verifies all other signatures, and checks a sample
+     * of the batch results, with the input engine instead. The batches verify SHA256withECDSA, so the
+     * input engine must verify the signatures of P-256 keys with that algorithm too.
+     *
+     * @param fallback the engine for the signatures that are not verified in batches
+     * @param crossCheckInterval the number of signatures verified in batches per cross-check (0 for none)
+     * @return a batch verification engine for P-256 signatures
+     */
+    public static BatchVerificationEngine batchInstance(VerificationEngine fallback, int crossCheckInterval) {
+        checkP256Fallback(fallback);
+
+        if (crossCheckInterval < 0) {
+            throw new IllegalArgumentException("Negative cross-check interval: " + crossCheckInterval);
+        }
+
+        return new P256BatchVerifier(fallback, crossCheckInterval);
+    }
+
+    private static void checkP256Fallback(VerificationEngine fallback) {
+        if (fallback == null) {
+            throw new IllegalArgumentException("Missing fallback verification engine.");
+        }
+
+        if (fallback instanceof SignatureVerifier) {
+            final String algorithm = ((SignatureVerifier)fallback).algorithm(KeySerializerConstants.KEY_ALGORITHM_EC);
+            if (algorithm != null && !InMemoryRemoteServer.SIGNATURE_ALGORITHM_EC.equals(algorithm)) {
+                throw new IllegalArgumentException("P-256 signatures are verified with " + InMemoryRemoteServer.SIGNATURE_ALGORITHM_EC + ", not " + algorithm + ".");
+            }
+        }
+    }
+
+    private VerificationEngineFactory() {}
+}
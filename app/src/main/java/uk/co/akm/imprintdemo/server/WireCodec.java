@@ -0,0 +1,344 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.co.akm.imprintdemo.key.KeyCodec;
+import uk.co.akm.imprintdemo.key.KeySerializationException;
+
+/**
+ * Versioned binary encoding of the messages exchanged by #SocketRemoteServerClient and
+ * #NioRemoteServerHost. A frame is [length 4][request id 4][message] where the length counts the
+ * bytes after it, and a message is [version 1][type 1][fields]. Strings (UTF-8) and byte fields are
+ * prefixed by their unsigned 16-bit length and public keys are carried in their #KeyCodec compact
+ * encoding, so there is no Base64 or string splitting on either side. Frames are encoded straight
+ * into a buffer of their exact length and decoded in place: byte fields can be read as slices of the
+ * frame buffer, and keys and strings are decoded from its backing array without copying.
+ */
+final class WireCodec {
+    static final byte VERSION = 1;
+
+    static final int LENGTH_FIELD = 4;
+    static final int MIN_FRAME_LENGTH = 4 + 2; // Request id, version and type.
+    static final int MAX_FRAME_LENGTH = 1 << 20;
+    static final int MAX_FIELD_LENGTH = 0xffff;
+
+    // Requests.
+    static final byte REGISTRATION = 1;
+    static final byte CHALLENGE_REQUEST = 2;
+    static final byte AUTHENTICATION = 3;
+    static final byte AUTHENTICATION_BATCH = 4;
+
+    // Responses.
+    static final byte ACKNOWLEDGEMENT = 16;
+    static final byte CHALLENGE = 17;
+    static final byte RESULTS = 18;
+    static final byte ERROR = 19;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static ByteBuffer registration(int requestId, String username, byte[] encodedKey) throws ServerException {
+        final ByteBuffer frame = frame(requestId, REGISTRATION, stringLength(username) + fieldLength(encodedKey));
+        putString(frame, username);
+        putBytes(frame, encodedKey);
+
+        return flip(frame);
+    }
+
+    static ByteBuffer challengeRequest(int requestId, String username) throws ServerException {
+        final ByteBuffer frame = frame(requestId, CHALLENGE_REQUEST, stringLength(username));
+        putString(frame, username);
+
+        return flip(frame);
+    }
+
+    static ByteBuffer authentication(int requestId, String username, byte[] message, byte[] signature) throws ServerException {
+        final ByteBuffer frame = frame(requestId, AUTHENTICATION, stringLength(username) + fieldLength(message) + fieldLength(signature));
+        putString(frame, username);
+        putBytes(frame, message);
+        putBytes(frame, signature);
+
+        return flip(frame);
+    }
+
+    // Null requests are sent as requests with empty fields, which the server fails like missing ones.
+    static ByteBuffer authenticationBatch(int requestId, List<AuthRequest> requests) throws ServerException {
+        if (requests == null) {
+            throw new ServerException("Missing authentication requests.");
+        }
+
+        int length = 4;
+        for (AuthRequest request : requests) {
+            length += (request == null ? 6 : stringLength(request.username) + fieldLength(request.message) + fieldLength(request.signature));
+        }
+
+        final ByteBuffer frame = frame(requestId, AUTHENTICATION_BATCH, length);
+        frame.putInt(requests.size());
+        for (AuthRequest request : requests) {
+            if (request == null) {
+                frame.putShort((short)0).putShort((short)0).putShort((short)0);
+            } else {
+                putString(frame, request.username);
+                putBytes(frame, request.message);
+                putBytes(frame, request.signature);
+            }
+        }
+
+        return flip(frame);
+    }
+
+    static ByteBuffer acknowledgement(int requestId) {
+        return flip(frame(requestId, ACKNOWLEDGEMENT, 0));
+    }
+
+    static ByteBuffer challenge(int requestId, byte[] message) throws ServerException {
+        final ByteBuffer frame = frame(requestId, CHALLENGE, fieldLength(message));
+        putBytes(frame, message);
+
+        return flip(frame);
+    }
+
+    static ByteBuffer results(int requestId, boolean... results) throws ServerException {
+        final ByteBuffer frame = frame(requestId, RESULTS, 4 + (results.length + 7)/8);
+        frame.putInt(results.length);
+        for (int i=0 ; i<results.length ; i+=8) {
+            int bits = 0;
+            for (int j=i ; j<Math.min(i + 8, results.length) ; j++) {
+                if (results[j]) {
+                    bits |= 1 << (j - i);
+                }
+            }
+            frame.put((byte)bits);
+        }
+
+        return flip(frame);
+    }
+
+    static ByteBuffer error(int requestId, String message) {
+        final String truncated = (message == null || message.length() <= MAX_FIELD_LENGTH/3 ? message : message.substring(0, MAX_FIELD_LENGTH/3));
+        final ByteBuffer frame = frame(requestId, ERROR, stringLength(truncated));
+        putString(frame, truncated);
+
+        return flip(frame);
+    }
+
+    /**
+     * Reads the request id of a frame, whose length field has already been consumed.
+     */
+    static int getRequestId(ByteBuffer frame) throws ServerException {
+        checkRemaining(frame, 4);
+
+        return frame.getInt();
+    }
+
+    /**
+     * Reads the version and type of the message that follows the request id.
+     */
+    static byte getMessageType(ByteBuffer frame) throws ServerException {
+        checkRemaining(frame, 2);
+        final byte version = frame.get();
+        if (version != VERSION) {
+            throw new ServerException("Unsupported wire format version " + version + ".");
+        }
+
+        return frame.get();
+    }
+
+    static String getString(ByteBuffer frame) throws ServerException {
+        final int length = getFieldLength(frame);
+        final String value;
+        if (frame.hasArray()) {
+            value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, UTF_8);
+            frame.position(frame.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            frame.get(bytes);
+            value = new String(bytes, UTF_8);
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns a byte field as a view of the frame buffer, without copying it.
+     */
+    static ByteBuffer getSlice(ByteBuffer frame) throws ServerException {
+        final int length = getFieldLength(frame);
+        final ByteBuffer view = frame.duplicate();
+        view.limit(view.position() + length);
+        frame.position(frame.position() + length);
+
+        return view.slice();
+    }
+
+    static byte[] getBytes(ByteBuffer frame) throws ServerException {
+        final byte[] value = new byte[getFieldLength(frame)];
+        frame.get(value);
+
+        return value;
+    }
+
+    static PublicKey getKey(ByteBuffer frame, KeyCodec keyCodec) throws ServerException, KeySerializationException {
+        final ByteBuffer encoded = getSlice(frame);
+        if (encoded.hasArray()) {
+            return keyCodec.decode(encoded.array(), encoded.arrayOffset(), encoded.remaining());
+        }
+
+        final byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+
+        return keyCodec.decode(bytes, 0, bytes.length);
+    }
+
+    static List<AuthRequest> getAuthenticationBatch(ByteBuffer frame) throws ServerException {
+        checkRemaining(frame, 4);
+        final int count = frame.getInt();
+        if (count < 0 || count > frame.remaining()/6) { // Each request takes at least three length fields.
+            throw new ServerException("Malformed message.");
+        }
+
+        final List<AuthRequest> requests = new ArrayList<>(count);
+        for (int i=0 ; i<count ; i++) {
+            requests.add(new AuthRequest(getString(frame), getBytes(frame), getBytes(frame)));
+        }
+
+        return requests;
+    }
+
+    static boolean[] getResults(ByteBuffer frame) throws ServerException {
+        checkRemaining(frame, 4);
+        final int count = frame.getInt();
+        if (count < 0) {
+            throw new ServerException("Malformed message.");
+        }
+        checkRemaining(frame, (count + 7)/8);
+
+        final boolean[] results = new boolean[count];
+        int bits = 0;
+        for (int i=0 ; i<count ; i++) {
+            if (i % 8 == 0) {
+                bits = frame.get();
+            }
+            results[i] = (bits & (1 << (i % 8))) != 0;
+        }
+
+        return results;
+    }
+
+    private static ByteBuffer frame(int requestId, byte type, int bodyLength) throws ServerException {
+        final int length = MIN_FRAME_LENGTH + bodyLength;
+        if (length > MAX_FRAME_LENGTH) {
+            throw new ServerException("Message too long.");
+        }
+
+        return ByteBuffer.allocate(LENGTH_FIELD + length).putInt(length).putInt(requestId).put(VERSION).put(type);
+    }
+
+    private static ByteBuffer flip(ByteBuffer frame) {
+        frame.flip();
+
+        return frame;
+    }
+
+    private static int fieldLength(byte[] value) throws ServerException {
+        return 2 + checkFieldLength(value == null ? 0 : value.length);
+    }
+
+    private static int stringLength(String value) throws ServerException {
+        return 2 + checkFieldLength(utf8Length(value));
+    }
+
+    private static int checkFieldLength(int length) throws ServerException {
+        if (length > MAX_FIELD_LENGTH) {
+            throw new ServerException("Message field too long.");
+        }
+
+        return length;
+    }
+
+    private static int getFieldLength(ByteBuffer frame) throws ServerException {
+        checkRemaining(frame, 2);
+        final int length = frame.getShort() & 0xffff;
+        checkRemaining(frame, length);
+
+        return length;
+    }
+
+    private static void checkRemaining(ByteBuffer frame, int length) throws ServerException {
+        if (frame.remaining() < length) {
+            throw new ServerException("Malformed message.");
+        }
+    }
+
+    // Null values are sent as empty ones, which the server rejects in the same way.
+    private static void putBytes(ByteBuffer frame, byte[] value) {
+        if (value == null) {
+            frame.putShort((short)0);
+        } else {
+            frame.putShort((short)value.length).put(value);
+        }
+    }
+
+    private static void putString(ByteBuffer frame, String value) {
+        if (value == null) {
+            frame.putShort((short)0);
+            return;
+        }
+
+        frame.putShort((short)utf8Length(value));
+        for (int i=0 ; i<value.length() ; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                frame.put((byte)c);
+            } else if (c < 0x800) {
+                frame.put((byte)(0xc0 | (c >> 6))).put((byte)(0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                if (isSurrogatePair(value, i)) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    frame.put((byte)(0xf0 | (codePoint >> 18))).put((byte)(0x80 | ((codePoint >> 12) & 0x3f))).put((byte)(0x80 | ((codePoint >> 6) & 0x3f))).put((byte)(0x80 | (codePoint & 0x3f)));
+                } else {
+                    frame.put((byte)'?'); // Same replacement as String.getBytes(UTF_8).
+                }
+            } else {
+                frame.put((byte)(0xe0 | (c >> 12))).put((byte)(0x80 | ((c >> 6) & 0x3f))).put((byte)(0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        int length = 0;
+        for (int i=0 ; i<value.length() ; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (isSurrogatePair(value, i)) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 1;
+                }
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    private static boolean isSurrogatePair(String value, int i) {
+        return Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1));
+    }
+
+    private WireCodec() {}
+}
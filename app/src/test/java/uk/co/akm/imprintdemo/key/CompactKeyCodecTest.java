@@ -0,0 +1,177 @@
+package uk.co.akm.imprintdemo.key;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+
+import static org.junit.Assert.*;
+
+public class CompactKeyCodecTest {
+    private final CompactKeyCodec codec = new CompactKeyCodec();
+    private final CompactKeyCodec compressingCodec = new CompactKeyCodec(true);
+
+    @Test
+    public void encodesP256KeysAsUncompressedPoints() throws Exception {
+        final PublicKey key = ecKey("secp256r1");
+        final byte[] encoded = codec.encode(key);
+
+        assertEquals(1 + 65, encoded.length);
+        assertEquals(CompactKeyCodec.TYPE_EC_P256, type(encoded));
+        assertEquals(key, decode(codec, encoded));
+        assertEquals(key, decode(compressingCodec, encoded));
+    }
+
+    @Test
+    public void encodesP256KeysAsCompressedPoints() throws Exception {
+        boolean evenY = false;
+        boolean oddY = false;
+        while (!evenY || !oddY) {
+            final PublicKey key = ecKey("secp256r1");
+            final byte[] encoded = compressingCodec.encode(key);
+
+            assertEquals(1 + 33, encoded.length);
+            assertEquals(CompactKeyCodec.TYPE_EC_P256_COMPRESSED, type(encoded));
+            assertEquals(key, decode(compressingCodec, encoded));
+            assertEquals(key, decode(codec, encoded));
+
+            if (((ECPublicKey)key).getW().getAffineY().testBit(0)) {
+                oddY = true;
+            } else {
+                evenY = true;
+            }
+        }
+    }
+
+    @Test
+    public void encodesRsaF4KeysAsTheirModulus() throws Exception {
+        final PublicKey key = rsaKey(RSAKeyGenParameterSpec.F4);
+        final byte[] encoded = codec.encode(key);
+
+        assertEquals(1 + 256, encoded.length);
+        assertEquals(CompactKeyCodec.TYPE_RSA_F4, type(encoded));
+        assertEquals(key, decode(codec, encoded));
+    }
+
+    @Test
+    public void encodesEd25519KeysAsTheirKeyBytes() throws Exception {
+        final PublicKey key = KeyPairGenerator.getInstance("Ed25519").generateKeyPair().getPublic();
+        final byte[] encoded = codec.encode(key);
+
+        assertEquals(1 + 32, encoded.length);
+        assertEquals(CompactKeyCodec.TYPE_ED25519, type(encoded));
+        assertEquals(key, decode(codec, encoded));
+    }
+
+    @Test
+    public void encodesOtherKeysAsX509() throws Exception {
+        final PublicKey[] keys = {ecKey("secp384r1"), rsaKey(BigInteger.valueOf(3))};
+        for (PublicKey key : keys) {
+            final byte[] encoded = codec.encode(key);
+
+            assertEquals(CompactKeyCodec.TYPE_X509, type(encoded));
+            assertEquals(key, decode(codec, encoded));
+            assertEquals(key, decode(compressingCodec, encoded));
+        }
+    }
+
+    @Test(expected = KeySerializationException.class)
+    public void rejectsAnUnknownVersion() throws Exception {
+        final byte[] encoded = codec.encode(ecKey("secp256r1"));
+        encoded[0] = (byte)(((CompactKeyCodec.VERSION + 1) << 4) | CompactKeyCodec.TYPE_EC_P256);
+
+        decode(codec, encoded);
+    }
+
+    @Test(expected = KeySerializationException.class)
+    public void rejectsAnUnknownType() throws Exception {
+        final byte[] encoded = codec.encode(ecKey("secp256r1"));
+        encoded[0] = (byte)((CompactKeyCodec.VERSION << 4) | 0x0f);
+
+        decode(codec, encoded);
+    }
+
+    @Test(expected = KeySerializationException.class)
+    public void rejectsATruncatedPoint() throws Exception {
+        final byte[] encoded = codec.encode(ecKey("secp256r1"));
+
+        codec.decode(encoded, 0, encoded.length - 1);
+    }
+
+    @Test(expected = KeySerializationException.class)
+    public void rejectsACompressedPointThatIsNotOnTheCurve() throws Exception {
+        final byte[] encoded = new byte[1 + 33];
+        encoded[0] = (byte)((CompactKeyCodec.VERSION << 4) | CompactKeyCodec.TYPE_EC_P256_COMPRESSED);
+        encoded[1] = 0x02;
+        for (int x=0 ; ; x++) {
+            encoded[encoded.length - 1] = (byte)x;
+            if (Secp256r1.y(BigInteger.valueOf(x), false) == null) {
+                break;
+            }
+        }
+
+        codec.decode(encoded, 0, encoded.length);
+    }
+
+    @Test(expected = KeySerializationException.class)
+    public void rejectsAnUncompressedPointThatIsNotOnTheCurve() throws Exception {
+        final byte[] encoded = codec.encode(ecKey("secp256r1"));
+        encoded[encoded.length - 1] ^= 1;
+
+        codec.decode(encoded, 0, encoded.length);
+    }
+
+    // A small x of a curve point, plus p, fits in the encoding and satisfies the curve equation mod p.
+    @Test(expected = KeySerializationException.class)
+    public void rejectsAnUncompressedCoordinateOutsideTheField() throws Exception {
+        BigInteger x = BigInteger.ZERO;
+        while (Secp256r1.y(x, false) == null) {
+            x = x.add(BigInteger.ONE);
+        }
+
+        final byte[] encoded = codec.encode(ecKey("secp256r1"));
+        Secp256r1.writeFieldElement(x.add(Secp256r1.P), encoded, 2);
+        Secp256r1.writeFieldElement(Secp256r1.y(x, false), encoded, 2 + Secp256r1.FIELD_LENGTH);
+
+        codec.decode(encoded, 0, encoded.length);
+    }
+
+    @Test(expected = KeySerializationException.class)
+    public void rejectsAnEmptyAlgorithmName() throws Exception {
+        final byte[] encoded = codec.encode(ecKey("secp384r1"));
+        encoded[1] = 0;
+
+        codec.decode(encoded, 0, encoded.length);
+    }
+
+    // Decodes the key from the middle of a larger array, to check that the offset is respected.
+    private static PublicKey decode(KeyCodec codec, byte[] encoded) {
+        final byte[] data = new byte[encoded.length + 10];
+        System.arraycopy(encoded, 0, data, 3, encoded.length);
+
+        return codec.decode(data, 3, encoded.length);
+    }
+
+    private static int type(byte[] encoded) {
+        return encoded[0] & 0x0f;
+    }
+
+    private static PublicKey ecKey(String curve) throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curve));
+
+        return generator.generateKeyPair().getPublic();
+    }
+
+    private static PublicKey rsaKey(BigInteger publicExponent) throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(new RSAKeyGenParameterSpec(2048, publicExponent));
+
+        return generator.generateKeyPair().getPublic();
+    }
+}
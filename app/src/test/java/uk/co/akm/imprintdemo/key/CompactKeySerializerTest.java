@@ -0,0 +1,95 @@
+package uk.co.akm.imprintdemo.key;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.EnumMap;
+import java.util.Map;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.MetricsSink;
+import uk.co.akm.imprintdemo.metrics.Operation;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+import static org.junit.Assert.*;
+
+public class CompactKeySerializerTest {
+    private final KeySerializer serializer = KeySerializerFactory.compactInstance();
+
+    @After
+    public void uninstallMetrics() {
+        Metrics.install(null);
+    }
+
+    @Test
+    public void deserializesCompactAndSeparatedKeys() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final PublicKey key = generator.generateKeyPair().getPublic();
+
+        assertEquals(key, serializer.deserialize(serializer.serialize(key)));
+        assertEquals(key, serializer.deserialize(KeySerializerFactory.instance().serialize(key)));
+    }
+
+    @Test
+    public void cachesDeserializedKeysOnlyWhenAsked() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final String serializedKey = serializer.serialize(generator.generateKeyPair().getPublic());
+        final KeySerializer uncachedSerializer = KeySerializerFactory.compactInstance(0);
+
+        assertSame(serializer.deserialize(serializedKey), serializer.deserialize(serializedKey));
+        assertNotSame(uncachedSerializer.deserialize(serializedKey), uncachedSerializer.deserialize(serializedKey));
+    }
+
+    @Test
+    public void countsAnInvalidKeyOnce() {
+        final CountingSink sink = install();
+        assertFails("AAAA"); // Valid Base64 of an unknown version.
+
+        assertEquals(1, sink.counted(Outcome.KEY_DESERIALIZATION_ERROR));
+    }
+
+    @Test
+    public void countsInvalidBase64Once() {
+        final CountingSink sink = install();
+        assertFails("!!!!");
+
+        assertEquals(1, sink.counted(Outcome.KEY_DESERIALIZATION_ERROR));
+    }
+
+    private void assertFails(String serializedKey) {
+        try {
+            serializer.deserialize(serializedKey);
+            fail("Deserialized " + serializedKey);
+        } catch (KeySerializationException expected) {}
+    }
+
+    private static CountingSink install() {
+        final CountingSink sink = new CountingSink();
+        Metrics.install(sink);
+
+        return sink;
+    }
+
+    private static final class CountingSink implements MetricsSink {
+        private final Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+
+        @Override
+        public void record(Operation operation, long durationNanos) {}
+
+        @Override
+        public synchronized void count(Outcome outcome) {
+            counts.put(outcome, counted(outcome) + 1);
+        }
+
+        synchronized int counted(Outcome outcome) {
+            final Integer count = counts.get(outcome);
+
+            return (count == null ? 0 : count);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DurableUserRegistryTest {
+    private static final long NO_PERIODIC_CHECKPOINTS = 3600000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheUsersAfterReopening() throws Exception {
+        final File directory = folder.newFolder();
+        final PublicKey[] keys = keys(3);
+        final DurableUserRegistry registry = open(directory, 16);
+        for (int i=0 ; i<100 ; i++) { // More users than the initial capacity, so that the index grows.
+            assertTrue(registry.register("user" + i, keys[i % keys.length]));
+        }
+        registry.close();
+
+        final DurableUserRegistry reopened = open(directory, 16);
+        assertEquals(100, reopened.size());
+        for (int i=0 ; i<100 ; i++) {
+            assertEquals(i, reopened.find("user" + i));
+            assertEquals("user" + i, reopened.username(i));
+            assertEquals(keys[i % keys.length], reopened.publicKey(i));
+        }
+        assertEquals(UserRegistry.NOT_REGISTERED, reopened.find("user100"));
+        reopened.close();
+    }
+
+    @Test
+    public void replaysTheUsersAfterTheCheckpoint() throws Exception {
+        final File directory = folder.newFolder();
+        final PublicKey[] keys = keys(1);
+        final DurableUserRegistry registry = open(directory, 16);
+        for (int i=0 ; i<20 ; i++) {
+            registry.register("user" + i, keys[0]);
+        }
+        registry.checkpoint();
+        for (int i=20 ; i<40 ; i++) {
+            registry.register("user" + i, keys[0]);
+        }
+
+        // Not closed, like after a crash: the users after the checkpoint are in the log and may be in the index.
+        final DurableUserRegistry reopened = open(directory, 16);
+        assertEquals(40, reopened.size());
+        for (int i=0 ; i<40 ; i++) {
+            assertEquals(i, reopened.find("user" + i));
+        }
+        assertTrue(reopened.register("user40", keys[0]));
+        assertEquals(40, reopened.find("user40"));
+        reopened.close();
+        registry.close();
+    }
+
+    @Test
+    public void truncatesATornRecord() throws Exception {
+        final File directory = folder.newFolder();
+        final PublicKey[] keys = keys(1);
+        final DurableUserRegistry registry = open(directory, 16);
+        registry.register("a", keys[0]);
+        registry.register("b", keys[0]);
+        registry.close();
+
+        final File log = new File(directory, "users.log");
+        final long length = log.length();
+        final RandomAccessFile file = new RandomAccessFile(log, "rw");
+        try {
+            file.setLength(length - 3); // Cuts the record of b short.
+        } finally {
+            file.close();
+        }
+
+        final DurableUserRegistry reopened = open(directory, 16);
+        assertEquals(1, reopened.size());
+        assertEquals(0, reopened.find("a"));
+        assertEquals(UserRegistry.NOT_REGISTERED, reopened.find("b"));
+        assertTrue(reopened.register("b", keys[0]));
+        assertEquals(1, reopened.find("b"));
+        reopened.close();
+    }
+
+    @Test
+    public void registersEachUsernameOnce() throws Exception {
+        final PublicKey[] keys = keys(1);
+        final DurableUserRegistry registry = open(folder.newFolder(), 16);
+        final AtomicInteger registered = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t=0 ; t<4 ; t++) {
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i=0 ; i<50 ; i++) {
+                        if (registry.register("user" + i, keys[0])) {
+                            registered.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(50, registered.get());
+        assertEquals(50, registry.size());
+        for (int i=0 ; i<50 ; i++) {
+            assertEquals("user" + i, registry.username(registry.find("user" + i)));
+        }
+        registry.close();
+    }
+
+    @Test
+    public void reusesDecodedKeys() throws Exception {
+        final DurableUserRegistry registry = open(folder.newFolder(), 16);
+        registry.register("a", keys(1)[0]);
+
+        assertSame(registry.publicKey(0), registry.publicKey(0));
+        registry.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacitiesThatDoNotFitAMapping() throws Exception {
+        open(folder.newFolder(), DurableUserRegistry.MAX_CAPACITY + 1);
+    }
+
+    private static DurableUserRegistry open(File directory, int initialCapacity) throws Exception {
+        return new DurableUserRegistry(directory, initialCapacity, NO_PERIODIC_CHECKPOINTS);
+    }
+
+    private static PublicKey[] keys(int count) throws Exception {
+        final PublicKey[] keys = new PublicKey[count];
+        for (int i=0 ; i<count ; i++) {
+            keys[i] = SignatureCases.ecKeyPair().getPublic();
+        }
+
+        return keys;
+    }
+}
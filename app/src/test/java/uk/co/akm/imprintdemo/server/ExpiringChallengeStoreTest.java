@@ -0,0 +1,80 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExpiringChallengeStoreTest {
+    private static final int LENGTH = 32;
+    private static final long LONG_TTL_MILLIS = 600000;
+
+    @Test
+    public void consumesAChallengeOnce() {
+        final ExpiringChallengeStore store = store(LONG_TTL_MILLIS, 10);
+        final byte[] message = store.issue(1, "a");
+
+        assertFalse(store.consume(2, "b", message));
+        assertTrue(store.consume(1, "a", message));
+        assertFalse(store.consume(1, "a", message));
+    }
+
+    @Test
+    public void keepsOnlyTheLastChallenge() {
+        final ExpiringChallengeStore store = store(LONG_TTL_MILLIS, 10);
+        final byte[] first = store.issue(1, "a");
+        final byte[] second = store.issue(1, "a");
+
+        assertFalse(store.consume(1, "a", first));
+        assertTrue(store.consume(1, "a", second));
+    }
+
+    @Test
+    public void capsTheOutstandingChallenges() {
+        final ExpiringChallengeStore store = store(LONG_TTL_MILLIS, 2);
+        store.issue(1, "a");
+        final byte[] message = store.issue(2, "b");
+        store.issue(1, "a"); // Replacing a challenge does not count.
+        try {
+            store.issue(3, "c");
+            fail("Issued more challenges than the cap.");
+        } catch (ServerException expected) {}
+
+        assertTrue(store.consume(2, "b", message));
+        store.issue(3, "c");
+    }
+
+    @Test
+    public void expiresChallenges() throws Exception {
+        final ExpiringChallengeStore store = store(50, 1);
+        final byte[] message = store.issue(1, "a");
+        Thread.sleep(150);
+
+        assertFalse(store.consume(1, "a", message));
+        store.issue(2, "b"); // The expired challenge no longer counts against the cap.
+        assertEquals(1, store.wheelEntries());
+    }
+
+    @Test
+    public void queuesReissuedChallengesOncePerTick() {
+        final ExpiringChallengeStore store = store(LONG_TTL_MILLIS, 10);
+        for (int i=0 ; i<1000 ; i++) {
+            store.issue(1, "a");
+        }
+
+        assertTrue(store.wheelEntries() <= 2); // The issues may cross a tick, but not two.
+    }
+
+    @Test
+    public void queuesChallengesConsumedAndReissuedOncePerTick() {
+        final ExpiringChallengeStore store = store(LONG_TTL_MILLIS, 1);
+        for (int i=0 ; i<1000 ; i++) {
+            assertTrue(store.consume(1, "a", store.issue(1, "a")));
+        }
+
+        assertTrue(store.wheelEntries() <= 2);
+    }
+
+    private static ExpiringChallengeStore store(long ttlMillis, int maxChallenges) {
+        return new ExpiringChallengeStore(new DirectNonceSource(LENGTH), ttlMillis, maxChallenges);
+    }
+}
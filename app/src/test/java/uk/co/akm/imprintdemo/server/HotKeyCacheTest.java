@@ -0,0 +1,106 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.security.PublicKey;
+
+import static org.junit.Assert.*;
+
+public class HotKeyCacheTest {
+    private static final int CAPACITY = 64;
+
+    @Test
+    public void returnsTheKeysPut() throws Exception {
+        final PublicKey[] keys = keys(CAPACITY);
+        final HotKeyCache cache = new HotKeyCache(CAPACITY);
+        for (int i=0 ; i<CAPACITY ; i++) {
+            cache.put(i, keys[i]);
+        }
+
+        for (int i=0 ; i<CAPACITY ; i++) {
+            assertSame(keys[i], cache.get(i));
+        }
+        assertNull(cache.get(CAPACITY));
+        assertNull(cache.get(-1));
+    }
+
+    @Test
+    public void replacesTheKeyOfAUser() throws Exception {
+        final PublicKey[] keys = keys(2);
+        final HotKeyCache cache = new HotKeyCache(1);
+        cache.put(7, keys[0]);
+        cache.put(7, keys[1]);
+
+        assertSame(keys[1], cache.get(7));
+    }
+
+    @Test
+    public void holdsAtMostItsCapacity() throws Exception {
+        final PublicKey[] keys = keys(1);
+        final HotKeyCache cache = new HotKeyCache(CAPACITY);
+        for (int i=0 ; i<100*CAPACITY ; i++) {
+            cache.put(i, keys[0]);
+        }
+
+        int cached = 0;
+        for (int i=0 ; i<100*CAPACITY ; i++) {
+            if (cache.get(i) != null) {
+                cached++;
+            }
+        }
+        assertEquals(CAPACITY, cached);
+    }
+
+    @Test
+    public void keepsTheKeysReadSinceTheyWerePut() throws Exception {
+        final PublicKey[] keys = keys(1);
+        final HotKeyCache cache = new HotKeyCache(1); // A single set, so every user competes for the same entries.
+        cache.put(0, keys[0]);
+        for (int i=1 ; i<100 ; i++) {
+            assertNotNull(cache.get(0));
+            cache.put(i, keys[0]);
+        }
+
+        assertNotNull(cache.get(0));
+    }
+
+    @Test
+    public void readsWhileOtherThreadsPut() throws Exception {
+        final PublicKey[] keys = keys(CAPACITY);
+        final HotKeyCache cache = new HotKeyCache(CAPACITY);
+        final Thread[] threads = new Thread[4];
+        final boolean[] wrong = new boolean[threads.length];
+        for (int t=0 ; t<threads.length ; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i=0 ; i<100000 ; i++) {
+                        final int userId = (i*31 + thread) % (4*CAPACITY);
+                        final PublicKey key = cache.get(userId);
+                        if (key == null) {
+                            cache.put(userId, keys[userId % CAPACITY]);
+                        } else if (key != keys[userId % CAPACITY]) {
+                            wrong[thread] = true;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (int t=0 ; t<threads.length ; t++) {
+            threads[t].join();
+            assertFalse(wrong[t]);
+        }
+    }
+
+    private static PublicKey[] keys(int count) throws Exception {
+        final PublicKey[] keys = new PublicKey[count];
+        for (int i=0 ; i<count ; i++) {
+            keys[i] = SignatureCases.ecKeyPair().getPublic();
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,185 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.akm.imprintdemo.metrics.Metrics;
+import uk.co.akm.imprintdemo.metrics.MetricsSink;
+import uk.co.akm.imprintdemo.metrics.Operation;
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+import static org.junit.Assert.*;
+
+public class InMemoryRemoteServerTest {
+    private static final int USERS = 40;
+
+    @After
+    public void uninstallMetrics() {
+        Metrics.install(null);
+    }
+
+    @Test
+    public void authenticatesABatchInOrder() throws Exception {
+        checkBatch(new InMemoryRemoteServer(4, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance()));
+    }
+
+    @Test
+    public void authenticatesABatchInOrderWithABatchEngine() throws Exception {
+        checkBatch(new InMemoryRemoteServer(4, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance(), VerificationEngineFactory.batchInstance()));
+    }
+
+    // The requests that are not null are timed, and so are the signatures of the requests with a valid challenge.
+    @Test
+    public void timesEveryRequestOfABatch() throws Exception {
+        for (RemoteServer server : servers()) {
+            final RecordingSink sink = new RecordingSink();
+            Metrics.install(sink);
+            checkBatch(server);
+
+            assertEquals(2*USERS - USERS/4, sink.recorded(Operation.AUTHENTICATE));
+            assertEquals(USERS, sink.recorded(Operation.VERIFY_SIGNATURE));
+        }
+    }
+
+    @Test
+    public void acceptsAChallengeOnceInABatch() throws Exception {
+        for (RemoteServer server : servers()) {
+            final KeyPair keyPair = SignatureCases.ecKeyPair();
+            server.registerPublicKey("user", keyPair.getPublic());
+            final byte[] message = server.getAuthenticationMessageToSign("user");
+            final AuthRequest request = new AuthRequest("user", message, SignatureCases.sign(keyPair.getPrivate(), message));
+
+            final List<AuthRequest> batch = new ArrayList<>();
+            for (int i=0 ; i<8 ; i++) {
+                batch.add(request);
+            }
+
+            int authenticated = 0;
+            for (boolean result : server.authenticateAll(batch)) {
+                authenticated += (result ? 1 : 0);
+            }
+            assertEquals(1, authenticated);
+            assertFalse(server.authenticateAll(batch.subList(0, 1))[0]);
+            assertFalse(server.authenticate("user", request.message, request.signature));
+            server.close();
+        }
+    }
+
+    @Test
+    public void authenticatesAnEmptyBatch() throws Exception {
+        for (RemoteServer server : servers()) {
+            assertEquals(0, server.authenticateAll(new ArrayList<AuthRequest>()).length);
+            server.close();
+        }
+    }
+
+    @Test
+    public void rejectsAMissingBatch() throws Exception {
+        for (RemoteServer server : servers()) {
+            try {
+                server.authenticateAll(null);
+                fail("Accepted a missing batch.");
+            } catch (ServerException expected) {}
+            server.close();
+        }
+    }
+
+    @Test
+    public void registersAndAuthenticatesEd25519Keys() throws Exception {
+        final RemoteServer server = new InMemoryRemoteServer();
+        final KeyPair keyPair = SignatureCases.keyPair("Ed25519");
+        server.registerPublicKey("user", keyPair.getPublic());
+        final byte[] message = server.getAuthenticationMessageToSign("user");
+
+        assertTrue(server.authenticate("user", message, SignatureCases.sign(keyPair.getPrivate(), message)));
+        server.close();
+    }
+
+    @Test
+    public void rejectsEdDsaKeysOfOtherCurves() throws Exception {
+        final RemoteServer server = new InMemoryRemoteServer();
+        try {
+            server.registerPublicKey("user", SignatureCases.keyPair("Ed448").getPublic());
+            fail("Registered an Ed448 key.");
+        } catch (ServerException expected) {}
+
+        try {
+            server.getAuthenticationMessageToSign("user");
+            fail("Registered an Ed448 key.");
+        } catch (ServerException expected) {}
+        server.close();
+    }
+
+    @Test
+    public void rejectsABlankUsername() throws Exception {
+        final RemoteServer server = new InMemoryRemoteServer();
+        try {
+            server.authenticate(" \t", new byte[]{1}, new byte[]{1});
+            fail("Accepted a blank username.");
+        } catch (ServerException expected) {
+            assertEquals("Missing username.", expected.getMessage());
+        }
+        server.close();
+    }
+
+    // Every third user signs with the wrong key, and the batch is interleaved with requests that cannot succeed.
+    private static void checkBatch(RemoteServer server) throws Exception {
+        final KeyPair keyPair = SignatureCases.ecKeyPair();
+        final KeyPair otherKeyPair = SignatureCases.ecKeyPair();
+        final List<AuthRequest> batch = new ArrayList<>();
+        final List<Boolean> expected = new ArrayList<>();
+        for (int i=0 ; i<USERS ; i++) {
+            final String username = "user" + i;
+            server.registerPublicKey(username, keyPair.getPublic());
+            final byte[] message = server.getAuthenticationMessageToSign(username);
+            final boolean valid = (i % 3 != 0);
+            batch.add(new AuthRequest(username, message, SignatureCases.sign((valid ? keyPair : otherKeyPair).getPrivate(), message)));
+            expected.add(valid);
+
+            switch (i % 4) {
+                case 0: batch.add(null); break;
+                case 1: batch.add(new AuthRequest(null, message, new byte[]{1})); break;
+                case 2: batch.add(new AuthRequest(username, new byte[0], new byte[]{1})); break;
+                default: batch.add(new AuthRequest("unknown" + i, message, new byte[]{1})); break;
+            }
+            expected.add(false);
+        }
+
+        final boolean[] results = server.authenticateAll(batch);
+        assertEquals(expected.size(), results.length);
+        for (int i=0 ; i<results.length ; i++) {
+            assertEquals("Request " + i, expected.get(i), results[i]);
+        }
+        server.close();
+    }
+
+    private static RemoteServer[] servers() {
+        return new RemoteServer[]{
+                new InMemoryRemoteServer(4, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance()),
+                new InMemoryRemoteServer(4, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance(), VerificationEngineFactory.batchInstance())};
+    }
+
+    private static final class RecordingSink implements MetricsSink {
+        private final Map<Operation, Integer> records = new EnumMap<>(Operation.class);
+
+        @Override
+        public synchronized void record(Operation operation, long durationNanos) {
+            records.put(operation, recorded(operation) + 1);
+        }
+
+        @Override
+        public void count(Outcome outcome) {}
+
+        synchronized int recorded(Operation operation) {
+            final Integer count = records.get(operation);
+
+            return (count == null ? 0 : count);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NioRemoteServerHostTest {
+    private static final int REQUESTS = 4*NioRemoteServerHost.MAX_OUTSTANDING_REQUESTS;
+
+    @Test
+    public void stopsReadingAConnectionWithTooManyOutstandingRequests() throws Exception {
+        final BlockingServer server = new BlockingServer();
+        final RemoteServerHost host = new NioRemoteServerHost(server, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new ThreadPerTaskExecutor());
+        final Socket socket = new Socket(host.address().getAddress(), host.address().getPort());
+        try {
+            final OutputStream out = socket.getOutputStream();
+            for (int i=0 ; i<REQUESTS ; i++) {
+                final ByteBuffer frame = WireCodec.challengeRequest(i, "user");
+                out.write(frame.array(), 0, frame.limit());
+            }
+            out.flush();
+
+            Thread.sleep(500);
+            assertEquals(NioRemoteServerHost.MAX_OUTSTANDING_REQUESTS, server.calls.get());
+
+            // All the requests are served once the responses are written back.
+            server.release.countDown();
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i=0 ; i<REQUESTS ; i++) {
+                final byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                assertEquals(WireCodec.CHALLENGE, WireCodec.getMessageType(ByteBuffer.wrap(response, 4, response.length - 4)));
+            }
+            assertEquals(REQUESTS, server.calls.get());
+        } finally {
+            socket.close();
+            host.close();
+        }
+    }
+
+    @Test
+    public void failsMissingBatchRequestsLikeTheServer() throws Exception {
+        final KeyPair keyPair = SignatureCases.ecKeyPair();
+        final RemoteServer server = new InMemoryRemoteServer();
+        final RemoteServerHost host = RemoteServerTransportFactory.hostInstance(server, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final RemoteServerClient client = RemoteServerTransportFactory.clientInstance(host.address());
+        try {
+            client.registerPublicKey("user", keyPair.getPublic());
+            final byte[] message = client.getAuthenticationMessageToSign("user");
+            final List<AuthRequest> batch = Arrays.asList(null, new AuthRequest("user", message, SignatureCases.sign(keyPair.getPrivate(), message)), null);
+
+            assertArrayEquals(new boolean[]{false, true, false}, client.authenticateAll(batch));
+        } finally {
+            client.close();
+            host.close();
+            server.close();
+        }
+    }
+
+    // Runs every request at once, so that only the host limits how many are in flight.
+    private static final class ThreadPerTaskExecutor implements Executor {
+        @Override
+        public void execute(Runnable task) {
+            new Thread(task).start();
+        }
+    }
+
+    // Holds the challenge requests until released.
+    private static final class BlockingServer implements RemoteServer {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public byte[] getAuthenticationMessageToSign(String username) {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            return new byte[]{1};
+        }
+
+        @Override
+        public void registerPublicKey(String username, String publicKeyData) {}
+
+        @Override
+        public void registerPublicKey(String username, PublicKey publicKey) {}
+
+        @Override
+        public boolean authenticate(String username, byte[] message, byte[] signature) {
+            return false;
+        }
+
+        @Override
+        public boolean[] authenticateAll(List<AuthRequest> requests) {
+            return new boolean[requests.size()];
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,162 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class P256BatchVerifierTest {
+
+    @Test
+    public void verifiesLikeJca() throws Exception {
+        final List<SignatureCases.Case> cases = mixedCases(new Random(1));
+        final boolean[] expected = jcaResults(cases);
+
+        assertArrayEquals(expected, verifyAll(VerificationEngineFactory.batchInstance(VerificationEngineFactory.instance(), 0), cases));
+        assertArrayEquals(expected, verifyAll(VerificationEngineFactory.batchInstance(VerificationEngineFactory.instance(), 3), cases));
+    }
+
+    @Test
+    public void bisectsBatchesWithFailedInversions() throws Exception {
+        final Random random = new Random(2);
+        final List<SignatureCases.Case> cases = mixedCases(random);
+        final Set<Integer> failing = new HashSet<>();
+        for (int i=0 ; i<cases.size() ; i++) {
+            if (random.nextInt(8) == 0) {
+                failing.add(i);
+            }
+        }
+
+        final FailingInversionVerifier engine = new FailingInversionVerifier(new PrecomputedVerificationEngineTest.CountingEngine(), failing);
+        assertArrayEquals(jcaResults(cases), verifyAll(engine, cases));
+        assertTrue(engine.failedBatches > 1);
+        assertTrue(engine.verifiedBatches > 1);
+    }
+
+    @Test
+    public void bisectsBatchesThatAllFail() throws Exception {
+        final List<SignatureCases.Case> cases = mixedCases(new Random(3));
+        final PrecomputedVerificationEngineTest.CountingEngine fallback = new PrecomputedVerificationEngineTest.CountingEngine();
+        final Set<Integer> failing = new HashSet<>();
+        for (int i=0 ; i<cases.size() ; i++) {
+            failing.add(i);
+        }
+        final FailingInversionVerifier engine = new FailingInversionVerifier(fallback, failing);
+
+        assertArrayEquals(jcaResults(cases), verifyAll(engine, cases));
+        assertEquals(0, engine.verifiedBatches);
+        assertEquals(cases.size(), fallback.verifications.get());
+    }
+
+    @Test
+    public void crossChecksOverrideWrongBatchResults() throws Exception {
+        final List<SignatureCases.Case> cases = mixedCases(new Random(4));
+        final P256BatchVerifier engine = new P256BatchVerifier(VerificationEngineFactory.instance(), 1) {
+            @Override
+            void verifyBatch(int[] batch, int from, int to, PublicKey[] keys, byte[][] messages, BigInteger[][] rs, boolean[] results) throws GeneralSecurityException {
+                super.verifyBatch(batch, from, to, keys, messages, rs, results);
+                for (int k=from ; k<to ; k++) {
+                    results[batch[k]] = !results[batch[k]];
+                }
+            }
+        };
+
+        assertArrayEquals(jcaResults(cases), verifyAll(engine, cases));
+    }
+
+    @Test
+    public void crossChecksOneInEveryInterval() throws Exception {
+        final Random random = new Random(5);
+        final KeyPair keyPair = SignatureCases.ecKeyPair();
+        final List<SignatureCases.Case> cases = new ArrayList<>();
+        for (int i=0 ; i<10 ; i++) {
+            cases.add(SignatureCases.ecCases(keyPair, random).get(0));
+        }
+
+        final PrecomputedVerificationEngineTest.CountingEngine fallback = new PrecomputedVerificationEngineTest.CountingEngine();
+        final BatchVerificationEngine engine = VerificationEngineFactory.batchInstance(fallback, 4);
+        for (int i=0 ; i<3 ; i++) {
+            verifyAll(engine, cases);
+        }
+        assertEquals(30/4, fallback.verifications.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingFallback() {
+        VerificationEngineFactory.batchInstance(null, 0);
+    }
+
+    // Valid and invalid signatures of several P-256 keys, mixed with those of invalid keys and other algorithms.
+    private static List<SignatureCases.Case> mixedCases(Random random) throws GeneralSecurityException {
+        final List<SignatureCases.Case> cases = new ArrayList<>();
+        for (int i=0 ; i<4 ; i++) {
+            final KeyPair keyPair = SignatureCases.ecKeyPair();
+            for (int j=0 ; j<3 ; j++) {
+                cases.addAll(SignatureCases.ecCases(keyPair, random));
+            }
+        }
+        cases.addAll(SignatureCases.invalidKeyCases(SignatureCases.ecKeyPair(), random));
+        cases.addAll(SignatureCases.otherAlgorithmCases(SignatureCases.keyPair("RSA"), random));
+        cases.addAll(SignatureCases.otherAlgorithmCases(SignatureCases.keyPair("Ed25519"), random));
+        Collections.shuffle(cases, random);
+
+        return cases;
+    }
+
+    private static boolean[] jcaResults(List<SignatureCases.Case> cases) {
+        final boolean[] results = new boolean[cases.size()];
+        for (int i=0 ; i<results.length ; i++) {
+            results[i] = SignatureCases.jcaAccepts(cases.get(i));
+        }
+
+        return results;
+    }
+
+    private static boolean[] verifyAll(BatchVerificationEngine engine, List<SignatureCases.Case> cases) throws GeneralSecurityException {
+        final PublicKey[] keys = new PublicKey[cases.size()];
+        final byte[][] messages = new byte[cases.size()][];
+        final byte[][] signatures = new byte[cases.size()][];
+        for (int i=0 ; i<keys.length ; i++) {
+            keys[i] = cases.get(i).key;
+            messages[i] = cases.get(i).message;
+            signatures[i] = cases.get(i).signature;
+        }
+
+        return engine.verifyAll(keys, messages, signatures);
+    }
+
+    // Fails the shared inversions of every batch with one of the failing signatures, like a zero factor would.
+    private static final class FailingInversionVerifier extends P256BatchVerifier {
+        private final Set<Integer> failing;
+        int failedBatches;
+        int verifiedBatches;
+
+        FailingInversionVerifier(VerificationEngine fallback, Set<Integer> failing) {
+            super(fallback, 0);
+            this.failing = failing;
+        }
+
+        @Override
+        void verifyBatch(int[] batch, int from, int to, PublicKey[] keys, byte[][] messages, BigInteger[][] rs, boolean[] results) throws GeneralSecurityException {
+            for (int k=from ; k<to ; k++) {
+                if (failing.contains(batch[k])) {
+                    failedBatches++;
+                    throw new ArithmeticException("Not invertible.");
+                }
+            }
+
+            verifiedBatches++;
+            super.verifyBatch(batch, from, to, keys, messages, rs, results);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.co.akm.imprintdemo.key.KeySerializerConstants;
+
+import static org.junit.Assert.*;
+
+public class PrecomputedVerificationEngineTest {
+    private static final int HOT_THRESHOLD = 2;
+
+    @Test
+    public void verifiesLikeJca() throws Exception {
+        final Random random = new Random(1);
+        final List<KeyPair> keyPairs = new ArrayList<>();
+        for (int i=0 ; i<3 ; i++) {
+            keyPairs.add(SignatureCases.ecKeyPair());
+        }
+
+        final List<SignatureCases.Case> cases = new ArrayList<>();
+        for (int i=0 ; i<4 ; i++) {
+            for (KeyPair keyPair : keyPairs) {
+                cases.addAll(SignatureCases.ecCases(keyPair, random));
+            }
+        }
+        cases.addAll(SignatureCases.invalidKeyCases(keyPairs.get(0), random));
+        cases.addAll(SignatureCases.otherAlgorithmCases(SignatureCases.keyPair("RSA"), random));
+        cases.addAll(SignatureCases.otherAlgorithmCases(SignatureCases.keyPair("Ed25519"), random));
+        Collections.shuffle(cases, random);
+
+        // Fewer tables than keys, so that tables are evicted and rebuilt along the way.
+        final VerificationEngine engine = VerificationEngineFactory.precomputedInstance(VerificationEngineFactory.instance(), 2, HOT_THRESHOLD, 0);
+        for (int i=0 ; i<2 ; i++) {
+            for (SignatureCases.Case signatureCase : cases) {
+                assertEquals(signatureCase.name, SignatureCases.jcaAccepts(signatureCase), SignatureCases.engineAccepts(engine, signatureCase));
+            }
+        }
+    }
+
+    @Test
+    public void verifiesHotKeysWithTheTable() throws Exception {
+        final Random random = new Random(2);
+        final KeyPair keyPair = SignatureCases.ecKeyPair();
+        final CountingEngine fallback = new CountingEngine();
+        final VerificationEngine engine = VerificationEngineFactory.precomputedInstance(fallback, 1, HOT_THRESHOLD, 0);
+
+        for (int i=0 ; i<HOT_THRESHOLD ; i++) {
+            assertTrue(SignatureCases.engineAccepts(engine, SignatureCases.ecCases(keyPair, random).get(0)));
+        }
+        assertEquals(HOT_THRESHOLD, fallback.verifications.get()); // The cross-check of the new table is the last one.
+
+        for (int i=0 ; i<5 ; i++) {
+            for (SignatureCases.Case signatureCase : SignatureCases.ecCases(keyPair, random)) {
+                final boolean decodable = (P256Signatures.decode(signatureCase.signature) != null);
+                final int fallbackVerifications = fallback.verifications.get();
+
+                assertEquals(signatureCase.name, SignatureCases.jcaAccepts(signatureCase), SignatureCases.engineAccepts(engine, signatureCase));
+                assertEquals(signatureCase.name, (decodable ? 0 : 1), fallback.verifications.get() - fallbackVerifications);
+            }
+        }
+    }
+
+    @Test
+    public void verifiesOtherKeysWithTheFallback() throws Exception {
+        final Random random = new Random(3);
+        final CountingEngine fallback = new CountingEngine();
+        final VerificationEngine engine = VerificationEngineFactory.precomputedInstance(fallback, 1, 1, 0);
+
+        final List<SignatureCases.Case> cases = new ArrayList<>();
+        cases.addAll(SignatureCases.invalidKeyCases(SignatureCases.ecKeyPair(), random));
+        cases.addAll(SignatureCases.otherAlgorithmCases(SignatureCases.keyPair("RSA"), random));
+        cases.addAll(SignatureCases.otherAlgorithmCases(SignatureCases.keyPair("Ed25519"), random));
+        for (SignatureCases.Case signatureCase : cases) {
+            final int fallbackVerifications = fallback.verifications.get();
+
+            assertEquals(signatureCase.name, SignatureCases.jcaAccepts(signatureCase), SignatureCases.engineAccepts(engine, signatureCase));
+            assertEquals(signatureCase.name, 1, fallback.verifications.get() - fallbackVerifications);
+        }
+    }
+
+    @Test
+    public void verifiesLikeJcaConcurrently() throws Exception {
+        final Random random = new Random(4);
+        final List<SignatureCases.Case> cases = new ArrayList<>();
+        for (int i=0 ; i<6 ; i++) {
+            final KeyPair keyPair = SignatureCases.ecKeyPair();
+            for (int j=0 ; j<3 ; j++) {
+                cases.addAll(SignatureCases.ecCases(keyPair, random));
+            }
+        }
+
+        final Map<SignatureCases.Case, Boolean> expected = new HashMap<>();
+        for (SignatureCases.Case signatureCase : cases) {
+            expected.put(signatureCase, SignatureCases.jcaAccepts(signatureCase));
+        }
+
+        final VerificationEngine engine = VerificationEngineFactory.precomputedInstance(VerificationEngineFactory.instance(), 3, HOT_THRESHOLD, 7);
+        final List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+        final Thread[] threads = new Thread[4];
+        for (int i=0 ; i<threads.length ; i++) {
+            final List<SignatureCases.Case> threadCases = new ArrayList<>(cases);
+            Collections.shuffle(threadCases, new Random(i));
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (SignatureCases.Case signatureCase : threadCases) {
+                        if (SignatureCases.engineAccepts(engine, signatureCase) != expected.get(signatureCase)) {
+                            mismatches.add(signatureCase.name);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<String>emptyList(), mismatches);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingFallback() {
+        VerificationEngineFactory.precomputedInstance(null, 1, 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFallbackWithOtherEcAlgorithm() {
+        final Map<String, String> signatureAlgorithms = new HashMap<>(InMemoryRemoteServer.defaultSignatureAlgorithms());
+        signatureAlgorithms.put(KeySerializerConstants.KEY_ALGORITHM_EC, "SHA512withECDSA");
+
+        VerificationEngineFactory.precomputedInstance(VerificationEngineFactory.jcaInstance(signatureAlgorithms), 1, 1, 0);
+    }
+
+    // The default engine, counting its verifications.
+    static final class CountingEngine implements VerificationEngine {
+        final VerificationEngine engine = VerificationEngineFactory.instance();
+        final AtomicInteger verifications = new AtomicInteger();
+
+        @Override
+        public boolean supports(String keyAlgorithm) {
+            return engine.supports(keyAlgorithm);
+        }
+
+        @Override
+        public boolean verify(PublicKey key, byte[] message, byte[] signature) throws GeneralSecurityException {
+            verifications.incrementAndGet();
+            return engine.verify(key, message, signature);
+        }
+    }
+}
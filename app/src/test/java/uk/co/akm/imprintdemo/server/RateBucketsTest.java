@@ -0,0 +1,81 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateBucketsTest {
+
+    @Test
+    public void admitsABurstAndThenRefillsAtTheRate() throws Exception {
+        final RateBuckets buckets = new RateBuckets(4, 100, 3); // A token every 10 ms.
+        for (int i=0 ; i<3 ; i++) {
+            assertTrue(buckets.tryAcquire(0));
+        }
+        assertFalse(buckets.tryAcquire(0));
+
+        Thread.sleep(15);
+        assertTrue(buckets.tryAcquire(0));
+    }
+
+    @Test
+    public void refillsNoMoreThanTheBurst() throws Exception {
+        final RateBuckets buckets = new RateBuckets(4, 100, 3);
+        Thread.sleep(100); // Ten intervals.
+
+        for (int i=0 ; i<3 ; i++) {
+            assertTrue(buckets.tryAcquire(1));
+        }
+        assertFalse(buckets.tryAcquire(1));
+    }
+
+    @Test
+    public void keepsTheBucketsApart() {
+        final RateBuckets buckets = new RateBuckets(4, 1e-3, 1);
+        assertTrue(buckets.tryAcquire(0));
+        assertFalse(buckets.tryAcquire(0));
+
+        assertTrue(buckets.tryAcquire(1));
+        assertTrue(buckets.tryAcquire(3));
+    }
+
+    @Test
+    public void takesBackReleasedTokens() {
+        final RateBuckets buckets = new RateBuckets(1, 1e-3, 2);
+        assertTrue(buckets.tryAcquire(0));
+        assertTrue(buckets.tryAcquire(0));
+        assertFalse(buckets.tryAcquire(0));
+
+        buckets.release(0);
+        assertTrue(buckets.tryAcquire(0));
+        assertFalse(buckets.tryAcquire(0));
+    }
+
+    @Test
+    public void mapsHashesToBuckets() {
+        final RateBuckets buckets = new RateBuckets(8, 1, 1);
+        final boolean[] used = new boolean[8];
+        for (long hash=0 ; hash<1000 ; hash++) {
+            used[buckets.bucket(hash)] = true;
+        }
+
+        for (boolean bucketUsed : used) {
+            assertTrue(bucketUsed);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBucketCountsThatAreNotPowersOfTwo() {
+        new RateBuckets(3, 1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveRate() {
+        new RateBuckets(1, 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveBurst() {
+        new RateBuckets(1, 1, 0);
+    }
+}
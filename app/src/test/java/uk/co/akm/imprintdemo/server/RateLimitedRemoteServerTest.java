@@ -0,0 +1,105 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RateLimitedRemoteServerTest {
+    private static final byte[] MESSAGE = {1};
+    private static final byte[] SIGNATURE = {2};
+
+    @Test(expected = ServerException.class)
+    public void rejectsMissingRequests() {
+        limited(new AcceptingServer(), 10, 10).authenticateAll(null);
+    }
+
+    @Test
+    public void failsMissingRequests() {
+        final AcceptingServer server = new AcceptingServer();
+        final boolean[] results = limited(server, 10, 10).authenticateAll(Arrays.asList(request("a"), null, request("b")));
+
+        assertArrayEquals(new boolean[]{true, false, true}, results);
+        assertEquals(2, server.authentications);
+    }
+
+    @Test
+    public void keepsUserTokensOfRequestsTurnedAwayGlobally() throws Exception {
+        // A single user slot, with 2 tokens, and a global bucket with 1 token that comes back in half a second.
+        final RemoteServer server = new RateLimitedRemoteServer(new AcceptingServer(), 1, 1e-3, 2, 2, 1, 0, 0);
+
+        assertTrue(server.authenticate("a", MESSAGE, SIGNATURE));
+        for (int i=0 ; i<5 ; i++) {
+            assertTooMany(server, "a");
+        }
+
+        Thread.sleep(600);
+        assertTrue(server.authenticate("a", MESSAGE, SIGNATURE));
+    }
+
+    @Test
+    public void doesNotUseGlobalTokensForUsersOverTheirLimit() {
+        final AcceptingServer acceptingServer = new AcceptingServer();
+        final RemoteServer server = limited(acceptingServer, 1, 2);
+
+        assertTrue(server.authenticate("a", MESSAGE, SIGNATURE));
+        assertTooMany(server, "a");
+        assertTooMany(server, "a");
+        assertTrue(server.authenticate("b", MESSAGE, SIGNATURE));
+        assertEquals(2, acceptingServer.authentications);
+    }
+
+    // Rates so low that no token is added back during a test.
+    private static RemoteServer limited(RemoteServer server, int userBurst, int globalBurst) {
+        return new RateLimitedRemoteServer(server, 16, 1e-3, userBurst, 1e-3, globalBurst, 0, 0);
+    }
+
+    private static AuthRequest request(String username) {
+        return new AuthRequest(username, MESSAGE, SIGNATURE);
+    }
+
+    private static void assertTooMany(RemoteServer server, String username) {
+        try {
+            server.authenticate(username, MESSAGE, SIGNATURE);
+            fail("Admitted " + username);
+        } catch (ServerException expected) {}
+    }
+
+    // Authenticates every request.
+    private static final class AcceptingServer implements RemoteServer {
+        int authentications;
+
+        @Override
+        public void registerPublicKey(String username, String publicKeyData) {}
+
+        @Override
+        public void registerPublicKey(String username, PublicKey publicKey) {}
+
+        @Override
+        public byte[] getAuthenticationMessageToSign(String username) {
+            return MESSAGE;
+        }
+
+        @Override
+        public boolean authenticate(String username, byte[] message, byte[] signature) {
+            authentications++;
+            return true;
+        }
+
+        @Override
+        public boolean[] authenticateAll(List<AuthRequest> requests) {
+            final boolean[] results = new boolean[requests.size()];
+            for (int i=0 ; i<results.length ; i++) {
+                results[i] = authenticate(requests.get(i).username, requests.get(i).message, requests.get(i).signature);
+            }
+
+            return results;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,86 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReplicationFollowerTest {
+
+    @Test
+    public void copiesTheUsersRegisteredBeforeTheLeaderStarted() throws Exception {
+        final PublicKey key = SignatureCases.ecKeyPair().getPublic();
+        final UserRegistry leaderUsers = UserRegistryFactory.inMemoryInstance();
+        for (int i=0 ; i<100 ; i++) {
+            leaderUsers.register("user" + i, key);
+        }
+
+        final ReplicationLeader leader = new ReplicationLeader(leaderUsers, ChallengeStoreFactory.instance(), 16);
+        assertEquals(100, leader.sequence());
+        assertNull(leader.changesSince(0, 10, 0)); // Only in the snapshot.
+
+        leader.registerPublicKey("user100", key);
+        assertEquals(1, leader.changesSince(100, 10, 0).size());
+
+        final ReplicationFollower follower = new ReplicationFollower(leader);
+        follower.catchUp();
+        assertEquals(101, follower.sequence());
+        assertNotNull(follower.getAuthenticationMessageToSign("user0"));
+        assertNotNull(follower.getAuthenticationMessageToSign("user100"));
+
+        follower.close();
+        leader.close();
+    }
+
+    @Test
+    public void catchesUpForUnknownUsersAtMostOncePerInterval() throws Exception {
+        final ReplicationLeader leader = new ReplicationLeader();
+        final CountingSource source = new CountingSource(leader);
+        final ReplicationFollower follower = new ReplicationFollower(source, leader, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance());
+
+        for (int i=0 ; i<1000 ; i++) {
+            try {
+                follower.getAuthenticationMessageToSign("unknown" + i);
+                fail("Issued a challenge to an unknown user.");
+            } catch (ServerException expected) {}
+        }
+        assertTrue(source.sequenceCalls.get() < 10);
+
+        // A user registered with the leader is found once the interval has passed.
+        leader.registerPublicKey("user", SignatureCases.ecKeyPair().getPublic());
+        Thread.sleep(200);
+        assertNotNull(follower.getAuthenticationMessageToSign("user"));
+
+        follower.close();
+        leader.close();
+    }
+
+    // Counts the calls that catching up makes to the leader.
+    private static final class CountingSource implements ReplicationSource {
+        final ReplicationSource source;
+        final AtomicInteger sequenceCalls = new AtomicInteger();
+
+        CountingSource(ReplicationSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public long sequence() {
+            sequenceCalls.incrementAndGet();
+            return source.sequence();
+        }
+
+        @Override
+        public List<RegistrationChange> changesSince(long sequence, int maxChanges, long waitMillis) {
+            return source.changesSince(sequence, maxChanges, waitMillis);
+        }
+
+        @Override
+        public List<RegistrationChange> snapshot(long sequence, int maxChanges) {
+            return source.snapshot(sequence, maxChanges);
+        }
+    }
+}
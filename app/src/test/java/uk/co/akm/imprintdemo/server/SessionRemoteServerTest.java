@@ -0,0 +1,123 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+
+import uk.co.akm.imprintdemo.metrics.Outcome;
+
+import static org.junit.Assert.*;
+
+public class SessionRemoteServerTest {
+    private static final byte[] SECRET = new byte[32];
+    private static final int TOKEN_LENGTH = 29;
+
+    private KeyPair keyPair;
+    private SessionRemoteServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        keyPair = SignatureCases.ecKeyPair();
+        server = new SessionRemoteServer(new InMemoryRemoteServer(), SECRET, 60000, 16);
+        server.registerPublicKey("alice", keyPair.getPublic());
+        server.registerPublicKey("bob", keyPair.getPublic());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void validatesATokenForItsUserOnly() throws Exception {
+        final byte[] token = startSession(server, "alice");
+
+        assertEquals(TOKEN_LENGTH, token.length);
+        assertTrue(server.validateSession("alice", token));
+        assertEquals(Outcome.SESSION_INVALID, server.sessionOutcome("bob", token));
+        assertEquals(Outcome.SESSION_INVALID, server.sessionOutcome("alice ", token));
+        assertFalse(server.validateSession(null, token));
+    }
+
+    @Test
+    public void startsNoSessionForAFailedAuthentication() throws Exception {
+        final byte[] message = server.getAuthenticationMessageToSign("alice");
+
+        assertNull(server.authenticateForSession("alice", message, SignatureCases.sign(SignatureCases.ecKeyPair().getPrivate(), message)));
+    }
+
+    @Test
+    public void rejectsEveryFlippedBit() throws Exception {
+        final byte[] token = startSession(server, "alice");
+        for (int i=0 ; i<8*token.length ; i++) {
+            final byte[] tampered = token.clone();
+            tampered[i/8] ^= (byte)(1 << (i % 8));
+
+            assertEquals("Bit " + i, Outcome.SESSION_INVALID, server.sessionOutcome("alice", tampered));
+        }
+    }
+
+    @Test
+    public void rejectsTokensOfAnotherLengthOrVersion() throws Exception {
+        final byte[] token = startSession(server, "alice");
+
+        assertEquals(Outcome.SESSION_INVALID, server.sessionOutcome("alice", Arrays.copyOf(token, token.length - 1)));
+        assertEquals(Outcome.SESSION_INVALID, server.sessionOutcome("alice", Arrays.copyOf(token, token.length + 1)));
+        assertEquals(Outcome.SESSION_INVALID, server.sessionOutcome("alice", new byte[0]));
+        assertEquals(Outcome.SESSION_INVALID, server.sessionOutcome("alice", null));
+
+        final byte[] otherVersion = token.clone();
+        otherVersion[0] = 2;
+        assertEquals(Outcome.SESSION_INVALID, server.sessionOutcome("alice", otherVersion));
+    }
+
+    @Test
+    public void rejectsTokensOfAnotherSecret() throws Exception {
+        final byte[] token = startSession(server, "alice");
+        final byte[] otherSecret = SECRET.clone();
+        otherSecret[0] = 1;
+        final SessionRemoteServer otherServer = new SessionRemoteServer(new InMemoryRemoteServer(), otherSecret);
+
+        assertEquals(Outcome.SESSION_INVALID, otherServer.sessionOutcome("alice", token));
+        otherServer.close();
+    }
+
+    @Test
+    public void expiresTokensAfterTheirTimeToLive() throws Exception {
+        final SessionRemoteServer shortLived = new SessionRemoteServer(new InMemoryRemoteServer(), SECRET, 100, 16);
+        shortLived.registerPublicKey("alice", keyPair.getPublic());
+        final byte[] token = startSession(shortLived, "alice");
+        assertEquals(Outcome.SESSION_VALID, shortLived.sessionOutcome("alice", token));
+
+        Thread.sleep(150);
+        assertEquals(Outcome.SESSION_EXPIRED, shortLived.sessionOutcome("alice", token));
+        shortLived.close();
+    }
+
+    @Test
+    public void revokesTheTokensIssuedBefore() throws Exception {
+        final byte[] revoked = startSession(server, "alice");
+        server.revokeSessions("alice");
+
+        assertEquals(Outcome.SESSION_REVOKED, server.sessionOutcome("alice", revoked));
+        final byte[] token = startSession(server, "alice");
+        assertEquals(Outcome.SESSION_VALID, server.sessionOutcome("alice", token));
+        assertEquals(Outcome.SESSION_REVOKED, server.sessionOutcome("alice", revoked));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAShortSecret() {
+        new SessionRemoteServer(new InMemoryRemoteServer(), new byte[31]);
+    }
+
+    private byte[] startSession(SessionRemoteServer sessionServer, String username) throws Exception {
+        final byte[] message = sessionServer.getAuthenticationMessageToSign(username);
+        final byte[] token = sessionServer.authenticateForSession(username, message, SignatureCases.sign(keyPair.getPrivate(), message));
+        assertNotNull(token);
+
+        return token;
+    }
+}
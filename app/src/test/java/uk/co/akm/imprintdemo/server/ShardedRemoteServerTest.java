@@ -0,0 +1,150 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardedRemoteServerTest {
+    private static final int USERS = 300;
+
+    private KeyPair keyPair;
+    private ShardedRemoteServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        keyPair = SignatureCases.ecKeyPair();
+        server = new ShardedRemoteServer();
+        for (String shardId : new String[]{"a", "b", "c"}) {
+            server.addShard(shardId);
+        }
+        for (int i=0 ; i<USERS ; i++) {
+            server.registerPublicKey("user" + i, keyPair.getPublic());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void routesEachUserToTheSameShard() throws Exception {
+        final ShardedRemoteServer other = new ShardedRemoteServer();
+        for (String shardId : new String[]{"c", "a", "b"}) {
+            other.addShard(shardId);
+        }
+
+        final Map<String, String> owners = owners(server);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), new HashSet<>(owners.values()));
+        assertEquals(owners, owners(server));
+        assertEquals(owners, owners(other)); // The order in which the shards were added does not matter.
+        other.close();
+    }
+
+    @Test
+    public void movesOnlyTheUsersThatTheNewShardOwns() throws Exception {
+        final Map<String, String> before = owners(server);
+        final UserRegistry users = UserRegistryFactory.inMemoryInstance();
+        server.addShard("d", users, ChallengeStoreFactory.instance());
+
+        int moved = 0;
+        for (Map.Entry<String, String> owner : owners(server).entrySet()) {
+            if (!owner.getValue().equals(before.get(owner.getKey()))) {
+                assertEquals("d", owner.getValue());
+                assertNotEquals(UserRegistry.NOT_REGISTERED, users.find(owner.getKey()));
+                moved++;
+            }
+        }
+        assertTrue(moved > 0);
+        assertEquals(moved, users.size());
+        assertAllAuthenticate();
+    }
+
+    @Test
+    public void handsTheUsersOfARemovedShardBackAndClosesIt() throws Exception {
+        final ClosingStore store = new ClosingStore();
+        server.addShard("d", UserRegistryFactory.inMemoryInstance(), store);
+        final Map<String, String> before = owners(server);
+
+        server.removeShard("d");
+        assertTrue(store.closed);
+        assertEquals(Arrays.asList("a", "b", "c"), server.shardIds());
+        for (Map.Entry<String, String> owner : owners(server).entrySet()) {
+            if (!before.get(owner.getKey()).equals("d")) {
+                assertEquals(before.get(owner.getKey()), owner.getValue());
+            }
+        }
+        assertAllAuthenticate();
+    }
+
+    @Test
+    public void refusesToRemoveTheLastShard() throws Exception {
+        server.removeShard("a");
+        server.removeShard("b");
+        try {
+            server.removeShard("c");
+            fail("Removed the last shard.");
+        } catch (IllegalStateException expected) {}
+
+        assertEquals(Arrays.asList("c"), server.shardIds());
+        assertAllAuthenticate();
+    }
+
+    @Test
+    public void closesTheStoreOfADuplicateShard() throws Exception {
+        final ClosingStore store = new ClosingStore();
+        try {
+            server.addShard("a", UserRegistryFactory.inMemoryInstance(), store);
+            fail("Added a shard twice.");
+        } catch (IllegalArgumentException expected) {}
+
+        assertTrue(store.closed);
+        assertEquals(Arrays.asList("a", "b", "c"), server.shardIds());
+    }
+
+    private void assertAllAuthenticate() throws Exception {
+        for (int i=0 ; i<USERS ; i++) {
+            final byte[] message = server.getAuthenticationMessageToSign("user" + i);
+            assertTrue(server.authenticate("user" + i, message, SignatureCases.sign(keyPair.getPrivate(), message)));
+        }
+    }
+
+    private static Map<String, String> owners(ShardedRemoteServer server) {
+        final Map<String, String> owners = new HashMap<>();
+        for (int i=0 ; i<USERS ; i++) {
+            owners.put("user" + i, server.shardOf("user" + i));
+        }
+
+        return owners;
+    }
+
+    // Records that it was closed.
+    private static final class ClosingStore implements ChallengeStore {
+        private final ChallengeStore store = ChallengeStoreFactory.instance();
+        volatile boolean closed;
+
+        @Override
+        public byte[] issue(int userId, String username) {
+            return store.issue(userId, username);
+        }
+
+        @Override
+        public boolean consume(int userId, String username, byte[] message) {
+            return store.consume(userId, username, message);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Signatures for the comparison of the P-256 verification engines with the platform
+ * #java.security.Signature implementation: valid ones and ones that are invalid in every way the
+ * engines treat separately.
+ */
+final class SignatureCases {
+    private static final BigInteger N = P256Curve.N;
+
+    static final class Case {
+        final String name;
+        final PublicKey key;
+        final byte[] message;
+        final byte[] signature;
+
+        Case(String name, PublicKey key, byte[] message, byte[] signature) {
+            this.name = name;
+            this.key = key;
+            this.message = message;
+            this.signature = signature;
+        }
+
+        AuthRequest request(String username) {
+            return new AuthRequest(username, message, signature);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * @return true if the platform implementation accepts the signature of the input case, false if it rejects it or fails to verify it
+     */
+    static boolean jcaAccepts(Case signatureCase) {
+        try {
+            final Signature verifier = Signature.getInstance(signatureAlgorithm(signatureCase.key));
+            verifier.initVerify(signatureCase.key);
+            verifier.update(signatureCase.message);
+
+            return verifier.verify(signatureCase.signature);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the input engine accepts the signature of the input case, false if it rejects it or fails to verify it
+     */
+    static boolean engineAccepts(VerificationEngine engine, Case signatureCase) {
+        try {
+            return engine.verify(signatureCase.key, signatureCase.message, signatureCase.signature);
+        } catch (GeneralSecurityException gse) {
+            return false;
+        }
+    }
+
+    static KeyPair ecKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+
+        return generator.generateKeyPair();
+    }
+
+    static KeyPair keyPair(String algorithm) throws GeneralSecurityException {
+        return KeyPairGenerator.getInstance(algorithm).generateKeyPair();
+    }
+
+    static byte[] message(Random random) {
+        final byte[] message = new byte[16 + random.nextInt(64)];
+        random.nextBytes(message);
+
+        return message;
+    }
+
+    static byte[] sign(PrivateKey key, byte[] message) throws GeneralSecurityException {
+        final Signature signer = Signature.getInstance(signatureAlgorithm(key));
+        signer.initSign(key);
+        signer.update(message);
+
+        return signer.sign();
+    }
+
+    /**
+     * @return a valid signature and the invalid variants of it of a new message signed with the input P-256 key
+     */
+    static List<Case> ecCases(KeyPair keyPair, Random random) throws GeneralSecurityException {
+        final PublicKey key = keyPair.getPublic();
+        final byte[] message = message(random);
+        final byte[] signature = sign(keyPair.getPrivate(), message);
+        final BigInteger[] rs = P256Signatures.decode(signature);
+        final BigInteger r = rs[0];
+        final BigInteger s = rs[1];
+
+        final byte[] tamperedMessage = message.clone();
+        tamperedMessage[random.nextInt(tamperedMessage.length)] ^= 1 << random.nextInt(8);
+
+        final List<Case> cases = new ArrayList<>();
+        cases.add(new Case("valid", key, message, signature));
+        cases.add(new Case("valid with s = n - s", key, message, der(r, N.subtract(s))));
+        cases.add(new Case("tampered message", key, tamperedMessage, signature));
+        cases.add(new Case("tampered r", key, message, der(r.flipBit(random.nextInt(255)), s)));
+        cases.add(new Case("tampered s", key, message, der(r, s.flipBit(random.nextInt(255)))));
+        cases.add(new Case("r + 1", key, message, der(r.add(BigInteger.ONE).mod(N), s)));
+        cases.add(new Case("r = 0", key, message, der(BigInteger.ZERO, s)));
+        cases.add(new Case("s = 0", key, message, der(r, BigInteger.ZERO)));
+        cases.add(new Case("r = n", key, message, der(N, s)));
+        cases.add(new Case("s = n", key, message, der(r, N)));
+        cases.add(new Case("r + n", key, message, der(r.add(N), s)));
+        cases.add(new Case("s + n", key, message, der(r, s.add(N))));
+        cases.add(new Case("r = 2^256 - 1", key, message, der(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE), s)));
+        cases.add(new Case("u1*G + u2*Q at infinity", key, message, atInfinity(keyPair, message, random)));
+        cases.add(new Case("non-minimal DER", key, message, paddedDer(r, s)));
+        cases.add(new Case("truncated", key, message, Arrays.copyOf(signature, signature.length - 1)));
+        cases.add(new Case("empty", key, message, new byte[0]));
+
+        return cases;
+    }
+
+    /**
+     * @return signatures of P-256 keys that are the point at infinity or not on the curve at all
+     */
+    static List<Case> invalidKeyCases(KeyPair keyPair, Random random) throws GeneralSecurityException {
+        final ECPublicKey key = (ECPublicKey)keyPair.getPublic();
+        final byte[] message = message(random);
+        final byte[] signature = sign(keyPair.getPrivate(), message);
+        final ECPoint point = key.getW();
+
+        final List<Case> cases = new ArrayList<>();
+        cases.add(new Case("key at infinity", new RawECPublicKey(ECPoint.POINT_INFINITY, key.getParams()), message, signature));
+        cases.add(new Case("key off the curve", new RawECPublicKey(new ECPoint(point.getAffineX(), point.getAffineY().add(BigInteger.ONE)), key.getParams()), message, signature));
+        cases.add(new Case("key with x >= p", new RawECPublicKey(new ECPoint(point.getAffineX().add(P256Field.P), point.getAffineY()), key.getParams()), message, signature));
+
+        return cases;
+    }
+
+    /**
+     * @return a valid signature and one of a tampered message, with a key of the input algorithm (e.g. RSA or Ed25519)
+     */
+    static List<Case> otherAlgorithmCases(KeyPair keyPair, Random random) throws GeneralSecurityException {
+        final String algorithm = keyPair.getPublic().getAlgorithm();
+        final byte[] message = message(random);
+        final byte[] signature = sign(keyPair.getPrivate(), message);
+        final byte[] tamperedMessage = message.clone();
+        tamperedMessage[0] ^= 1;
+
+        final List<Case> cases = new ArrayList<>();
+        cases.add(new Case(algorithm + " valid", keyPair.getPublic(), message, signature));
+        cases.add(new Case(algorithm + " tampered message", keyPair.getPublic(), tamperedMessage, signature));
+
+        return cases;
+    }
+
+    static byte[] der(BigInteger r, BigInteger s) {
+        return der(r.toByteArray(), s.toByteArray());
+    }
+
+    // r and s with a redundant leading zero byte each, which a minimal encoding would not have.
+    private static byte[] paddedDer(BigInteger r, BigInteger s) {
+        final byte[] rBytes = r.toByteArray();
+        final byte[] sBytes = s.toByteArray();
+        final byte[] paddedR = new byte[rBytes.length + 1];
+        final byte[] paddedS = new byte[sBytes.length + 1];
+        System.arraycopy(rBytes, 0, paddedR, 1, rBytes.length);
+        System.arraycopy(sBytes, 0, paddedS, 1, sBytes.length);
+
+        return der(paddedR, paddedS);
+    }
+
+    private static byte[] der(byte[] r, byte[] s) {
+        final byte[] der = new byte[6 + r.length + s.length];
+        der[0] = 0x30;
+        der[1] = (byte)(der.length - 2);
+        der[2] = 0x02;
+        der[3] = (byte)r.length;
+        System.arraycopy(r, 0, der, 4, r.length);
+        der[4 + r.length] = 0x02;
+        der[5 + r.length] = (byte)s.length;
+        System.arraycopy(s, 0, der, 6 + r.length, s.length);
+
+        return der;
+    }
+
+    // With r = -e/d, u1*G + u2*Q = (e + r*d)/s*G is the point at infinity for every s.
+    private static byte[] atInfinity(KeyPair keyPair, byte[] message, Random random) throws GeneralSecurityException {
+        final BigInteger d = ((ECPrivateKey)keyPair.getPrivate()).getS();
+        final BigInteger e = new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(message));
+        final BigInteger r = e.negate().multiply(d.modInverse(N)).mod(N);
+        final BigInteger s = new BigInteger(255, random).add(BigInteger.ONE);
+
+        return der(r, s);
+    }
+
+    private static String signatureAlgorithm(Key key) {
+        return InMemoryRemoteServer.defaultSignatureAlgorithms().get(key.getAlgorithm());
+    }
+
+    // A key with any point, which the key factories would not create.
+    private static final class RawECPublicKey implements ECPublicKey {
+        private final ECPoint point;
+        private final ECParameterSpec parameters;
+
+        RawECPublicKey(ECPoint point, ECParameterSpec parameters) {
+            this.point = point;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public ECPoint getW() {
+            return point;
+        }
+
+        @Override
+        public ECParameterSpec getParams() {
+            return parameters;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "EC";
+        }
+
+        @Override
+        public String getFormat() {
+            return null;
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return null;
+        }
+    }
+
+    private SignatureCases() {}
+}
@@ -0,0 +1,104 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SlabChallengeStoreTest {
+    private static final int NONCE_LENGTH = 16;
+    private static final long TTL_MILLIS = 60000;
+    private static final int MAX_CHALLENGES = 1 << 14;
+
+    // Ids whose low 20 bits are the same have the same home slot, and ids below 2^32 go to the same segment.
+    private static final long SAME_HOME = 1 << 20;
+
+    @Test
+    public void findsTheRestOfAProbeRunAfterARemoval() {
+        final long[] ids = {1, 1 + SAME_HOME, 1 + 2*SAME_HOME, 2, 1 + 3*SAME_HOME};
+        final SlabChallengeStore store = new SlabChallengeStore(new ScriptedNonceSource(ids), TTL_MILLIS, MAX_CHALLENGES);
+        final byte[][] challenges = new byte[ids.length][];
+        for (int i=0 ; i<ids.length ; i++) {
+            challenges[i] = store.issue(i, "user" + i);
+        }
+
+        // Removing the first challenges of the run must shift the later ones back rather than leave a hole.
+        for (int i : new int[]{0, 2, 3, 1, 4}) {
+            assertTrue(store.consume(i, "user" + i, challenges[i]));
+            assertFalse(store.consume(i, "user" + i, challenges[i]));
+        }
+    }
+
+    @Test
+    public void keepsAChallengeOfAnotherUser() {
+        final SlabChallengeStore store = new SlabChallengeStore(new ScriptedNonceSource(new long[]{1, 1 + SAME_HOME}), TTL_MILLIS, MAX_CHALLENGES);
+        final byte[] first = store.issue(0, "a");
+        final byte[] second = store.issue(1, "b");
+
+        assertFalse(store.consume(1, "b", first));
+        assertTrue(store.consume(0, "a", first));
+        assertTrue(store.consume(1, "b", second));
+    }
+
+    @Test
+    public void rejectsAForgedNonce() {
+        final SlabChallengeStore store = new SlabChallengeStore(new ScriptedNonceSource(new long[]{1}), TTL_MILLIS, MAX_CHALLENGES);
+        final byte[] challenge = store.issue(0, "a");
+        final byte[] forged = challenge.clone();
+        forged[forged.length - 1] ^= 1;
+
+        assertFalse(store.consume(0, "a", forged));
+        assertTrue(store.consume(0, "a", challenge));
+    }
+
+    @Test
+    public void replacesExpiredChallengesInAFullStore() throws Exception {
+        final int maxChallenges = 1 << 10;
+        final long[] ids = new long[2*maxChallenges + 1];
+        for (int i=0 ; i<ids.length ; i++) {
+            ids[i] = ((long)i << 32) | (i + 1); // Spread over the segments in turn, so that all of them fill up.
+        }
+        final SlabChallengeStore store = new SlabChallengeStore(new ScriptedNonceSource(ids), 500, maxChallenges);
+        for (int i=0 ; i<maxChallenges ; i++) {
+            store.issue(i, "user" + i);
+        }
+        try {
+            store.issue(0, "user0");
+            fail("Issued more challenges than the maximum.");
+        } catch (ServerException expected) {}
+
+        Thread.sleep(600);
+        for (int i=0 ; i<maxChallenges ; i++) {
+            store.issue(i, "user" + i);
+        }
+    }
+
+    // Hands out the input challenge ids in turn, each followed by a nonce that is derived from it.
+    private static final class ScriptedNonceSource implements NonceSource {
+        private final long[] ids;
+        private int next;
+
+        ScriptedNonceSource(long[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public int length() {
+            return 8 + NONCE_LENGTH;
+        }
+
+        @Override
+        public void next(byte[] destination, int offset) {
+            final ByteBuffer buffer = ByteBuffer.wrap(destination, offset, length());
+            final long id = ids[next++];
+            buffer.putLong(id);
+            for (int i=0 ; i<NONCE_LENGTH ; i++) {
+                buffer.put((byte)(id*31 + i));
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,81 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UsernameIndexTest {
+
+    @Test
+    public void findsUsernamesWithTheSameHash() {
+        final UsernameIndex index = new CollidingIndex(1);
+        final String[] usernames = {"alice", "bob", "", "b\u00f6b", "\ud83d\ude00", "alice2"};
+        for (int i=0 ; i<usernames.length ; i++) {
+            assertEquals(i, index.add(usernames[i], 100 + i));
+        }
+
+        for (int i=0 ; i<usernames.length ; i++) {
+            assertEquals(i, index.find(usernames[i]));
+            assertEquals(usernames[i], index.name(i));
+            assertEquals(100 + i, index.value(i));
+        }
+        assertEquals(UsernameIndex.NOT_FOUND, index.find("alic"));
+        assertEquals(UsernameIndex.NOT_FOUND, index.find("bob "));
+        assertEquals(UsernameIndex.NOT_FOUND, index.add("bob", 0));
+        assertEquals(usernames.length, index.size());
+    }
+
+    @Test
+    public void findsUsernamesWithAZeroHash() {
+        final UsernameIndex index = new CollidingIndex(2); // Hashes 0 and 1, and zero also marks an empty slot.
+        for (int i=0 ; i<10 ; i++) {
+            assertEquals(i, index.add("user" + i, i));
+        }
+
+        for (int i=0 ; i<10 ; i++) {
+            assertEquals(i, index.find("user" + i));
+        }
+        assertEquals(UsernameIndex.NOT_FOUND, index.find("user10"));
+    }
+
+    @Test
+    public void findsCollidingUsernamesAfterGrowing() {
+        final UsernameIndex index = new CollidingIndex(8);
+        for (int i=0 ; i<5000 ; i++) {
+            assertEquals(i, index.add("user" + i, i));
+        }
+
+        for (int i=0 ; i<5000 ; i++) {
+            assertEquals(i, index.find("user" + i));
+        }
+        assertEquals(UsernameIndex.NOT_FOUND, index.find("user5000"));
+    }
+
+    @Test
+    public void findsUsernamesAfterGrowing() {
+        final UsernameIndex index = new UsernameIndex();
+        for (int i=0 ; i<100000 ; i++) {
+            assertEquals(i, index.add("user" + i, 2L*i));
+        }
+
+        for (int i=0 ; i<100000 ; i++) {
+            assertEquals(i, index.find("user" + i));
+            assertEquals(2L*i, index.value(i));
+        }
+        assertEquals(UsernameIndex.NOT_FOUND, index.find("user100000"));
+    }
+
+    // Hashes the usernames into a few values only.
+    private static final class CollidingIndex extends UsernameIndex {
+        private final int hashes;
+
+        CollidingIndex(int hashes) {
+            this.hashes = hashes;
+        }
+
+        @Override
+        long hash(String username) {
+            return (username.hashCode() & 0x7fffffff) % hashes;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package uk.co.akm.imprintdemo.server;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.co.akm.imprintdemo.key.KeyCodec;
+import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+
+import static org.junit.Assert.*;
+
+public class WireCodecTest {
+    private static final byte[] MESSAGE = {1, 2, 3};
+    private static final byte[] SIGNATURE = {4, 5};
+
+    @Test
+    public void decodesARegistration() throws Exception {
+        final KeyCodec keyCodec = KeySerializerFactory.compactCodecInstance();
+        final PublicKey key = SignatureCases.ecKeyPair().getPublic();
+        final ByteBuffer frame = body(WireCodec.registration(7, "user", keyCodec.encode(key)), 7, WireCodec.REGISTRATION);
+
+        assertEquals("user", WireCodec.getString(frame));
+        assertEquals(key, WireCodec.getKey(frame, keyCodec));
+        assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    public void decodesAChallengeRequestAndAChallenge() {
+        final ByteBuffer request = body(WireCodec.challengeRequest(1, "\u00e9l\u00e8ve \ud83d\ude00"), 1, WireCodec.CHALLENGE_REQUEST);
+        assertEquals("\u00e9l\u00e8ve \ud83d\ude00", WireCodec.getString(request));
+        assertFalse(request.hasRemaining());
+
+        final ByteBuffer challenge = body(WireCodec.challenge(2, MESSAGE), 2, WireCodec.CHALLENGE);
+        assertArrayEquals(MESSAGE, WireCodec.getBytes(challenge));
+        assertFalse(challenge.hasRemaining());
+    }
+
+    @Test
+    public void decodesAnAuthentication() {
+        final ByteBuffer frame = body(WireCodec.authentication(3, "user", MESSAGE, SIGNATURE), 3, WireCodec.AUTHENTICATION);
+
+        assertEquals("user", WireCodec.getString(frame));
+        assertArrayEquals(MESSAGE, WireCodec.getBytes(frame));
+        assertArrayEquals(SIGNATURE, WireCodec.getBytes(frame));
+        assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    public void decodesMissingValuesAsEmptyOnes() {
+        final ByteBuffer frame = body(WireCodec.authentication(3, null, null, SIGNATURE), 3, WireCodec.AUTHENTICATION);
+
+        assertEquals("", WireCodec.getString(frame));
+        assertArrayEquals(new byte[0], WireCodec.getBytes(frame));
+        assertArrayEquals(SIGNATURE, WireCodec.getBytes(frame));
+    }
+
+    @Test
+    public void decodesABatchWithMissingRequests() {
+        final List<AuthRequest> batch = Arrays.asList(new AuthRequest("a", MESSAGE, SIGNATURE), null, new AuthRequest("b", SIGNATURE, MESSAGE));
+        final List<AuthRequest> decoded = WireCodec.getAuthenticationBatch(body(WireCodec.authenticationBatch(4, batch), 4, WireCodec.AUTHENTICATION_BATCH));
+
+        assertEquals(3, decoded.size());
+        assertRequest("a", MESSAGE, SIGNATURE, decoded.get(0));
+        assertRequest("", new byte[0], new byte[0], decoded.get(1));
+        assertRequest("b", SIGNATURE, MESSAGE, decoded.get(2));
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsAMissingBatch() {
+        WireCodec.authenticationBatch(4, null);
+    }
+
+    @Test
+    public void decodesResults() {
+        for (int count : new int[]{0, 1, 7, 8, 9, 17}) {
+            final boolean[] results = new boolean[count];
+            for (int i=0 ; i<count ; i++) {
+                results[i] = (i % 3 == 0);
+            }
+
+            assertArrayEquals(results, WireCodec.getResults(body(WireCodec.results(5, results), 5, WireCodec.RESULTS)));
+        }
+    }
+
+    @Test
+    public void decodesAnError() {
+        assertEquals("Failed.", WireCodec.getString(body(WireCodec.error(6, "Failed."), 6, WireCodec.ERROR)));
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsTooLongFields() {
+        WireCodec.challenge(1, new byte[WireCodec.MAX_FIELD_LENGTH + 1]);
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsAnUnknownVersion() {
+        final ByteBuffer frame = withoutLength(WireCodec.challengeRequest(1, "user"));
+        frame.put(4, (byte)(WireCodec.VERSION + 1));
+
+        WireCodec.getRequestId(frame);
+        WireCodec.getMessageType(frame);
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsAFrameWithoutAType() {
+        final ByteBuffer frame = ByteBuffer.allocate(5);
+        frame.putInt(1).put(WireCodec.VERSION).flip();
+
+        WireCodec.getRequestId(frame);
+        WireCodec.getMessageType(frame);
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsATruncatedField() {
+        final ByteBuffer frame = body(WireCodec.authentication(3, "user", MESSAGE, SIGNATURE), 3, WireCodec.AUTHENTICATION);
+        frame.limit(frame.limit() - 1);
+
+        WireCodec.getString(frame);
+        WireCodec.getBytes(frame);
+        WireCodec.getBytes(frame);
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsABatchCountLargerThanTheFrame() {
+        final ByteBuffer frame = body(WireCodec.authenticationBatch(4, Arrays.asList(new AuthRequest("a", MESSAGE, SIGNATURE))), 4, WireCodec.AUTHENTICATION_BATCH);
+        frame.putInt(frame.position(), 1000);
+
+        WireCodec.getAuthenticationBatch(frame);
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsANegativeBatchCount() {
+        final ByteBuffer frame = body(WireCodec.authenticationBatch(4, Arrays.asList(new AuthRequest("a", MESSAGE, SIGNATURE))), 4, WireCodec.AUTHENTICATION_BATCH);
+        frame.putInt(frame.position(), -1);
+
+        WireCodec.getAuthenticationBatch(frame);
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsResultsLongerThanTheFrame() {
+        final ByteBuffer frame = body(WireCodec.results(5, true, false), 5, WireCodec.RESULTS);
+        frame.putInt(frame.position(), 9);
+
+        WireCodec.getResults(frame);
+    }
+
+    // Checks the length, request id and type of an encoded frame and returns it positioned at the message body.
+    private static ByteBuffer body(ByteBuffer encoded, int requestId, byte type) {
+        final ByteBuffer frame = withoutLength(encoded);
+        assertEquals(requestId, WireCodec.getRequestId(frame));
+        assertEquals(type, WireCodec.getMessageType(frame));
+
+        return frame;
+    }
+
+    private static ByteBuffer withoutLength(ByteBuffer encoded) {
+        assertEquals(encoded.remaining() - WireCodec.LENGTH_FIELD, encoded.getInt());
+
+        return encoded.slice();
+    }
+
+    private static void assertRequest(String username, byte[] message, byte[] signature, AuthRequest request) {
+        assertEquals(username, request.username);
+        assertArrayEquals(message, request.message);
+        assertArrayEquals(signature, request.signature);
+    }
+}
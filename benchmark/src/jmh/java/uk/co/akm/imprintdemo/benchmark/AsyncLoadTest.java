@@ -0,0 +1,247 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.co.akm.imprintdemo.server.AsyncRemoteServer;
+import uk.co.akm.imprintdemo.server.AuthRequest;
+import uk.co.akm.imprintdemo.server.ExecutorAsyncRemoteServer;
+import uk.co.akm.imprintdemo.server.InMemoryRemoteServer;
+import uk.co.akm.imprintdemo.server.RemoteServer;
+import uk.co.akm.imprintdemo.server.ServerCallback;
+import uk.co.akm.imprintdemo.server.ServerException;
+
+/**
+ * Load test of the asynchronous server API with platform and with virtual threads. A number of
+ * clients log in at the same time, each a number of times in a row, through an
+ * #ExecutorAsyncRemoteServer in front of a server whose calls also wait on (simulated) storage. A
+ * login is a challenge request followed by an authentication. The test runs once with a fixed pool
+ * of platform threads and once with a virtual thread per call, if the JVM has virtual threads (Java
+ * 21 or later), and prints the throughput and the latency percentiles of the logins of both.
+ *
+ * Arguments: [clients (10000)] [logins per client (5)] [storage latency in ms (5)] [platform threads (200)]
+ *
+ * e.g. gradlew :benchmark:asyncLoadTest -PloadTestArgs="10000 5 5 200"
+ */
+public final class AsyncLoadTest {
+    private static final String USERNAME = "load-test-user";
+
+    public static void main(String[] args) throws Exception {
+        final int clients = intArgument(args, 0, 10000);
+        final int loginsPerClient = intArgument(args, 1, 5);
+        final int storageMillis = intArgument(args, 2, 5);
+        final int platformThreads = intArgument(args, 3, 200);
+
+        final KeyPair keyPair = Keys.generate(Keys.EC);
+        final byte[] message = new byte[512];
+        new Random(42).nextBytes(message);
+
+        final Signature signer = Signature.getInstance(Keys.signatureAlgorithm(Keys.EC));
+        signer.initSign(keyPair.getPrivate());
+        signer.update(message);
+        final byte[] signature = signer.sign();
+
+        final RemoteServer server = new StorageLatencyServer(new InMemoryRemoteServer(new ReplayingChallengeStore(message)), storageMillis);
+        server.registerPublicKey(USERNAME, keyPair.getPublic());
+
+        System.out.println(clients + " clients x " + loginsPerClient + " logins, " + storageMillis + " ms storage latency, " + Runtime.getRuntime().availableProcessors() + " cores");
+        try {
+            run("platform threads (" + platformThreads + ")", Executors.newFixedThreadPool(platformThreads), server, signature, clients, loginsPerClient);
+
+            final ExecutorService virtualThreads = virtualThreadPerTaskExecutor();
+            if (virtualThreads == null) {
+                System.out.println("virtual threads: not available on Java " + System.getProperty("java.version"));
+            } else {
+                run("virtual threads", virtualThreads, server, signature, clients, loginsPerClient);
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private static int intArgument(String[] args, int index, int defaultValue) {
+        return (args.length > index ? Integer.parseInt(args[index]) : defaultValue);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor(), looked up at run time as the benchmarks are compiled for Java 8.
+    private static ExecutorService virtualThreadPerTaskExecutor() throws Exception {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException nsme) {
+            return null;
+        }
+    }
+
+    private static void run(String name, ExecutorService requestExecutor, RemoteServer server, byte[] signature, int clients, int loginsPerClient) throws InterruptedException {
+        final AsyncRemoteServer asyncServer = new ExecutorAsyncRemoteServer(server, requestExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run(); // The next call of a client is submitted from the callback of its previous one.
+            }
+        });
+
+        try {
+            new Load(asyncServer, signature, Math.max(1, clients/10), 1).run(); // Warm-up.
+
+            final Load load = new Load(asyncServer, signature, clients, loginsPerClient);
+            final long start = System.nanoTime();
+            load.run();
+            final double seconds = (System.nanoTime() - start)/1e9;
+
+            final long[] latencies = load.latencies();
+            Arrays.sort(latencies);
+            System.out.println(String.format(Locale.US, "%s: %d logins in %.2f s, %.0f logins/s, p50 %.1f ms, p99 %.1f ms, max %.1f ms, %d failed",
+                    name, latencies.length, seconds, latencies.length/seconds,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1), load.failures.get()));
+        } finally {
+            requestExecutor.shutdown();
+            requestExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double fraction) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+
+        final int index = (int)Math.ceil(fraction*sortedNanos.length) - 1;
+
+        return sortedNanos[Math.max(0, index)]/1e6;
+    }
+
+    // All the clients start at once and each starts its next login when its previous one completes.
+    private static final class Load {
+        private final AsyncRemoteServer server;
+        private final byte[] signature;
+        private final int clients;
+        private final int loginsPerClient;
+        private final long[] latencies;
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final CountDownLatch done;
+
+        Load(AsyncRemoteServer server, byte[] signature, int clients, int loginsPerClient) {
+            this.server = server;
+            this.signature = signature;
+            this.clients = clients;
+            this.loginsPerClient = loginsPerClient;
+            this.latencies = new long[clients*loginsPerClient];
+            this.done = new CountDownLatch(clients);
+        }
+
+        void run() throws InterruptedException {
+            for (int i=0 ; i<clients ; i++) {
+                login(loginsPerClient);
+            }
+            done.await();
+        }
+
+        long[] latencies() {
+            return Arrays.copyOf(latencies, completed.get());
+        }
+
+        private void login(final int remaining) {
+            if (remaining == 0) {
+                done.countDown();
+                return;
+            }
+
+            final long start = System.nanoTime();
+            server.getAuthenticationMessageToSign(USERNAME, new ServerCallback<byte[]>() {
+                @Override
+                public void onSuccess(byte[] message) {
+                    server.authenticate(USERNAME, message, signature, new ServerCallback<Boolean>() {
+                        @Override
+                        public void onSuccess(Boolean authenticated) {
+                            completed(start, authenticated, remaining);
+                        }
+
+                        @Override
+                        public void onFailure(ServerException error) {
+                            completed(start, false, remaining);
+                        }
+                    });
+                }
+
+                @Override
+                public void onFailure(ServerException error) {
+                    completed(start, false, remaining);
+                }
+            });
+        }
+
+        private void completed(long start, boolean authenticated, int remaining) {
+            latencies[completed.getAndIncrement()] = System.nanoTime() - start;
+            if (!authenticated) {
+                failures.incrementAndGet();
+            }
+
+            login(remaining - 1);
+        }
+    }
+
+    // Waits for the input time before every challenge and authentication, like a server that looks its users up in remote storage.
+    private static final class StorageLatencyServer implements RemoteServer {
+        private final RemoteServer server;
+        private final long latencyMillis;
+
+        StorageLatencyServer(RemoteServer server, long latencyMillis) {
+            this.server = server;
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public void registerPublicKey(String username, String publicKeyData) throws ServerException {
+            server.registerPublicKey(username, publicKeyData);
+        }
+
+        @Override
+        public void registerPublicKey(String username, PublicKey publicKey) throws ServerException {
+            server.registerPublicKey(username, publicKey);
+        }
+
+        @Override
+        public byte[] getAuthenticationMessageToSign(String username) {
+            waitForStorage();
+            return server.getAuthenticationMessageToSign(username);
+        }
+
+        @Override
+        public boolean authenticate(String username, byte[] message, byte[] signature) throws ServerException {
+            waitForStorage();
+            return server.authenticate(username, message, signature);
+        }
+
+        @Override
+        public boolean[] authenticateAll(List<AuthRequest> requests) throws ServerException {
+            waitForStorage();
+            return server.authenticateAll(requests);
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+
+        private void waitForStorage() {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.akm.imprintdemo.server.InMemoryRemoteServer;
+import uk.co.akm.imprintdemo.server.RemoteServer;
+
+/**
+ * Measures InMemoryRemoteServer.authenticate, i.e. the user lookup and the signature verification.
+ * The challenge store accepts the same signed message every time, so that no signing is measured.
+ * The key algorithm parameter compares the cost of the signature algorithms the server supports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuthenticationBenchmark {
+    private static final String USERNAME = "benchmark-user";
+
+    @Param({Keys.EC, Keys.RSA, Keys.ED25519})
+    public String algorithm;
+
+    private RemoteServer server;
+    private byte[] message;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeyPair keyPair = Keys.generate(algorithm);
+
+        message = new byte[512];
+        new Random(42).nextBytes(message);
+
+        final Signature signer = Signature.getInstance(Keys.signatureAlgorithm(algorithm));
+        signer.initSign(keyPair.getPrivate());
+        signer.update(message);
+        signature = signer.sign();
+
+        server = new InMemoryRemoteServer(new ReplayingChallengeStore(message));
+        server.registerPublicKey(USERNAME, keyPair.getPublic());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    public boolean authenticate() {
+        return server.authenticate(USERNAME, message, signature);
+    }
+}
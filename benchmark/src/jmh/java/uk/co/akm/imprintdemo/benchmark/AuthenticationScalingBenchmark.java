@@ -0,0 +1,104 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.akm.imprintdemo.server.InMemoryRemoteServer;
+import uk.co.akm.imprintdemo.server.RemoteServer;
+
+/**
+ * Measures how the throughput of InMemoryRemoteServer.authenticate scales with the number of
+ * threads calling it, from one thread up to one per available processor, with every thread working
+ * on a rotating set of users. The throughput per thread should stay about the same up to the number
+ * of cores if the threads do not contend on a lock.
+ *
+ * The benchmark has only been run on a single core so far, where all the thread counts share one
+ * processor. Those results show no collapse under contention, but they say nothing about scaling,
+ * which is unverified until the benchmark is run on a multi-core machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AuthenticationScalingBenchmark {
+    private static final int USERS = 4096;
+
+    private RemoteServer server;
+    private String[] usernames;
+    private byte[] message;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeyPair keyPair = Keys.generate(Keys.EC);
+
+        message = new byte[512];
+        new Random(42).nextBytes(message);
+
+        final Signature signer = Signature.getInstance(Keys.signatureAlgorithm(Keys.EC));
+        signer.initSign(keyPair.getPrivate());
+        signer.update(message);
+        signature = signer.sign();
+
+        server = new InMemoryRemoteServer(new ReplayingChallengeStore(message));
+        usernames = new String[USERS];
+        for (int i=0 ; i<USERS ; i++) {
+            usernames[i] = "user" + i;
+            server.registerPublicKey(usernames[i], keyPair.getPublic());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+        int next = new Random().nextInt(USERS);
+
+        int nextIndex() {
+            return (next++ & (USERS - 1));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean authenticate1Thread(User user) {
+        return authenticate(user);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public boolean authenticate2Threads(User user) {
+        return authenticate(user);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean authenticate4Threads(User user) {
+        return authenticate(user);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean authenticateMaxThreads(User user) {
+        return authenticate(user);
+    }
+
+    private boolean authenticate(User user) {
+        return server.authenticate(usernames[user.nextIndex()], message, signature);
+    }
+}
@@ -0,0 +1,73 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.akm.imprintdemo.server.AuthRequest;
+import uk.co.akm.imprintdemo.server.InMemoryRemoteServer;
+import uk.co.akm.imprintdemo.server.RemoteServer;
+import uk.co.akm.imprintdemo.server.UserRegistryFactory;
+import uk.co.akm.imprintdemo.server.VerificationEngineFactory;
+
+/**
+ * Measures InMemoryRemoteServer.authenticateAll for a batch of EC signatures of different users,
+ * verified one by one with the platform signature implementation or together by the batch engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BatchAuthenticationBenchmark {
+    @Param({"jca", "batch"})
+    public String engine;
+
+    @Param({"32"})
+    public int batchSize;
+
+    private RemoteServer server;
+    private List<AuthRequest> requests;
+
+    @Setup
+    public void setUp() throws Exception {
+        final byte[] message = new byte[512];
+        new Random(42).nextBytes(message);
+
+        server = new InMemoryRemoteServer(Runtime.getRuntime().availableProcessors(), UserRegistryFactory.inMemoryInstance(), new ReplayingChallengeStore(message),
+                "jca".equals(engine) ? VerificationEngineFactory.instance() : VerificationEngineFactory.batchInstance());
+        requests = new ArrayList<>(batchSize);
+        for (int i=0 ; i<batchSize ; i++) {
+            final KeyPair keyPair = Keys.generate(Keys.EC);
+            final Signature signer = Signature.getInstance(Keys.signatureAlgorithm(Keys.EC));
+            signer.initSign(keyPair.getPrivate());
+            signer.update(message);
+
+            final String username = "benchmark-user-" + i;
+            server.registerPublicKey(username, keyPair.getPublic());
+            requests.add(new AuthRequest(username, message, signer.sign()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    public boolean[] authenticateAll() {
+        return server.authenticateAll(requests);
+    }
+}
@@ -0,0 +1,73 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import uk.co.akm.imprintdemo.server.ChallengeStore;
+import uk.co.akm.imprintdemo.server.ChallengeStoreFactory;
+
+/**
+ * Measures challenge issuing by the different challenge stores, for a rotating set of users. Each
+ * challenge is consumed right after it is issued, so that stores keeping several challenges per
+ * user (like the slab one) stay at a steady size instead of filling up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChallengeIssueBenchmark {
+    private static final int USERS = 1024;
+
+    @Param({"expiring", "slab", "stateless"})
+    public String store;
+
+    private ChallengeStore challengeStore;
+    private String[] usernames;
+
+    @Setup
+    public void setUp() {
+        if ("expiring".equals(store)) {
+            challengeStore = ChallengeStoreFactory.expiringInstance(ChallengeStoreFactory.DEFAULT_TTL_MILLIS, ChallengeStoreFactory.DEFAULT_MAX_CHALLENGES);
+        } else if ("slab".equals(store)) {
+            challengeStore = ChallengeStoreFactory.slabInstance(ChallengeStoreFactory.DEFAULT_TTL_MILLIS, ChallengeStoreFactory.DEFAULT_MAX_CHALLENGES);
+        } else {
+            challengeStore = ChallengeStoreFactory.statelessInstance(new byte[32], ChallengeStoreFactory.DEFAULT_TTL_MILLIS);
+        }
+
+        usernames = new String[USERS];
+        for (int i=0 ; i<USERS ; i++) {
+            usernames[i] = "user" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        challengeStore.close();
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+        int next;
+
+        int nextId() {
+            return (next++ & (USERS - 1));
+        }
+    }
+
+    @Benchmark
+    public boolean issueAndConsume(User user) {
+        final int userId = user.nextId();
+        final byte[] challenge = challengeStore.issue(userId, usernames[userId]);
+
+        return challengeStore.consume(userId, usernames[userId], challenge);
+    }
+}
@@ -0,0 +1,56 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.akm.imprintdemo.key.KeySerializer;
+import uk.co.akm.imprintdemo.key.KeySerializerFactory;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeySerializationBenchmark {
+    public static final String SEPARATED = "separated";
+    public static final String COMPACT = "compact";
+
+    @Param({Keys.EC, Keys.RSA, Keys.ED25519})
+    public String algorithm;
+
+    // With no cache every deserialization builds the key, with one it is the same key every time.
+    @Param({"0", "" + KeySerializerFactory.DEFAULT_MAX_CACHED_KEYS})
+    public int maxCachedKeys;
+
+    @Param({SEPARATED, COMPACT})
+    public String format;
+
+    private KeySerializer keySerializer;
+    private PublicKey key;
+    private String serializedKey;
+
+    @Setup
+    public void setUp() throws Exception {
+        keySerializer = (COMPACT.equals(format) ? KeySerializerFactory.compactInstance(maxCachedKeys) : KeySerializerFactory.instance(maxCachedKeys));
+        key = Keys.generate(algorithm).getPublic();
+        serializedKey = keySerializer.serialize(key);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return keySerializer.serialize(key);
+    }
+
+    @Benchmark
+    public PublicKey deserialize() {
+        return keySerializer.deserialize(serializedKey);
+    }
+}
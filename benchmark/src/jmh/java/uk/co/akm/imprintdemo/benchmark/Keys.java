@@ -0,0 +1,37 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+import uk.co.akm.imprintdemo.server.InMemoryRemoteServer;
+
+final class Keys {
+    static final String EC = "EC";
+    static final String RSA = "RSA";
+    static final String ED25519 = "Ed25519"; // Needs a Java 15 or later JVM.
+
+    // The key types that the server verifies: P-256 EC keys, 2048-bit RSA keys and Ed25519 keys.
+    static KeyPair generate(String algorithm) throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        if (EC.equals(algorithm)) {
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+        } else if (RSA.equals(algorithm)) {
+            generator.initialize(2048);
+        }
+
+        return generator.generateKeyPair();
+    }
+
+    static String signatureAlgorithm(String algorithm) {
+        if (EC.equals(algorithm)) {
+            return InMemoryRemoteServer.SIGNATURE_ALGORITHM_EC;
+        }
+
+        return (RSA.equals(algorithm) ? InMemoryRemoteServer.SIGNATURE_ALGORITHM_RSA : InMemoryRemoteServer.SIGNATURE_ALGORITHM_ED25519);
+    }
+
+    private Keys() {}
+}
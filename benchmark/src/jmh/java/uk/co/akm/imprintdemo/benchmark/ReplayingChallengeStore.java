@@ -0,0 +1,29 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import uk.co.akm.imprintdemo.server.ChallengeStore;
+
+/**
+ * Issues and accepts the same message every time, so that benchmarks can authenticate with a
+ * signature made once, instead of measuring the signing of a new challenge on every call.
+ */
+final class ReplayingChallengeStore implements ChallengeStore {
+    private final byte[] message;
+
+    ReplayingChallengeStore(byte[] message) {
+        this.message = message;
+    }
+
+    @Override
+    public byte[] issue(int userId, String username) {
+        return message;
+    }
+
+    @Override
+    public boolean consume(int userId, String username, byte[] message) {
+        return true;
+    }
+
+    @Override
+    public void close() {}
+}
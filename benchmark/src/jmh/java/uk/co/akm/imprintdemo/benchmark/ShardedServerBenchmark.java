@@ -0,0 +1,95 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.akm.imprintdemo.server.ChallengeStoreFactory;
+import uk.co.akm.imprintdemo.server.ShardedRemoteServer;
+import uk.co.akm.imprintdemo.server.UserRegistryFactory;
+
+/**
+ * Measures the throughput of a #ShardedRemoteServer for a growing number of shards, with several
+ * threads working on a rotating set of users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class ShardedServerBenchmark {
+    private static final int USERS = 4096;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    private ShardedRemoteServer challengingServer;
+    private ShardedRemoteServer verifyingServer;
+    private String[] usernames;
+    private byte[] message;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeyPair keyPair = Keys.generate(Keys.EC);
+
+        message = new byte[512];
+        new Random(42).nextBytes(message);
+
+        final Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(message);
+        signature = signer.sign();
+
+        challengingServer = new ShardedRemoteServer();
+        verifyingServer = new ShardedRemoteServer();
+        for (int i=0 ; i<shards ; i++) {
+            challengingServer.addShard("shard" + i, UserRegistryFactory.inMemoryInstance(), ChallengeStoreFactory.instance());
+            verifyingServer.addShard("shard" + i, UserRegistryFactory.inMemoryInstance(), new ReplayingChallengeStore(message));
+        }
+
+        usernames = new String[USERS];
+        for (int i=0 ; i<USERS ; i++) {
+            usernames[i] = "user" + i;
+            challengingServer.registerPublicKey(usernames[i], keyPair.getPublic());
+            verifyingServer.registerPublicKey(usernames[i], keyPair.getPublic());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        challengingServer.close();
+        verifyingServer.close();
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+        int next = new Random().nextInt(USERS);
+
+        int nextIndex() {
+            return (next++ & (USERS - 1));
+        }
+    }
+
+    @Benchmark
+    public byte[] issueChallenge(User user) {
+        return challengingServer.getAuthenticationMessageToSign(usernames[user.nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean authenticate(User user) {
+        return verifyingServer.authenticate(usernames[user.nextIndex()], message, signature);
+    }
+}
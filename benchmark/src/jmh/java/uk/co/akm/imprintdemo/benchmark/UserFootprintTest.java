@@ -0,0 +1,71 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import java.security.PublicKey;
+import java.util.Locale;
+
+import uk.co.akm.imprintdemo.server.UserRegistry;
+import uk.co.akm.imprintdemo.server.UserRegistryFactory;
+
+/**
+ * Measures the heap that the in-memory user registry takes per registered user, for a number of
+ * user counts. Every count is registered in a new registry, with usernames like the ones of real
+ * users and with keys taken in turn from a small set of P-256 keys (the registry keeps an encoded
+ * copy of the key of every user, so reusing the key objects does not change the footprint). The
+ * heap in use is read after a full collection before and after the registrations.
+ *
+ * Arguments: [user counts (1000000 10000000 50000000)]
+ *
+ * e.g. gradlew :benchmark:userFootprintTest -PfootprintArgs="1000000 10000000" -PfootprintHeap=4g
+ */
+public final class UserFootprintTest {
+    private static final int KEYS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        final int[] userCounts = (args.length == 0 ? new int[]{1000000, 10000000, 50000000} : new int[args.length]);
+        for (int i=0 ; i<args.length ; i++) {
+            userCounts[i] = Integer.parseInt(args[i]);
+        }
+
+        final PublicKey[] keys = new PublicKey[KEYS];
+        for (int i=0 ; i<KEYS ; i++) {
+            keys[i] = Keys.generate(Keys.EC).getPublic();
+        }
+
+        System.out.println("Max heap " + Runtime.getRuntime().maxMemory()/(1 << 20) + " MB");
+        for (int userCount : userCounts) {
+            measure(userCount, keys);
+        }
+    }
+
+    private static void measure(int userCount, PublicKey[] keys) throws InterruptedException {
+        final long before = usedHeap();
+        final long start = System.nanoTime();
+
+        UserRegistry users = UserRegistryFactory.inMemoryInstance();
+        try {
+            for (int i=0 ; i<userCount ; i++) {
+                users.register("user-" + i + "@example.com", keys[i % KEYS]);
+            }
+        } catch (OutOfMemoryError oome) {
+            final int registered = users.size();
+            users = null;
+            System.out.println(String.format(Locale.ROOT, "%,d users: out of memory after %,d users", userCount, registered));
+            return;
+        }
+
+        final long seconds = (System.nanoTime() - start)/1000000000L;
+        final long bytes = usedHeap() - before;
+        System.out.println(String.format(Locale.ROOT, "%,d users: %,d MB, %d bytes per user (registered in %d s)", users.size(), bytes/(1 << 20), bytes/users.size(), seconds));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i=0 ; i<3 ; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,59 @@
+package uk.co.akm.imprintdemo.benchmark;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.akm.imprintdemo.server.VerificationEngine;
+import uk.co.akm.imprintdemo.server.VerificationEngineFactory;
+
+/**
+ * Compares the verification of one hot P-256 key by the platform signature implementation and by
+ * the engine with precomputed key tables. The table is built during the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VerificationEngineBenchmark {
+    @Param({"jca", "precomputed"})
+    public String engine;
+
+    private VerificationEngine verificationEngine;
+    private PublicKey key;
+    private byte[] message;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeyPair keyPair = Keys.generate(Keys.EC);
+        key = keyPair.getPublic();
+
+        message = new byte[512];
+        new Random(42).nextBytes(message);
+
+        final Signature signer = Signature.getInstance(Keys.signatureAlgorithm(Keys.EC));
+        signer.initSign(keyPair.getPrivate());
+        signer.update(message);
+        signature = signer.sign();
+
+        verificationEngine = ("jca".equals(engine) ? VerificationEngineFactory.instance() : VerificationEngineFactory.precomputedInstance(1, 1, VerificationEngineFactory.DEFAULT_CROSS_CHECK_INTERVAL));
+        verificationEngine.verify(key, message, signature);
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return verificationEngine.verify(key, message, signature);
+    }
+}
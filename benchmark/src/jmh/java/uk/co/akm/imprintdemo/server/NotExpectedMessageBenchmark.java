@@ -0,0 +1,49 @@
+package uk.co.akm.imprintdemo.server;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the challenge comparison of ExpiringChallengeStore, which lives in this package so that
+ * it can call it directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NotExpectedMessageBenchmark {
+    @Param({"32", "512"})
+    public int length;
+
+    private byte[] expected;
+    private byte[] same;
+    private byte[] differentAtEnd;
+
+    @Setup
+    public void setUp() {
+        expected = new byte[length];
+        new Random(42).nextBytes(expected);
+        same = expected.clone();
+        differentAtEnd = expected.clone();
+        differentAtEnd[length - 1] ^= 1;
+    }
+
+    @Benchmark
+    public boolean same() {
+        return ExpiringChallengeStore.notExpectedMessage(expected, same);
+    }
+
+    @Benchmark
+    public boolean differentAtEnd() {
+        return ExpiringChallengeStore.notExpectedMessage(expected, differentAtEnd);
+    }
+}